@@ -31,6 +31,8 @@ import android.content.IntentFilter;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -53,12 +55,25 @@ public class A2dpReceiver extends BroadcastReceiver {
 
     private final Context mContext;
     private final AlarmManager mAlarmManager;
-    private final BluetoothAdapter mBluetoothAdapter;
+    private BluetoothAdapter mBluetoothAdapter;
 
     private MediaPlayer mPlayer;
     private BluetoothA2dp mBluetoothA2dp;
 
     private PMCStatusLogger mPMCStatusLogger;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Cold start of Bluetooth, logged by the command which enabled it
+    private double mColdStartMs = -1;
+    // Codec requested by the current command, null once it is set or timed out
+    private BluetoothCodecConfig mPendingCodec;
+    private boolean mCodecRequested;
+    private int mPlayTime;
+    private final Runnable mCodecTimeout = new Runnable() {
+        @Override
+        public void run() {
+            finishCodec(false);
+        }
+    };
 
     /**
      * BroadcastReceiver() to get status after calling setCodecConfigPreference()
@@ -72,6 +87,7 @@ public class A2dpReceiver extends BroadcastReceiver {
 
             if (BluetoothA2dp.ACTION_CODEC_CONFIG_CHANGED.equals(action)) {
                 getCodecValue(true);
+                checkPendingCodec();
             }
         }
     };
@@ -87,6 +103,7 @@ public class A2dpReceiver extends BroadcastReceiver {
                 Log.d(TAG, "BluetoothA2dpServiceListener.onServiceConnected");
                 mBluetoothA2dp = (BluetoothA2dp) proxy;
                 getCodecValue(true);
+                applyPendingCodec();
             }
 
             public void onServiceDisconnected(int profile) {
@@ -105,43 +122,52 @@ public class A2dpReceiver extends BroadcastReceiver {
         // Prepare for setting alarm service
         mContext = context;
         mAlarmManager = alarmManager;
+        // Bluetooth and the A2DP proxy are set up by the first streaming command
+        Log.d(TAG, "A2dpReceiver()");
+    }
 
-        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mBluetoothAdapter == null) {
-            Log.e(TAG, "BluetoothAdapter is Null");
-            return;
-        } else {
-            if (!mBluetoothAdapter.isEnabled()) {
-                Log.d(TAG, "BluetoothAdapter is NOT enabled, enable now");
-                mBluetoothAdapter.enable();
-                if (!mBluetoothAdapter.isEnabled()) {
-                    Log.e(TAG, "Can't enable Bluetooth");
-                    return;
-                }
-            }
-        }
+    /**
+     * initialize() to get the A2DP proxy once Bluetooth is on, the proxy and the codec
+     *              receiver are kept until the test finishes
+     *
+     * @param adapter - enabled adapter
+     * @param startNanos - time the first streaming command was received
+     */
+    private void initialize(BluetoothAdapter adapter, long startNanos) {
+        Log.d(TAG, "Start initialize()");
+        mBluetoothAdapter = adapter;
+        mBluetoothAdapter.getProfileProxy(mContext,
+                                mBluetoothA2dpServiceListener,
+                                BluetoothProfile.A2DP);
+        Log.d(TAG, "After getProfileProxy()");
         // Setup BroadcastReceiver for ACTION_CODEC_CONFIG_CHANGED
         IntentFilter filter = new IntentFilter();
-        if (mBluetoothAdapter != null) {
-            mBluetoothAdapter.getProfileProxy(mContext,
-                                    mBluetoothA2dpServiceListener,
-                                    BluetoothProfile.A2DP);
-            Log.d(TAG, "After getProfileProxy()");
-        }
-        filter = new IntentFilter();
         filter.addAction(BluetoothA2dp.ACTION_CODEC_CONFIG_CHANGED);
         mContext.registerReceiver(mBluetoothA2dpReceiver, filter);
-
-        Log.d(TAG, "A2dpReceiver()");
+        mColdStartMs = BluetoothUtils.recordColdStart("A2dp", startNanos);
     }
 
     /**
-     * initialize() to setup Bluetooth adapters and check if Bluetooth device is connected
-     *              it is called when PMC command is received to start streaming
+     * release() to close the A2DP proxy and the codec receiver once a test finishes, the
+     *           next streaming command sets them up again
      */
-    private boolean initialize() {
-        Log.d(TAG, "Start initialize()");
+    private void release() {
+        mHandler.removeCallbacks(mCodecTimeout);
+        mPendingCodec = null;
+        if (mBluetoothAdapter == null) return;
+        Log.d(TAG, "release()");
+        mContext.unregisterReceiver(mBluetoothA2dpReceiver);
+        if (mBluetoothA2dp != null) {
+            mBluetoothAdapter.closeProfileProxy(BluetoothProfile.A2DP, mBluetoothA2dp);
+            mBluetoothA2dp = null;
+        }
+        mBluetoothAdapter = null;
+    }
 
+    /**
+     * Function to check if any Bluetooth device is connected
+     */
+    private boolean isDeviceConnected() {
         // Check if any Bluetooth devices are connected
         ArrayList<BluetoothDevice> results = new ArrayList<BluetoothDevice>();
         Set<BluetoothDevice> bondedDevices = mBluetoothAdapter.getBondedDevices();
@@ -160,8 +186,6 @@ public class A2dpReceiver extends BroadcastReceiver {
             return false;
         }
 
-        Log.d(TAG, "Finish initialize()");
-
         return true;
     }
 
@@ -181,6 +205,7 @@ public class A2dpReceiver extends BroadcastReceiver {
             mPlayer.stop();
             // Release the Media Player
             mPlayer.release();
+            release();
         } else {
             Log.d(TAG, "Received PMC command message");
             processParameters(intent);
@@ -192,7 +217,7 @@ public class A2dpReceiver extends BroadcastReceiver {
      *
      * @param intent - system will provide an intent to this function
      */
-    private void processParameters(Intent intent) {
+    private void processParameters(final Intent intent) {
         int codecType = BluetoothCodecConfig.SOURCE_CODEC_TYPE_INVALID;
         int sampleRate = BluetoothCodecConfig.SAMPLE_RATE_NONE;
         int bitsPerSample = BluetoothCodecConfig.BITS_PER_SAMPLE_NONE;
@@ -226,8 +251,30 @@ public class A2dpReceiver extends BroadcastReceiver {
         // initialize() if we are testing over Bluetooth, we do NOT test
         // over bluetooth for the play music with Bluetooth off test case.
         if (!bt_off_mute) {
-            if (!initialize()) {
+            if (mBluetoothAdapter == null) {
+                // The command is processed again once Bluetooth is on
+                final long startNanos = SystemClock.elapsedRealtimeNanos();
+                BluetoothUtils.enableAdapter(mContext, TAG,
+                        new BluetoothUtils.AdapterCallback() {
+                            @Override
+                            public void onAdapterReady(BluetoothAdapter adapter) {
+                                if (adapter == null) {
+                                    mPMCStatusLogger.logStatus("initialize() Failed");
+                                    return;
+                                }
+                                initialize(adapter, startNanos);
+                                processParameters(intent);
+                            }
+                        });
+                return;
+            }
+            if (mColdStartMs >= 0) {
+                mPMCStatusLogger.logValue("ColdStartMs", mColdStartMs);
+                mColdStartMs = -1;
+            }
+            if (!isDeviceConnected()) {
                 mPMCStatusLogger.logStatus("initialize() Failed");
+                release();
                 return;
             }
         }
@@ -237,6 +284,7 @@ public class A2dpReceiver extends BroadcastReceiver {
             // Do nothing further
             mPMCStatusLogger.logStatus("READY");
             mPMCStatusLogger.logStatus("SUCCEED");
+            release();
             return;
         }
 
@@ -325,17 +373,18 @@ public class A2dpReceiver extends BroadcastReceiver {
         }
 
         if (playMusic(musicUrl, bt_off_mute)) {
-            // Set the requested Codecs on the device for normal codec cases
-            if (!bt_off_mute) {
-                if (!setCodecValue(codecType, sampleRate, bitsPerSample, channelMode,
-                        codecSpecific1, codecSpecific2, codecSpecific3, codecSpecific4)) {
-                    mPMCStatusLogger.logStatus("setCodecValue() Failed");
-                }
+            if (bt_off_mute) {
+                mPMCStatusLogger.logStatus("READY");
+                startAlarm(playTime);
+                return;
             }
-            mPMCStatusLogger.logStatus("READY");
-            startAlarm(playTime);
+            // Set the requested Codecs on the device for normal codec cases,
+            // READY is logged and the alarm set once the codec is set or timed out
+            setCodecValue(codecType, sampleRate, bitsPerSample, channelMode,
+                    codecSpecific1, codecSpecific2, codecSpecific3, codecSpecific4, playTime);
         } else {
             mPMCStatusLogger.logStatus("playMusic() Failed");
+            release();
         }
     }
 
@@ -428,7 +477,8 @@ public class A2dpReceiver extends BroadcastReceiver {
     }
 
     /**
-     * Function to set new codec config
+     * Function to request a new codec config, applied as soon as the A2DP proxy is connected
+     * and verified on every codec config change, for up to WAIT_SECONDS
      *
      * @param codecType - Codec Type
      * @param sampleRate - Sample Rate
@@ -437,70 +487,80 @@ public class A2dpReceiver extends BroadcastReceiver {
      * @param codecSpecific2 - codecSpecific2
      * @param codecSpecific3 - codecSpecific3
      * @param codecSpecific4 - codecSpecific4
+     * @param playTime - play time (sec) once the codec is set
      */
-    private boolean setCodecValue(int codecType, int sampleRate, int bitsPerSample,
+    private void setCodecValue(int codecType, int sampleRate, int bitsPerSample,
                 int channelMode, long codecSpecific1, long codecSpecific2,
-                long codecSpecific3, long codecSpecific4) {
+                long codecSpecific3, long codecSpecific4, int playTime) {
         Log.d(TAG, "SetCodecValue: Codec Type: " + codecType + " sampleRate: " + sampleRate
                 + " bitsPerSample: " + bitsPerSample + " Channel Mode: " + channelMode
                 + " LDAC quality: " + codecSpecific1);
 
-        BluetoothCodecConfig codecConfig =
+        mPendingCodec =
                 new BluetoothCodecConfig(codecType, BluetoothCodecConfig.CODEC_PRIORITY_HIGHEST,
                 sampleRate, bitsPerSample, channelMode,
                 codecSpecific1, codecSpecific2, codecSpecific3, codecSpecific4);
+        mCodecRequested = false;
+        mPlayTime = playTime;
+        mHandler.removeCallbacks(mCodecTimeout);
+        mHandler.postDelayed(mCodecTimeout, WAIT_SECONDS * THOUSAND);
+        if (mBluetoothA2dp == null) Log.d(TAG, "Wait for BluetoothA2dp");
+        applyPendingCodec();
+    }
 
-        // Wait here to see if mBluetoothA2dp is set
-        for (int i = 0; i < WAIT_SECONDS; i++) {
-            Log.d(TAG, "Wait for BluetoothA2dp");
-            if (mBluetoothA2dp != null) {
-                break;
-            }
-
-            try {
-                Thread.sleep(THOUSAND);
-            } catch (InterruptedException e) {
-                Log.d(TAG, "Sleep is interrupted");
-            }
-        }
-
-        if (mBluetoothA2dp != null) {
+    /**
+     * Function to request the pending codec config once the A2DP proxy is connected
+     */
+    private void applyPendingCodec() {
+        if (mPendingCodec == null || mBluetoothA2dp == null) return;
+        if (!mCodecRequested) {
             Log.d(TAG, "setCodecConfigPreference()");
-            mBluetoothA2dp.setCodecConfigPreference(null, codecConfig); // Use current active device
-        } else {
-            Log.e(TAG, "mBluetoothA2dp is null. Codec is not set");
-            return false;
+            // Use current active device
+            mBluetoothA2dp.setCodecConfigPreference(null, mPendingCodec);
+            mCodecRequested = true;
         }
-        // Wait here to see if the codec is changed to new value
-        for (int i = 0; i < WAIT_SECONDS; i++) {
-            if (verifyCodeConfig(codecType, sampleRate,
-                    bitsPerSample, channelMode, codecSpecific1))  {
-                break;
-            }
-            try {
-                Thread.sleep(THOUSAND);
-            } catch (InterruptedException e) {
-                Log.d(TAG, "Sleep is interrupted");
+        checkPendingCodec();
+    }
+
+    /**
+     * Function to end the wait for the pending codec config once it is in use
+     */
+    private void checkPendingCodec() {
+        if (mPendingCodec != null && verifyCodeConfig(mPendingCodec)) finishCodec(true);
+    }
+
+    /**
+     * Function to start the play time once the codec config is set or timed out
+     *
+     * @param set - true if the requested codec config is in use
+     */
+    private void finishCodec(boolean set) {
+        if (mPendingCodec == null) return;
+        mHandler.removeCallbacks(mCodecTimeout);
+        mPendingCodec = null;
+        if (!set) {
+            if (mBluetoothA2dp == null) {
+                Log.e(TAG, "mBluetoothA2dp is null. Codec is not set");
+            } else {
+                Log.e(TAG, "Codec config is NOT set correctly");
             }
+            mPMCStatusLogger.logStatus("setCodecValue() Failed");
         }
-        if (!verifyCodeConfig(codecType, sampleRate,
-                bitsPerSample, channelMode, codecSpecific1)) {
-            Log.e(TAG, "Codec config is NOT set correctly");
-            return false;
-        }
-        return true;
+        mPMCStatusLogger.logStatus("READY");
+        startAlarm(mPlayTime);
     }
 
     /**
      * Method to verify if the codec config values are changed
      *
-     * @param codecType - Codec Type
-     * @param sampleRate - Sample Rate
-     * @param bitsPerSample - Bit Per Sample
-     * @param codecSpecific1 - LDAC playback quality
+     * @param expected - requested codec config
      */
-    private boolean verifyCodeConfig(int codecType, int sampleRate, int bitsPerSample,
-                                     int channelMode, long codecSpecific1) {
+    private boolean verifyCodeConfig(BluetoothCodecConfig expected) {
+        int codecType = expected.getCodecType();
+        int sampleRate = expected.getSampleRate();
+        int bitsPerSample = expected.getBitsPerSample();
+        int channelMode = expected.getChannelMode();
+        long codecSpecific1 = expected.getCodecSpecific1();
         BluetoothCodecConfig codecConfig = null;
         codecConfig = getCodecValue(false);
         if (codecConfig == null) return false;
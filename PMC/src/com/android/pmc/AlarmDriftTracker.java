@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to measure how late alarms are delivered compared to the time they were scheduled for.
+ *
+ * Every workload puts the intended trigger time (elapsed realtime) into its alarm intent with
+ * setTriggerTime(), and calls recordAlarm() when the alarm is received. The difference between
+ * the actual and the intended time is kept in a histogram per workload, together with the
+ * cumulative drift over the whole session.
+ */
+public class AlarmDriftTracker {
+    public static final String TAG = "PMCALARM";
+    public static final String EXTRA_TRIGGER_TIME = "com.android.pmc.AlarmTriggerTime";
+
+    private static final Map<String, AlarmDriftTracker> sTrackers =
+            new LinkedHashMap<String, AlarmDriftTracker>();
+
+    private final String mWorkload;
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private long mCumulativeDrift;
+
+    private AlarmDriftTracker(String workload) {
+        mWorkload = workload;
+    }
+
+    /**
+     * Function to get the tracker of a workload, it is created on first use
+     *
+     * @param workload - name of the workload
+     */
+    public static AlarmDriftTracker getTracker(String workload) {
+        synchronized (sTrackers) {
+            AlarmDriftTracker tracker = sTrackers.get(workload);
+            if (tracker == null) {
+                tracker = new AlarmDriftTracker(workload);
+                sTrackers.put(workload, tracker);
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * Function to get the drift summary of all workloads
+     */
+    public static String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sTrackers) {
+            for (AlarmDriftTracker tracker : sTrackers.values()) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(tracker.toString());
+            }
+        }
+        return sb.length() == 0 ? "No alarm recorded" : sb.toString();
+    }
+
+    /**
+     * Function to put the intended trigger time into an alarm intent
+     *
+     * @param intent - alarm intent
+     * @param triggerTime - elapsed realtime (msec) the alarm is scheduled for
+     */
+    public static void setTriggerTime(Intent intent, long triggerTime) {
+        intent.putExtra(EXTRA_TRIGGER_TIME, triggerTime);
+    }
+
+    /**
+     * Function to be called when an alarm is received to record its delivery drift
+     *
+     * @param intent - intent delivered by AlarmManager
+     * @return drift in msec, or -1 when the intent does not carry a trigger time
+     */
+    public long recordAlarm(Intent intent) {
+        long triggerTime = intent.getLongExtra(EXTRA_TRIGGER_TIME, -1);
+        if (triggerTime < 0) return -1;
+        long drift = SystemClock.elapsedRealtime() - triggerTime;
+        mHistogram.record(drift);
+        synchronized (this) {
+            mCumulativeDrift += drift;
+        }
+        Log.d(TAG, mWorkload + " alarm drift: " + drift + " ms");
+        return drift;
+    }
+
+    /**
+     * Clear the samples at the start of a new session
+     */
+    public void reset() {
+        mHistogram.reset();
+        synchronized (this) {
+            mCumulativeDrift = 0;
+        }
+    }
+
+    public LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+
+    public synchronized long getCumulativeDrift() {
+        return mCumulativeDrift;
+    }
+
+    /**
+     * Function to save the drift statistics into the session log
+     *
+     * @param logger - logger of the session
+     */
+    public void logTo(PMCStatusLogger logger) {
+        logger.logHistogram(mWorkload + "AlarmDrift", mHistogram);
+        logger.logValue(mWorkload + "CumulativeAlarmDrift", getCumulativeDrift());
+    }
+
+    @Override
+    public String toString() {
+        return mWorkload + " alarm drift (ms): " + mHistogram + " cumulative="
+                + getCumulativeDrift();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.content.Context;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.UUID;
+
+/**
+ * Workload running a fixed number of concurrent BLE advertising sets.
+ *
+ * Every set is started once through startAdvertisingSet() with the configured interval,
+ * TX power, payload size and connectable flag, and stays on until the workload is stopped.
+ * The start latency and the status of every set are recorded, so the number of sets the
+ * controller accepts and the advertiser power can be measured for a given configuration.
+ * The statistics are written to BleAdvertising.log when the workload is stopped.
+ */
+public class BleAdvertisingWorkload implements Workload {
+    public static final String TAG = "PMCADV";
+    public static final String WORKLOAD_NAME = "BleAdvertising";
+    // Legacy advertising PDUs carry up to 31 bytes
+    private static final int LEGACY_MAX_DATA_BYTES = 31;
+    // Flags, service data header and 16 bit UUID added around the payload
+    private static final int PAYLOAD_OVERHEAD_BYTES = 7;
+    // Extended advertising data is limited to 1650 bytes
+    public static final int MAX_PAYLOAD_BYTES = 1650 - PAYLOAD_OVERHEAD_BYTES;
+    private static final double INTERVAL_UNIT_MS = 0.625;
+
+    private final Context mContext;
+    private final int mSetCount;
+    private final int mIntervalMillis;
+    private final int mTxPowerDbm;
+    private final int mPayloadBytes;
+    private final boolean mConnectable;
+    private final LatencyHistogram mStartLatency = new LatencyHistogram();
+    private BluetoothLeAdvertiser mAdvertiser;
+    private AdvertisingSetParameters mParameters;
+    private SetCallback[] mSets;
+    private PMCStatusLogger mPMCStatusLogger;
+    private long mStartTime;
+    // Set by stop(), the sets are not started if Bluetooth comes up after it
+    private boolean mStopped;
+
+    /**
+     * Callback of one advertising set, keeping its start latency and status
+     */
+    private class SetCallback extends AdvertisingSetCallback {
+        private final int mIndex;
+        private long mStartNanos;
+        // -1 until the set is started or fails
+        private int mStatus = -1;
+        private long mLatencyNanos;
+        private int mTxPower;
+
+        SetCallback(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower,
+                int status) {
+            long latency = SystemClock.elapsedRealtimeNanos() - mStartNanos;
+            synchronized (BleAdvertisingWorkload.this) {
+                mStatus = status;
+                mLatencyNanos = latency;
+                mTxPower = txPower;
+            }
+            if (status == ADVERTISE_SUCCESS) {
+                mStartLatency.record(latency);
+                Log.d(TAG, "Advertising set " + mIndex + " started in " + latency / 1000
+                        + " us, TX power: " + txPower);
+            } else {
+                Log.e(TAG, "Advertising set " + mIndex + " failed: " + status);
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+            Log.d(TAG, "Advertising set " + mIndex + " stopped");
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context - context to register the Bluetooth state receiver
+     * @param setCount - number of concurrent advertising sets
+     * @param intervalMillis - advertising interval in msec
+     * @param txPowerDbm - requested TX power in dBm
+     * @param payloadBytes - size of the service data of every set
+     * @param connectable - true for connectable advertising
+     */
+    public BleAdvertisingWorkload(Context context, int setCount, int intervalMillis,
+                                  int txPowerDbm, int payloadBytes, boolean connectable) {
+        mContext = context;
+        mSetCount = setCount;
+        mIntervalMillis = intervalMillis;
+        mTxPowerDbm = txPowerDbm;
+        mPayloadBytes = payloadBytes;
+        mConnectable = connectable;
+    }
+
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        mPMCStatusLogger = new PMCStatusLogger(WORKLOAD_NAME + ".log", TAG);
+        mPMCStatusLogger.logValue("SetCount", mSetCount);
+        mPMCStatusLogger.logValue("IntervalMs", mIntervalMillis);
+        mPMCStatusLogger.logValue("TxPowerDbm", mTxPowerDbm);
+        mPMCStatusLogger.logValue("PayloadBytes", mPayloadBytes);
+        mPMCStatusLogger.logValue("Connectable", mConnectable);
+        if (mSetCount < 1) {
+            mPMCStatusLogger.logStatus("Invalid set count: " + mSetCount);
+            return;
+        }
+        if (mPayloadBytes < 0 || mPayloadBytes > MAX_PAYLOAD_BYTES) {
+            mPMCStatusLogger.logStatus("Invalid payload size: " + mPayloadBytes);
+            return;
+        }
+        BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+            @Override
+            public void onAdapterReady(BluetoothAdapter adapter) {
+                if (mStopped) return;
+                if (adapter == null) {
+                    mPMCStatusLogger.logStatus("Bluetooth is not available");
+                    return;
+                }
+                startSets(adapter);
+            }
+        });
+    }
+
+    /**
+     * Function to start all the advertising sets once Bluetooth is on
+     *
+     * @param adapter - enabled adapter
+     */
+    private void startSets(BluetoothAdapter adapter) {
+        mAdvertiser = adapter.getBluetoothLeAdvertiser();
+        if (mAdvertiser == null) {
+            mPMCStatusLogger.logStatus("BluetoothLeAdvertiser is Null");
+            return;
+        }
+        boolean legacy = mPayloadBytes + PAYLOAD_OVERHEAD_BYTES <= LEGACY_MAX_DATA_BYTES;
+        int maxDataBytes = adapter.getLeMaximumAdvertisingDataLength();
+        mPMCStatusLogger.logValue("LegacyMode", legacy);
+        mPMCStatusLogger.logValue("MaxAdvertisingDataBytes", maxDataBytes);
+        if (!legacy && mPayloadBytes + PAYLOAD_OVERHEAD_BYTES > maxDataBytes) {
+            mPMCStatusLogger.logStatus("Payload size " + mPayloadBytes
+                    + " is over the controller max advertising data of " + maxDataBytes);
+            return;
+        }
+        int intervalUnits = toIntervalUnits(mIntervalMillis);
+        if (intervalUnits != Math.round(mIntervalMillis / INTERVAL_UNIT_MS)) {
+            Log.e(TAG, "Interval " + mIntervalMillis + " ms clamped to "
+                    + intervalUnits * INTERVAL_UNIT_MS + " ms");
+            mPMCStatusLogger.logValue("ClampedIntervalMs", intervalUnits * INTERVAL_UNIT_MS);
+        }
+        if (!legacy && !adapter.isLeExtendedAdvertisingSupported()) {
+            Log.e(TAG, "Extended advertising is not supported, sets are expected to fail");
+        }
+        mParameters = new AdvertisingSetParameters.Builder()
+                .setLegacyMode(legacy)
+                .setConnectable(mConnectable)
+                // Legacy connectable advertising has to be scannable
+                .setScannable(legacy && mConnectable)
+                .setInterval(intervalUnits)
+                .setTxPowerLevel(Math.max(AdvertisingSetParameters.TX_POWER_MIN,
+                        Math.min(AdvertisingSetParameters.TX_POWER_MAX, mTxPowerDbm)))
+                .build();
+
+        mStartLatency.reset();
+        mStartTime = System.currentTimeMillis();
+        SetCallback[] sets = new SetCallback[mSetCount];
+        synchronized (this) {
+            mSets = sets;
+        }
+        for (int i = 0; i < mSetCount; i++) {
+            sets[i] = new SetCallback(i);
+            sets[i].mStartNanos = SystemClock.elapsedRealtimeNanos();
+            mAdvertiser.startAdvertisingSet(mParameters, buildData(i), null, null, null,
+                    sets[i]);
+        }
+        mPMCStatusLogger.logStatus("READY");
+    }
+
+    @Override
+    public void stop() {
+        mStopped = true;
+        if (mAdvertiser == null || mSets == null) return;
+        for (SetCallback set : mSets) {
+            mAdvertiser.stopAdvertisingSet(set);
+        }
+        mPMCStatusLogger.logHistogram("StartLatencyNs", mStartLatency);
+        mPMCStatusLogger.logPhase("Advertising", mStartTime / 1000.0,
+                System.currentTimeMillis() / 1000.0, getSetsJson());
+        mPMCStatusLogger.flash();
+        mAdvertiser = null;
+    }
+
+    @Override
+    public synchronized String getStatus() {
+        if (mSets == null) return "Advertising not started";
+        return "Advertising sets started: " + countSets(true) + "/" + mSetCount
+                + ", failed: " + countSets(false);
+    }
+
+    /**
+     * Function to get the start latency and status of every set
+     */
+    public synchronized String getSummary() {
+        if (mSets == null) return "Advertising not started";
+        StringBuilder sb = new StringBuilder(getStatus()).append('\n');
+        sb.append("Start latency ns: ").append(mStartLatency).append('\n');
+        for (SetCallback set : mSets) {
+            sb.append("Set ").append(set.mIndex).append(": status ").append(set.mStatus)
+                    .append(", latency ").append(set.mLatencyNanos / 1000).append(" us")
+                    .append(", TX power ").append(set.mTxPower).append(" dBm\n");
+        }
+        return sb.toString();
+    }
+
+    private synchronized JSONObject getSetsJson() {
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("StartedCount", countSets(true));
+            summary.put("FailedCount", countSets(false));
+            JSONArray sets = new JSONArray();
+            for (SetCallback set : mSets) {
+                JSONObject obj = new JSONObject();
+                obj.put("Set", set.mIndex);
+                obj.put("Status", set.mStatus);
+                obj.put("StartLatencyNs", set.mLatencyNanos);
+                obj.put("TxPower", set.mTxPower);
+                sets.put(obj);
+            }
+            summary.put("Sets", sets);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put advertising sets into JSON object: " + e);
+        }
+        return summary;
+    }
+
+    private int countSets(boolean started) {
+        int count = 0;
+        for (SetCallback set : mSets) {
+            if (started ? set.mStatus == AdvertisingSetCallback.ADVERTISE_SUCCESS
+                    : set.mStatus > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Function to build the advertising data of one set, its index is put into the payload
+     *
+     * @param index - index of the set
+     */
+    private AdvertiseData buildData(int index) {
+        byte[] payload = new byte[mPayloadBytes];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (index + i);
+        }
+        // 16 bit UUID on top of the Bluetooth base UUID, different for every set
+        long shortUuid = 0xF100L + (index & 0xFF);
+        ParcelUuid uuid = new ParcelUuid(
+                new UUID((shortUuid << 32) | 0x1000L, 0x800000805F9B34FBL));
+        return new AdvertiseData.Builder().addServiceData(uuid, payload).build();
+    }
+
+    private static int toIntervalUnits(int intervalMillis) {
+        int units = (int) Math.round(intervalMillis / INTERVAL_UNIT_MS);
+        return Math.max(AdvertisingSetParameters.INTERVAL_MIN,
+                Math.min(AdvertisingSetParameters.INTERVAL_MAX, units));
+    }
+}
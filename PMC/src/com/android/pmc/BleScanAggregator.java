@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.Arrays;
+
+/**
+ * Per device counters of the BLE scan results of one scan window.
+ *
+ * Scan callbacks only update primitive arrays indexed through LongIntHashMap, nothing is
+ * allocated or logged per advertisement, so a dense environment doesn't add CPU load to the
+ * power being measured. The summary is read once at the end of the window.
+ * This class has no Android dependencies.
+ */
+public class BleScanAggregator {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final LongIntHashMap mDevices = new LongIntHashMap();
+    private int mDeviceCount;
+    private long mResultCount;
+    private int mBatchCount;
+    // Results whose address could not be packed
+    private long mInvalidCount;
+    private long[] mAddresses = new long[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private int[] mRssiMin = new int[INITIAL_CAPACITY];
+    private int[] mRssiMax = new int[INITIAL_CAPACITY];
+    private long[] mRssiSum = new long[INITIAL_CAPACITY];
+    private long[] mFirstSeenNanos = new long[INITIAL_CAPACITY];
+    private long[] mLastSeenNanos = new long[INITIAL_CAPACITY];
+
+    /**
+     * Function to add one scan result
+     *
+     * @param address - packed MAC address of the advertiser
+     * @param rssi - RSSI in dBm
+     * @param timeNanos - time the result was received
+     */
+    public synchronized void addResult(long address, int rssi, long timeNanos) {
+        int device = mDevices.get(address);
+        if (device == LongIntHashMap.NO_VALUE) {
+            device = newDevice(address, timeNanos);
+        }
+        mCounts[device]++;
+        if (rssi < mRssiMin[device]) mRssiMin[device] = rssi;
+        if (rssi > mRssiMax[device]) mRssiMax[device] = rssi;
+        mRssiSum[device] += rssi;
+        mLastSeenNanos[device] = timeNanos;
+        mResultCount++;
+    }
+
+    /**
+     * Function to count one batch of results reported by the controller
+     */
+    public synchronized void addBatch() {
+        mBatchCount++;
+    }
+
+    /**
+     * Function to count one result dropped because its address is invalid
+     */
+    public synchronized void addInvalid() {
+        mInvalidCount++;
+    }
+
+    /**
+     * Clear the counters at the start of a new scan window
+     */
+    public synchronized void reset() {
+        mDevices.clear();
+        mDeviceCount = 0;
+        mResultCount = 0;
+        mBatchCount = 0;
+        mInvalidCount = 0;
+    }
+
+    public synchronized int getDeviceCount() {
+        return mDeviceCount;
+    }
+
+    public synchronized long getResultCount() {
+        return mResultCount;
+    }
+
+    public synchronized int getBatchCount() {
+        return mBatchCount;
+    }
+
+    public synchronized long getInvalidCount() {
+        return mInvalidCount;
+    }
+
+    /**
+     * Function to get the devices ordered by number of results, most seen first
+     *
+     * @param max - max number of devices returned
+     * @return device indexes to be used with the get functions below
+     */
+    public synchronized int[] getTopDevices(int max) {
+        // Sort on (count << 32 | index) to avoid boxing the indexes
+        long[] keys = new long[mDeviceCount];
+        for (int i = 0; i < mDeviceCount; i++) {
+            keys[i] = ((long) mCounts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] devices = new int[Math.min(max, mDeviceCount)];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = (int) keys[mDeviceCount - 1 - i];
+        }
+        return devices;
+    }
+
+    public synchronized long getAddress(int device) {
+        return mAddresses[device];
+    }
+
+    public synchronized int getCount(int device) {
+        return mCounts[device];
+    }
+
+    public synchronized int getRssiMin(int device) {
+        return mRssiMin[device];
+    }
+
+    public synchronized int getRssiMax(int device) {
+        return mRssiMax[device];
+    }
+
+    public synchronized double getRssiMean(int device) {
+        return mCounts[device] == 0 ? 0 : (double) mRssiSum[device] / mCounts[device];
+    }
+
+    public synchronized long getFirstSeenNanos(int device) {
+        return mFirstSeenNanos[device];
+    }
+
+    public synchronized long getLastSeenNanos(int device) {
+        return mLastSeenNanos[device];
+    }
+
+    private int newDevice(long address, long timeNanos) {
+        if (mDeviceCount == mAddresses.length) {
+            int capacity = mDeviceCount * 2;
+            mAddresses = Arrays.copyOf(mAddresses, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mRssiMin = Arrays.copyOf(mRssiMin, capacity);
+            mRssiMax = Arrays.copyOf(mRssiMax, capacity);
+            mRssiSum = Arrays.copyOf(mRssiSum, capacity);
+            mFirstSeenNanos = Arrays.copyOf(mFirstSeenNanos, capacity);
+            mLastSeenNanos = Arrays.copyOf(mLastSeenNanos, capacity);
+        }
+        int device = mDeviceCount++;
+        mAddresses[device] = address;
+        mCounts[device] = 0;
+        mRssiMin[device] = Integer.MAX_VALUE;
+        mRssiMax[device] = Integer.MIN_VALUE;
+        mRssiSum[device] = 0;
+        mFirstSeenNanos[device] = timeNanos;
+        mDevices.put(address, device);
+        return device;
+    }
+}
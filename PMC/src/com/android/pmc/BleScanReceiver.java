@@ -29,11 +29,21 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
 import android.os.SystemClock;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 
 /**
  * Bluetooth LE Receiver functions for power testing.
@@ -43,29 +53,93 @@ public class BleScanReceiver extends BroadcastReceiver {
     public static final String BLE_SCAN_INTENT = "com.android.pmc.BLESCAN";
     public static final int START_SCAN = 1;
     public static final int STOP_SCAN = 2;
-    public static final int INIT_ALARM_NO = 1;
+    // Max number of devices listed in the summary of a scan window
+    private static final int MAX_WINDOW_DEVICES = 32;
+    // Max time to wait for the batched results flushed at the end of a scan window
+    private static final long FLUSH_TIMEOUT_MS = 1000;
+    // Manufacturer ID used by the generated manufacturer data filters
+    private static final int FILTER_MANUFACTURER_ID = 0x00E0;
     private final Context mContext;
     private final AlarmManager mAlarmManager;
     private final BleScanListener mAlarmScanListener;
     private BluetoothLeScanner mBleScanner;
     private ScanSettings mScanSettings;
-    private List<ScanFilter> mScanFilterList;
+    // Concurrent scan clients, each with its own callback and filters
+    private List<ScanClient> mScanClients;
+    private int mClientCount;
+    private int mFiltersPerClient;
+    private String mFilterType;
     // Use PMCStatusLogger to send status and start & end times back to Python client
     private PMCStatusLogger mPMCStatusLogger;
-    // Test start time is set when receiving the broadcast message from Python client
-    private long mStartTestTime;
+    private final AlarmDriftTracker mAlarmDriftTracker = AlarmDriftTracker.getTracker("BleScan");
+    // Results of the current scan window
+    private final BleScanAggregator mAggregator = new BleScanAggregator();
+    // Controller batching delay in msec, 0 to report every result right away
+    private long mReportDelayMillis;
+    // Known advertiser to measure the discovery latency, by address and/or device name
+    private String mTargetAddress;
+    private long mTargetPackedAddress = -1;
+    private String mTargetName;
+    // Elapsed realtime of the scan start and of the first target result, 0 until found
+    private long mScanStartNanos;
+    private long mFirstMatchNanos;
+    // Discovery latency of all the windows of the test, per scan mode
+    private final Map<Integer, LatencyHistogram> mDiscoveryLatency =
+            new TreeMap<Integer, LatencyHistogram>();
+    private final Map<Integer, Integer> mDiscoveryMisses = new TreeMap<Integer, Integer>();
+
+    /**
+     * Scan client with its own filters, counting its results and failures per scan window
+     */
+    private class ScanClient extends ScanCallback {
+        private final int mIndex;
+        private final List<ScanFilter> mFilters;
+        private long mResultCount;
+        private int mFailureCount;
+        private int mErrorCode;
+        // Set while the batched results are flushed at the end of a scan window
+        private boolean mFlushPending;
+
+        ScanClient(int index, List<ScanFilter> filters) {
+            mIndex = index;
+            mFilters = filters;
+        }
 
-    private ScanCallback mScanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            Log.e(TAG, "Bluetooth scan result: " + result.toString());
+            mResultCount++;
+            addResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            mAggregator.addBatch();
+            mResultCount += results.size();
+            for (int i = 0; i < results.size(); i++) {
+                addResult(results.get(i));
+            }
+            if (mFlushPending) {
+                mFlushPending = false;
+                mAlarmScanListener.onClientFlushed();
+            }
         }
 
         @Override
         public void onScanFailed(int errorCode) {
-            Log.e(TAG, "Scan Failed: " + errorCode);
+            Log.e(TAG, "Scan Failed for client " + mIndex + ": " + errorCode);
+            mFailureCount++;
+            mErrorCode = errorCode;
         }
-    };
+
+        /**
+         * Function to clear the counters at the start of a scan window
+         */
+        void reset() {
+            mResultCount = 0;
+            mFailureCount = 0;
+            mErrorCode = 0;
+        }
+    }
 
     /**
      * Class to provide callback for AlarmManager to start BLE scan alarms
@@ -75,114 +149,81 @@ public class BleScanReceiver extends BroadcastReceiver {
         public static final String BLESCAN =
                        "com.android.pmc.BLESCAN.ALARM";
 
-        private int mScanTime;
-        private int mNoScanTime;
-        private int mNumAlarms;
-        private int mFirstScanTime;
+        private BleScanSchedule mSchedule;
+        // Elapsed realtime of the first scan, all alarms are set relative to it
+        private long mTimelineStart;
         private long mScanStartTime;
         private long mScanEndTime;
+        // Segment whose batched results are being flushed, -1 if none
+        private int mFlushSegment = -1;
+        private int mFlushPendingClients;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final Runnable mFlushTimeout = new Runnable() {
+            @Override
+            public void run() {
+                Log.e(TAG, "Flush timed out, " + mFlushPendingClients + " clients pending");
+                endWindow();
+            }
+        };
 
         /**
-         * Constructor
+         * Constructor, Bluetooth is initialized later by the first scan command
          *
          */
         public BleScanListener() {
-            Log.d(TAG, "Start BleScanListener()");
-            BluetoothAdapter bleAdaptor = BluetoothAdapter.getDefaultAdapter();
-
-            if (bleAdaptor == null) {
-                Log.e(TAG, "BluetoothAdapter is Null");
-                return;
-            } else {
-                if (!bleAdaptor.isEnabled()) {
-                    Log.d(TAG, "BluetoothAdapter is NOT enabled, enable now");
-                    bleAdaptor.enable();
-                    if (!bleAdaptor.isEnabled()) {
-                        Log.e(TAG, "Can't enable Bluetooth");
-                        return;
-                    }
-                }
-            }
-
-            mBleScanner = bleAdaptor.getBluetoothLeScanner();
-            mScanFilterList = new ArrayList<ScanFilter>();
-
-            // Create ScanFilter object, to force scan even with screen OFF
-            // using deviceName string of "dummy" for example
-            ScanFilter scanFilterDeviceName = new ScanFilter.Builder().setDeviceName(
-                       "dummy").build();
-            // Add the object to FilterList
-            mScanFilterList.add(scanFilterDeviceName);
-
-            Log.d(TAG, "End BleScanListener()");
+            Log.d(TAG, "BleScanListener()");
         }
 
         /**
          * Function to be called by BleScanReceiver to start
          * Initial Bluetooth scan alarm
          *
-         * @param scanMode - scan mode
+         * @param schedule - scan segments to be run
          * @param startTime - time when the first scan needs to be started
-         * @param scanTime - time for the scan is lasted
-         * @param noScanTime - time when the scan is stopped
-         * @param numAlarms - number of alarms to start and to stop scan
          *
          */
-        public void firstAlarm(int scanMode, int startTime, int scanTime,
-                               int noScanTime, int numAlarms) {
-            Log.d(TAG, "First Alarm for scan mode: " + scanMode);
-            mScanTime = scanTime;
-            mNoScanTime = noScanTime;
-            mNumAlarms = numAlarms;
-            mFirstScanTime = startTime;
-
-            mScanSettings = new ScanSettings.Builder().setScanMode(
-                                            scanMode).build();
-
-            Intent alarmIntent = new Intent(BleScanListener.BLESCAN);
-            alarmIntent.putExtra("com.android.pmc.BLESCAN.Action", START_SCAN);
-            alarmIntent.putExtra("com.android.pmc.BLESCAN.CurrentAlarm", INIT_ALARM_NO);
-            long triggerTime = SystemClock.elapsedRealtime() + startTime * 1000;
-            mAlarmManager.setExactAndAllowWhileIdle(
-                          AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime,
-                          PendingIntent.getBroadcast(mContext, 0,
-                                        alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT));
+        public void firstAlarm(BleScanSchedule schedule, int startTime) {
+            Log.d(TAG, "First Alarm for schedule: " + schedule);
+            mSchedule = schedule;
+            mAlarmDriftTracker.reset();
+            mTimelineStart = SystemClock.elapsedRealtime() + startTime * 1000L;
+            setAlarm(START_SCAN, 0);
         }
 
         /**
-         * Function to be called by onReceive() to start subsequent alarm
+         * Function to set the alarm of the next action, at its offset in the timeline
          *
-         * @param intent - intent to get extra data
-         * @param timeInterval - time for alarm to trigger next alarm
-         * @param nextAction - next action for the alarm
+         * @param action - START_SCAN or STOP_SCAN
+         * @param segment - segment of the action
          *
          */
-        public void repeatAlarm(Intent intent, int timeInterval,
-                                  int nextAction) {
-
-            int currentAlarm = intent.getIntExtra("com.android.pmc.BLESCAN.CurrentAlarm", 0);
-            Log.d(TAG, "repeatAlarm() currentAlarm: " + currentAlarm);
-            if (currentAlarm == 0) {
-                Log.d(TAG, "Received Alarm with no currentAlarm");
-                return;
-            }
-            if (currentAlarm >= mNumAlarms) {
-                mPMCStatusLogger.flash();  // To flash out timestamps into log file
-                Log.d(TAG, "All alarms are done");
-                return;
-            }
-            Log.d(TAG, "Next Action: " + nextAction);
+        private void setAlarm(int action, int segment) {
+            Log.d(TAG, "Next Action: " + action + " segment: " + segment);
+            long offset = action == START_SCAN ? mSchedule.getStartOffsetMillis(segment)
+                    : mSchedule.getStopOffsetMillis(segment);
             Intent alarmIntent = new Intent(BleScanListener.BLESCAN);
-            alarmIntent.putExtra("com.android.pmc.BLESCAN.Action", nextAction);
-            alarmIntent.putExtra("com.android.pmc.BLESCAN.CurrentAlarm", ++currentAlarm);
-            long triggerTime = SystemClock.elapsedRealtime()
-                                          + timeInterval * 1000;
+            alarmIntent.putExtra("com.android.pmc.BLESCAN.Action", action);
+            alarmIntent.putExtra("com.android.pmc.BLESCAN.Segment", segment);
+            long triggerTime = mTimelineStart + offset;
+            AlarmDriftTracker.setTriggerTime(alarmIntent, triggerTime);
             mAlarmManager.setExactAndAllowWhileIdle(
                           AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime,
                           PendingIntent.getBroadcast(mContext, 0,
                           alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT));
         }
 
+        /**
+         * Function to build the scan settings of a segment
+         *
+         * @param segment - segment index
+         */
+        private ScanSettings buildScanSettings(int segment) {
+            ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(
+                    mSchedule.getScanMode(segment));
+            if (mReportDelayMillis > 0) builder.setReportDelay(mReportDelayMillis);
+            return builder.build();
+        }
+
         /**
          * Callback will be called for AlarmManager to start Bluetooth LE scan
          *
@@ -194,34 +235,212 @@ public class BleScanReceiver extends BroadcastReceiver {
             if (!intent.getAction().equals(BLESCAN)) {
                 return;
             }
+            mAlarmDriftTracker.recordAlarm(intent);
             int action = intent.getIntExtra("com.android.pmc.BLESCAN.Action", 0);
-            Log.d(TAG, "onReceive() Action: " + action);
-            if (action == -1) {
-                Log.e(TAG, "Received Alarm with no Action");
+            int segment = intent.getIntExtra("com.android.pmc.BLESCAN.Segment", -1);
+            Log.d(TAG, "onReceive() Action: " + action + " segment: " + segment);
+            if (mSchedule == null || segment < 0 || segment >= mSchedule.getSegmentCount()) {
+                Log.e(TAG, "Received Alarm with no valid segment");
                 return;
             }
             if (action == START_SCAN) {
                 Log.v(TAG, "Before Start Scan");
                 mScanStartTime = System.currentTimeMillis();
-                mBleScanner.startScan(mScanFilterList, mScanSettings,
-                                 mScanCallback);
-                repeatAlarm(intent, mScanTime, STOP_SCAN);
+                mAggregator.reset();
+                mScanSettings = buildScanSettings(segment);
+                mFirstMatchNanos = 0;
+                mScanStartNanos = SystemClock.elapsedRealtimeNanos();
+                for (ScanClient client : mScanClients) {
+                    client.reset();
+                    mBleScanner.startScan(client.mFilters, mScanSettings, client);
+                }
+                setAlarm(STOP_SCAN, segment);
             } else if (action == STOP_SCAN) {
                 Log.v(TAG, "Before Stop scan");
                 mScanEndTime = System.currentTimeMillis();
-                mPMCStatusLogger.logAlarmTimes(mScanStartTime / 1000.0, mScanEndTime / 1000.0);
-                mBleScanner.stopScan(mScanCallback);
-                if ((mScanEndTime - mStartTestTime)
-                        < ((mScanTime + mNoScanTime) * mNumAlarms / 2 + mFirstScanTime) * 1000) {
-                    repeatAlarm(intent, mNoScanTime, START_SCAN);
-                } else {
-                    mPMCStatusLogger.flash();  // To flash out timestamps into log file
-                    Log.d(TAG, "Time is up to end");
+                mFlushSegment = segment;
+                if (mReportDelayMillis == 0) {
+                    endWindow();
+                    return;
+                }
+                // Get the results still batched in the controller into this window, the
+                // scan is stopped once every client got its flushed batch
+                mFlushPendingClients = mScanClients.size();
+                mHandler.postDelayed(mFlushTimeout, FLUSH_TIMEOUT_MS);
+                for (ScanClient client : mScanClients) {
+                    client.mFlushPending = true;
+                    mBleScanner.flushPendingScanResults(client);
                 }
             } else {
                 Log.e(TAG, "Unknown Action");
             }
         }
+
+        /**
+         * Function to be called when a client got the results flushed at the end of a window
+         */
+        void onClientFlushed() {
+            if (mFlushSegment < 0 || --mFlushPendingClients > 0) return;
+            endWindow();
+        }
+
+        /**
+         * Function to stop the scan, to log the window summary and to set the next alarm
+         */
+        private void endWindow() {
+            int segment = mFlushSegment;
+            if (segment < 0) return;
+            mFlushSegment = -1;
+            mHandler.removeCallbacks(mFlushTimeout);
+            for (ScanClient client : mScanClients) {
+                client.mFlushPending = false;
+                mBleScanner.stopScan(client);
+            }
+            int scanMode = mSchedule.getScanMode(segment);
+            JSONObject summary = getWindowSummary(scanMode, mScanEndTime - mScanStartTime);
+            if (hasTarget()) recordDiscovery(scanMode, summary);
+            mPMCStatusLogger.logPhase("ScanWindow" + segment, mScanStartTime / 1000.0,
+                    mScanEndTime / 1000.0, summary);
+            if (segment + 1 < mSchedule.getSegmentCount()) {
+                setAlarm(START_SCAN, segment + 1);
+            } else {
+                mAlarmDriftTracker.logTo(mPMCStatusLogger);
+                if (hasTarget()) logDiscoveryLatency();
+                mPMCStatusLogger.flash();  // To flash out timestamps into log file
+                Log.d(TAG, "All segments are done");
+                mSchedule = null;
+                release();
+            }
+        }
+    }
+
+    /**
+     * Function to add one scan result to the counters of the scan window
+     *
+     * @param result - scan result
+     */
+    private void addResult(ScanResult result) {
+        long address = ScanResultStore.packMac(result.getDevice().getAddress());
+        if (address < 0) {
+            mAggregator.addInvalid();
+            return;
+        }
+        mAggregator.addResult(address, result.getRssi(), result.getTimestampNanos());
+        if (mFirstMatchNanos == 0 && isTarget(address, result)) {
+            // The result timestamp is taken by the stack, so batching doesn't add latency
+            mFirstMatchNanos = result.getTimestampNanos();
+        }
+    }
+
+    private boolean hasTarget() {
+        return mTargetAddress != null || mTargetName != null;
+    }
+
+    private boolean isTarget(long address, ScanResult result) {
+        if (mTargetAddress != null && address == mTargetPackedAddress) return true;
+        return mTargetName != null && result.getScanRecord() != null
+                && mTargetName.equals(result.getScanRecord().getDeviceName());
+    }
+
+    /**
+     * Function to add the discovery latency of the window to the histogram of its scan mode
+     *
+     * @param scanMode - scan mode of the window
+     * @param summary - window summary, the latency is added to it
+     */
+    private void recordDiscovery(int scanMode, JSONObject summary) {
+        long latency = -1;
+        if (mFirstMatchNanos != 0) {
+            latency = Math.max(0, mFirstMatchNanos - mScanStartNanos);
+            LatencyHistogram histogram = mDiscoveryLatency.get(scanMode);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                mDiscoveryLatency.put(scanMode, histogram);
+            }
+            histogram.record(latency);
+        } else {
+            Integer misses = mDiscoveryMisses.get(scanMode);
+            mDiscoveryMisses.put(scanMode, misses == null ? 1 : misses + 1);
+        }
+        Log.d(TAG, "Discovery latency for scan mode " + scanMode + ": " + latency + " ns");
+        try {
+            summary.put("DiscoveryLatencyNs", latency);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put discovery latency into JSON object: " + e);
+        }
+    }
+
+    /**
+     * Function to log the discovery latency histograms and misses of the test per scan mode
+     */
+    private void logDiscoveryLatency() {
+        JSONObject modes = new JSONObject();
+        try {
+            for (Map.Entry<Integer, LatencyHistogram> entry : mDiscoveryLatency.entrySet()) {
+                modes.put(entry.getKey().toString(),
+                        PMCStatusLogger.histogramToJson(entry.getValue()));
+            }
+            for (Map.Entry<Integer, Integer> entry : mDiscoveryMisses.entrySet()) {
+                String key = entry.getKey().toString();
+                JSONObject obj = modes.optJSONObject(key);
+                if (obj == null) {
+                    obj = new JSONObject();
+                    modes.put(key, obj);
+                }
+                obj.put("Misses", entry.getValue());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put discovery latency into JSON object: " + e);
+        }
+        mPMCStatusLogger.logValue("DiscoveryLatencyNs", modes);
+    }
+
+    /**
+     * Function to get the statistics of the scan window, written once per window
+     *
+     * @param scanMode - scan mode of the window
+     * @param windowMillis - duration of the window
+     */
+    private JSONObject getWindowSummary(int scanMode, long windowMillis) {
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("ScanMode", scanMode);
+            summary.put("ResultCount", mAggregator.getResultCount());
+            summary.put("DeviceCount", mAggregator.getDeviceCount());
+            summary.put("BatchCount", mAggregator.getBatchCount());
+            summary.put("InvalidResults", mAggregator.getInvalidCount());
+            JSONArray devices = new JSONArray();
+            for (int device : mAggregator.getTopDevices(MAX_WINDOW_DEVICES)) {
+                JSONObject obj = new JSONObject();
+                obj.put("Address", ScanResultStore.formatMac(mAggregator.getAddress(device)));
+                obj.put("Count", mAggregator.getCount(device));
+                obj.put("RssiMin", mAggregator.getRssiMin(device));
+                obj.put("RssiMax", mAggregator.getRssiMax(device));
+                obj.put("RssiMean", mAggregator.getRssiMean(device));
+                obj.put("FirstSeenNs", mAggregator.getFirstSeenNanos(device));
+                obj.put("LastSeenNs", mAggregator.getLastSeenNanos(device));
+                devices.put(obj);
+            }
+            summary.put("Devices", devices);
+            JSONArray clients = new JSONArray();
+            for (ScanClient client : mScanClients) {
+                JSONObject obj = new JSONObject();
+                obj.put("Client", client.mIndex);
+                obj.put("FilterCount", client.mFilters.size());
+                obj.put("ResultCount", client.mResultCount);
+                obj.put("ResultsPerSec", windowMillis > 0
+                        ? client.mResultCount * 1000.0 / windowMillis : 0);
+                obj.put("FailureCount", client.mFailureCount);
+                obj.put("ErrorCode", client.mErrorCode);
+                clients.put(obj);
+            }
+            summary.put("Clients", clients);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put scan window summary into JSON object: " + e);
+        }
+        Log.d(TAG, "Scan window results: " + mAggregator.getResultCount() + ", devices: "
+                + mAggregator.getDeviceCount());
+        return summary;
     }
 
     /**
@@ -242,6 +461,140 @@ public class BleScanReceiver extends BroadcastReceiver {
 
     }
 
+    /**
+     * Function to initialize Bluetooth and the scanner on the first scan command, the test
+     * is started once Bluetooth is on
+     *
+     * @param schedule - scan segments to be run
+     * @param startTime - start time of the first segment
+     */
+    private void initialize(final BleScanSchedule schedule, final int startTime) {
+        if (mBleScanner != null) {
+            startTest(schedule, startTime);
+            return;
+        }
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+            @Override
+            public void onAdapterReady(BluetoothAdapter adapter) {
+                if (adapter == null) {
+                    mPMCStatusLogger.logStatus("initialize() Failed");
+                    return;
+                }
+                mBleScanner = adapter.getBluetoothLeScanner();
+                if (mBleScanner == null) {
+                    Log.e(TAG, "BluetoothLeScanner is Null");
+                    mPMCStatusLogger.logStatus("initialize() Failed");
+                    return;
+                }
+                mPMCStatusLogger.logValue("ColdStartMs",
+                        BluetoothUtils.recordColdStart("BleScan", startNanos));
+                startTest(schedule, startTime);
+            }
+        });
+    }
+
+    /**
+     * Function to create the scan clients and to set the first alarm of the schedule
+     *
+     * @param schedule - scan segments to be run
+     * @param startTime - start time of the first segment
+     */
+    private void startTest(BleScanSchedule schedule, int startTime) {
+        if (mReportDelayMillis > 0
+                && !BluetoothAdapter.getDefaultAdapter().isOffloadedScanBatchingSupported()) {
+            Log.e(TAG, "Scan batching is not supported, results are reported right away");
+            mReportDelayMillis = 0;
+        }
+        mPMCStatusLogger.logValue("ReportDelayMs", mReportDelayMillis);
+        mScanClients = createScanClients();
+        mPMCStatusLogger.logValue("ScanClients", mClientCount);
+        mPMCStatusLogger.logValue("FiltersPerClient", mFiltersPerClient);
+        mPMCStatusLogger.logValue("FilterType", mFilterType);
+        if (mTargetAddress != null) mPMCStatusLogger.logValue("TargetAddress", mTargetAddress);
+        if (mTargetName != null) mPMCStatusLogger.logValue("TargetName", mTargetName);
+        mPMCStatusLogger.logValue("OffloadedFiltering",
+                BluetoothAdapter.getDefaultAdapter().isOffloadedFilteringSupported());
+        mPMCStatusLogger.logValue("Schedule", schedule.toString());
+        mPMCStatusLogger.logValue("ScheduleDurationMs", schedule.getDurationMillis());
+        mAlarmScanListener.firstAlarm(schedule, startTime);
+        if (mBleScanner != null && mScanClients != null) {
+            mPMCStatusLogger.logStatus("READY");
+        } else {
+            Log.e(TAG, "BLE scanner is not ready to start test");
+        }
+    }
+
+    /**
+     * Function to create the scan clients of the test
+     */
+    private List<ScanClient> createScanClients() {
+        List<ScanClient> clients = new ArrayList<ScanClient>();
+        for (int i = 0; i < mClientCount; i++) {
+            List<ScanFilter> filters = new ArrayList<ScanFilter>();
+            if (hasTarget()) {
+                // Every client has to report the target for the discovery latency
+                ScanFilter.Builder builder = new ScanFilter.Builder();
+                if (mTargetAddress != null) builder.setDeviceAddress(mTargetAddress);
+                if (mTargetName != null) builder.setDeviceName(mTargetName);
+                filters.add(builder.build());
+            }
+            if (mFiltersPerClient > 0 || filters.isEmpty()) {
+                filters.addAll(buildFilters(i, mFiltersPerClient, mFilterType));
+            }
+            clients.add(new ScanClient(i, filters));
+        }
+        return clients;
+    }
+
+    /**
+     * Function to generate the filters of one scan client. Filters of different clients
+     * never match the same advertisement, so the controller has to keep all of them.
+     *
+     * @param client - index of the client
+     * @param count - number of filters, 0 for the single "dummy" name filter
+     * @param type - Name, ServiceUuid, ManufacturerData or Mixed
+     */
+    private static List<ScanFilter> buildFilters(int client, int count, String type) {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        if (count == 0) {
+            // Create ScanFilter object, to force scan even with screen OFF
+            // using deviceName string of "dummy" for example
+            filters.add(new ScanFilter.Builder().setDeviceName("dummy").build());
+            return filters;
+        }
+        for (int i = 0; i < count; i++) {
+            String filterType = type;
+            if (type.equals("Mixed")) {
+                filterType = i % 3 == 0 ? "Name" : (i % 3 == 1 ? "ServiceUuid"
+                        : "ManufacturerData");
+            }
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (filterType.equals("ServiceUuid")) {
+                // 16 bit UUIDs on top of the Bluetooth base UUID
+                long shortUuid = 0xF000L + ((client * count + i) & 0xFFF);
+                builder.setServiceUuid(new ParcelUuid(
+                        new UUID((shortUuid << 32) | 0x1000L, 0x800000805F9B34FBL)));
+            } else if (filterType.equals("ManufacturerData")) {
+                builder.setManufacturerData(FILTER_MANUFACTURER_ID,
+                        new byte[] {(byte) client, (byte) (i >> 8), (byte) i});
+            } else {
+                builder.setDeviceName("PMC" + client + "-" + i);
+            }
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    /**
+     * Function to release the scanner once all scan alarms are done
+     */
+    private void release() {
+        Log.d(TAG, "Release BLE scanner");
+        mBleScanner = null;
+        mScanClients = null;
+    }
+
     /**
      * Method to receive the broadcast from python client
      *
@@ -254,9 +607,9 @@ public class BleScanReceiver extends BroadcastReceiver {
             Bundle extras = intent.getExtras();
             int scanMode = -1, startTime = 0, scanTime = 0, noScanTime = 0;
             int repetitions = 1;
+            BleScanSchedule schedule = null;
             String str;
 
-            mStartTestTime = System.currentTimeMillis();
             mPMCStatusLogger = new PMCStatusLogger(TAG + ".log", TAG);
 
             if (extras == null) {
@@ -264,14 +617,6 @@ public class BleScanReceiver extends BroadcastReceiver {
                 return;
             }
 
-            if (!extras.containsKey("ScanMode")) {
-                Log.e(TAG, "No scan mode specified");
-                return;
-            }
-            str = extras.getString("ScanMode");
-            Log.d(TAG, "Scan Mode = " + str);
-            scanMode = Integer.valueOf(str);
-
             if (!extras.containsKey("StartTime")) {
                 Log.e(TAG, "No Start Time specified");
                 return;
@@ -280,40 +625,99 @@ public class BleScanReceiver extends BroadcastReceiver {
             Log.d(TAG, "Start Time = " + str);
             startTime = Integer.valueOf(str);
 
-            if (!extras.containsKey("ScanTime")) {
-                Log.e(TAG, "No Scan Time specified");
-                return;
-            }
-            str = extras.getString("ScanTime");
-            Log.d(TAG, "Scan Time = " + str);
-            scanTime = Integer.valueOf(str);
+            if (extras.containsKey("Schedule")) {
+                str = extras.getString("Schedule");
+                Log.d(TAG, "Schedule = " + str);
+                try {
+                    schedule = BleScanSchedule.parse(str);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid schedule: " + e);
+                    return;
+                }
+            } else {
+                if (!extras.containsKey("ScanMode")) {
+                    Log.e(TAG, "No scan mode specified");
+                    return;
+                }
+                str = extras.getString("ScanMode");
+                Log.d(TAG, "Scan Mode = " + str);
+                scanMode = Integer.valueOf(str);
+
+                if (!extras.containsKey("ScanTime")) {
+                    Log.e(TAG, "No Scan Time specified");
+                    return;
+                }
+                str = extras.getString("ScanTime");
+                Log.d(TAG, "Scan Time = " + str);
+                scanTime = Integer.valueOf(str);
 
-            if (extras.containsKey("Repetitions")) {
+                if (extras.containsKey("Repetitions")) {
 
-                str = extras.getString("Repetitions");
-                Log.d(TAG, "Repetitions = " + str);
-                repetitions = Integer.valueOf(str);
+                    str = extras.getString("Repetitions");
+                    Log.d(TAG, "Repetitions = " + str);
+                    repetitions = Integer.valueOf(str);
 
-                if (!extras.containsKey("NoScanTime")) {
-                    Log.e(TAG, "No NoScan Time specified");
+                    if (!extras.containsKey("NoScanTime")) {
+                        Log.e(TAG, "No NoScan Time specified");
+                        return;
+                    }
+                    str = extras.getString("NoScanTime");
+                    Log.d(TAG, "NoScan Time = " + str);
+                    noScanTime = Integer.valueOf(str);
+                }
+                if (scanTime == 0 || scanMode == -1 || repetitions <= 0) {
+                    Log.d(TAG, "Invalid paramters");
                     return;
                 }
-                str = extras.getString("NoScanTime");
-                Log.d(TAG, "NoScan Time = " + str);
-                noScanTime = Integer.valueOf(str);
+                schedule = BleScanSchedule.forRepeated(scanMode, scanTime, noScanTime,
+                        repetitions);
             }
-            if (scanTime == 0 || startTime == 0 || scanMode == -1) {
+            mReportDelayMillis = 0;
+            if (extras.containsKey("ReportDelay")) {
+                str = extras.getString("ReportDelay");
+                Log.d(TAG, "Report Delay = " + str);
+                mReportDelayMillis = Long.valueOf(str);
+            }
+            mClientCount = 1;
+            mFiltersPerClient = 0;
+            mFilterType = "Mixed";
+            if (extras.containsKey("ScanClients")) {
+                str = extras.getString("ScanClients");
+                Log.d(TAG, "Scan Clients = " + str);
+                mClientCount = Integer.valueOf(str);
+            }
+            if (extras.containsKey("FiltersPerClient")) {
+                str = extras.getString("FiltersPerClient");
+                Log.d(TAG, "Filters Per Client = " + str);
+                mFiltersPerClient = Integer.valueOf(str);
+            }
+            if (extras.containsKey("FilterType")) {
+                mFilterType = extras.getString("FilterType");
+                Log.d(TAG, "Filter Type = " + mFilterType);
+            }
+            mTargetAddress = null;
+            mTargetPackedAddress = -1;
+            mTargetName = null;
+            if (extras.containsKey("TargetAddress")) {
+                mTargetAddress = extras.getString("TargetAddress").toUpperCase();
+                Log.d(TAG, "Target Address = " + mTargetAddress);
+                mTargetPackedAddress = ScanResultStore.packMac(mTargetAddress);
+                if (mTargetPackedAddress == -1) {
+                    Log.e(TAG, "Invalid target address");
+                    return;
+                }
+            }
+            if (extras.containsKey("TargetName")) {
+                mTargetName = extras.getString("TargetName");
+                Log.d(TAG, "Target Name = " + mTargetName);
+            }
+            mDiscoveryLatency.clear();
+            mDiscoveryMisses.clear();
+            if (startTime == 0 || mClientCount <= 0 || mFiltersPerClient < 0) {
                 Log.d(TAG, "Invalid paramters");
                 return;
             }
-            mAlarmScanListener.firstAlarm(scanMode, startTime,
-                                       scanTime, noScanTime, repetitions * 2);
-            if (mBleScanner != null && mScanFilterList != null && mScanSettings != null
-                                 && mScanCallback != null) {
-                mPMCStatusLogger.logStatus("READY");
-            } else {
-                Log.e(TAG, "BLE scanner is not ready to start test");
-            }
+            initialize(schedule, startTime);
         }
     }
 }
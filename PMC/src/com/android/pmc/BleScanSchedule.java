@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Duty cycle schedule of a BLE scan test, as a list of (scan mode, on, off) segments.
+ *
+ * The segments are laid out once into a timeline of start and stop offsets relative to the
+ * first scan, so every alarm is set at an absolute time and the delay of one alarm doesn't
+ * shift the following ones. The schedule is given as "mode,on,off;mode,on,off;..." with the
+ * on and off durations in seconds, and the mode either a ScanSettings value or one of
+ * OPPORTUNISTIC, LOW_POWER, BALANCED, LOW_LATENCY.
+ * This class has no Android dependencies.
+ */
+public class BleScanSchedule {
+    // Same values as ScanSettings.SCAN_MODE_*
+    public static final int SCAN_MODE_OPPORTUNISTIC = -1;
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int SCAN_MODE_BALANCED = 1;
+    public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+    private final int[] mScanModes;
+    private final long[] mStartOffsetsMillis;
+    private final long[] mStopOffsetsMillis;
+    private final long mDurationMillis;
+
+    private BleScanSchedule(int[] scanModes, long[] onMillis, long[] offMillis) {
+        mScanModes = scanModes;
+        mStartOffsetsMillis = new long[scanModes.length];
+        mStopOffsetsMillis = new long[scanModes.length];
+        long offset = 0;
+        for (int i = 0; i < scanModes.length; i++) {
+            mStartOffsetsMillis[i] = offset;
+            offset += onMillis[i];
+            mStopOffsetsMillis[i] = offset;
+            offset += offMillis[i];
+        }
+        mDurationMillis = offset;
+    }
+
+    /**
+     * Function to build the schedule of a fixed scan pattern
+     *
+     * @param scanMode - scan mode of every segment
+     * @param scanTime - scan time in seconds
+     * @param noScanTime - time between scans in seconds
+     * @param repetitions - number of scans
+     */
+    public static BleScanSchedule forRepeated(int scanMode, int scanTime, int noScanTime,
+                                              int repetitions) {
+        int[] scanModes = new int[repetitions];
+        long[] onMillis = new long[repetitions];
+        long[] offMillis = new long[repetitions];
+        for (int i = 0; i < repetitions; i++) {
+            scanModes[i] = scanMode;
+            onMillis[i] = scanTime * 1000L;
+            offMillis[i] = noScanTime * 1000L;
+        }
+        return new BleScanSchedule(scanModes, onMillis, offMillis);
+    }
+
+    /**
+     * Function to parse a schedule
+     *
+     * @param schedule - segments as "mode,on,off" separated by ';'
+     * @throws IllegalArgumentException if a segment is invalid
+     */
+    public static BleScanSchedule parse(String schedule) {
+        String[] segments = schedule.trim().split(";");
+        int[] scanModes = new int[segments.length];
+        long[] onMillis = new long[segments.length];
+        long[] offMillis = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            String[] fields = segments[i].trim().split(",");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Invalid segment: " + segments[i]);
+            }
+            scanModes[i] = parseScanMode(fields[0].trim());
+            onMillis[i] = parseMillis(fields[1].trim());
+            offMillis[i] = parseMillis(fields[2].trim());
+            if (onMillis[i] <= 0 || offMillis[i] < 0) {
+                throw new IllegalArgumentException("Invalid durations: " + segments[i]);
+            }
+        }
+        return new BleScanSchedule(scanModes, onMillis, offMillis);
+    }
+
+    private static int parseScanMode(String mode) {
+        switch (mode.toUpperCase()) {
+            case "OPPORTUNISTIC":
+                return SCAN_MODE_OPPORTUNISTIC;
+            case "LOW_POWER":
+                return SCAN_MODE_LOW_POWER;
+            case "BALANCED":
+                return SCAN_MODE_BALANCED;
+            case "LOW_LATENCY":
+                return SCAN_MODE_LOW_LATENCY;
+            default:
+                int scanMode = Integer.parseInt(mode);
+                if (scanMode < SCAN_MODE_OPPORTUNISTIC || scanMode > SCAN_MODE_LOW_LATENCY) {
+                    throw new IllegalArgumentException("Invalid scan mode: " + mode);
+                }
+                return scanMode;
+        }
+    }
+
+    private static long parseMillis(String seconds) {
+        return Math.round(Double.parseDouble(seconds) * 1000);
+    }
+
+    public int getSegmentCount() {
+        return mScanModes.length;
+    }
+
+    public int getScanMode(int segment) {
+        return mScanModes[segment];
+    }
+
+    /**
+     * Function to get the time a segment starts scanning, relative to the first scan
+     *
+     * @param segment - segment index
+     */
+    public long getStartOffsetMillis(int segment) {
+        return mStartOffsetsMillis[segment];
+    }
+
+    /**
+     * Function to get the time a segment stops scanning, relative to the first scan
+     *
+     * @param segment - segment index
+     */
+    public long getStopOffsetMillis(int segment) {
+        return mStopOffsetsMillis[segment];
+    }
+
+    /**
+     * Function to get the duration of the whole schedule, including the last off time
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mScanModes.length; i++) {
+            if (i > 0) sb.append(';');
+            sb.append(mScanModes[i]).append(',')
+                    .append((mStopOffsetsMillis[i] - mStartOffsetsMillis[i]) / 1000.0).append(',')
+                    .append(((i + 1 < mScanModes.length ? mStartOffsetsMillis[i + 1]
+                            : mDurationMillis) - mStopOffsetsMillis[i]) / 1000.0);
+        }
+        return sb.toString();
+    }
+}
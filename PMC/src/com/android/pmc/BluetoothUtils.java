@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Helper functions shared by the Bluetooth modules of PMC.
+ *
+ * Bluetooth modules are initialized on their first command instead of at PMC startup, so a
+ * Wi-Fi only test doesn't power up the Bluetooth stack. The time each module takes to
+ * initialize is recorded as its cold start time.
+ */
+public class BluetoothUtils {
+    public static final String TAG = "PMCBT";
+    private static final int ENABLE_TIMEOUT_MS = 5000;
+
+    private static final Map<String, Long> sColdStartNanos = new LinkedHashMap<String, Long>();
+
+    /**
+     * Callback of enableAdapter()
+     */
+    public interface AdapterCallback {
+        /**
+         * Function called once the adapter is enabled, on the main thread unless the adapter
+         * was already enabled
+         *
+         * @param adapter - the enabled adapter, or null if Bluetooth can't be enabled
+         */
+        void onAdapterReady(BluetoothAdapter adapter);
+    }
+
+    /**
+     * Function to get the default adapter and enable it if needed. Enabling is asynchronous,
+     * the callback is called from ACTION_STATE_CHANGED once the adapter is on, or after
+     * ENABLE_TIMEOUT_MS if it doesn't turn on.
+     *
+     * @param context - context to register the state receiver
+     * @param tag - log tag of the calling module
+     * @param callback - called with the enabled adapter, or null
+     */
+    public static void enableAdapter(Context context, String tag, AdapterCallback callback) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) {
+            Log.e(tag, "BluetoothAdapter is Null");
+            callback.onAdapterReady(null);
+            return;
+        }
+        if (adapter.isEnabled()) {
+            callback.onAdapterReady(adapter);
+            return;
+        }
+        Log.d(tag, "BluetoothAdapter is NOT enabled, enable now");
+        new AdapterEnabler(context, tag, adapter, callback).start();
+    }
+
+    /**
+     * Receiver waiting for the adapter to be on, with a timeout
+     */
+    private static class AdapterEnabler extends BroadcastReceiver implements Runnable {
+        private final Context mContext;
+        private final String mTag;
+        private final BluetoothAdapter mAdapter;
+        private final AdapterCallback mCallback;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private boolean mDone;
+
+        AdapterEnabler(Context context, String tag, BluetoothAdapter adapter,
+                       AdapterCallback callback) {
+            mContext = context;
+            mTag = tag;
+            mAdapter = adapter;
+            mCallback = callback;
+        }
+
+        void start() {
+            mContext.registerReceiver(this,
+                    new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED), null, mHandler);
+            mHandler.postDelayed(this, ENABLE_TIMEOUT_MS);
+            // The adapter may have turned on before the receiver was registered
+            if (!mAdapter.enable() && !mAdapter.isEnabled()) {
+                Log.e(mTag, "Can't enable Bluetooth");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(null);
+                    }
+                });
+            } else if (mAdapter.isEnabled()) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(mAdapter);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+            if (state == BluetoothAdapter.STATE_ON) finish(mAdapter);
+        }
+
+        @Override
+        public void run() {
+            Log.e(mTag, "Bluetooth is not on after " + ENABLE_TIMEOUT_MS + " ms");
+            finish(null);
+        }
+
+        private void finish(BluetoothAdapter adapter) {
+            if (mDone) return;
+            mDone = true;
+            mHandler.removeCallbacks(this);
+            mContext.unregisterReceiver(this);
+            mCallback.onAdapterReady(adapter);
+        }
+    }
+
+    /**
+     * Function to record the cold start time of a module
+     *
+     * @param module - name of the module
+     * @param startNanos - elapsedRealtimeNanos() when the initialization started
+     * @return cold start time in msec
+     */
+    public static double recordColdStart(String module, long startNanos) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        synchronized (sColdStartNanos) {
+            sColdStartNanos.put(module, nanos);
+        }
+        double millis = nanos / 1000000.0;
+        Log.i(TAG, module + " cold start time: " + millis + " ms");
+        return millis;
+    }
+
+    /**
+     * Function to get the cold start times of all initialized modules
+     */
+    public static String getColdStartSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sColdStartNanos) {
+            for (Map.Entry<String, Long> entry : sColdStartNanos.entrySet()) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(entry.getKey()).append(" cold start: ")
+                        .append(entry.getValue() / 1000000.0).append(" ms");
+            }
+        }
+        return sb.length() == 0 ? "No Bluetooth module initialized" : sb.toString();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded executor dedicated to one workload.
+ *
+ * Unlike AsyncTask.execute(), which shares one serial executor across the whole process, every
+ * workload gets its own worker thread, so a slow download can't delay the scans of another
+ * workload. The number of pending tasks is bounded by an overrun policy, and every task that
+ * is not accepted is counted as an overrun. submit() never blocks the calling thread.
+ * An optional wake lock is held from the moment a task is accepted until it finishes.
+ */
+public class BoundedTaskExecutor {
+    public static final String TAG = "PMCEXEC";
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    /**
+     * What to do when a task is submitted while the previous one is still running.
+     */
+    public enum OverrunPolicy {
+        // Drop the new task
+        SKIP,
+        // Queue the new task, up to the queue capacity
+        QUEUE,
+        // Keep at most one task waiting behind the running one
+        COALESCE;
+
+        /**
+         * Function to parse a policy name, case insensitive
+         *
+         * @param name - policy name
+         * @param defaultPolicy - policy returned when the name is unknown
+         */
+        public static OverrunPolicy parse(String name, OverrunPolicy defaultPolicy) {
+            for (OverrunPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) return policy;
+            }
+            Log.e(TAG, "Unknown overrun policy: " + name);
+            return defaultPolicy;
+        }
+    }
+
+    private final String mName;
+    private final OverrunPolicy mPolicy;
+    private final int mQueueCapacity;
+    private final PowerManager.WakeLock mWakeLock;
+    private final ThreadPoolExecutor mExecutor;
+    // Tasks accepted but not finished yet, including the running one
+    private int mPendingCount;
+    private int mCompletedCount;
+    private int mOverrunCount;
+    // Total time the wake lock was held, and the start of the current hold
+    private long mWakeLockHeldNanos;
+    private long mWakeLockAcquireNanos;
+
+    /**
+     * Constructor
+     *
+     * @param name - name of the worker thread
+     * @param policy - overrun policy
+     * @param queueCapacity - max number of waiting tasks for the QUEUE policy
+     * @param wakeLock - wake lock held while tasks are pending, may be null
+     */
+    public BoundedTaskExecutor(String name, OverrunPolicy policy, int queueCapacity,
+                               PowerManager.WakeLock wakeLock) {
+        mName = name;
+        mPolicy = policy;
+        mQueueCapacity = queueCapacity;
+        mWakeLock = wakeLock;
+        if (mWakeLock != null) mWakeLock.setReferenceCounted(true);
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "PMC-" + mName);
+                    }
+                });
+    }
+
+    /**
+     * Function to submit a task
+     *
+     * @param task - task to be run on the worker thread
+     * @return true if the task is accepted, false if it is counted as an overrun
+     */
+    public synchronized boolean submit(Runnable task) {
+        if (mExecutor.isShutdown()) return false;
+        boolean accept;
+        switch (mPolicy) {
+            case QUEUE:
+                accept = mPendingCount <= mQueueCapacity;
+                break;
+            case COALESCE:
+                accept = mPendingCount <= 1;
+                break;
+            case SKIP:
+            default:
+                accept = mPendingCount == 0;
+                break;
+        }
+        if (!accept) {
+            mOverrunCount++;
+            Log.e(TAG, mName + " overrun (" + mPolicy + "), pending tasks: " + mPendingCount
+                    + ", total overruns: " + mOverrunCount);
+            return false;
+        }
+        if (mWakeLock != null) {
+            if (mPendingCount == 0) mWakeLockAcquireNanos = SystemClock.elapsedRealtimeNanos();
+            mWakeLock.acquire();
+        }
+        mPendingCount++;
+        try {
+            mExecutor.execute(new TrackedTask(task));
+        } catch (RejectedExecutionException e) {
+            taskDone(false);
+            mOverrunCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Function to cancel all pending tasks and interrupt the running one.
+     * It returns immediately, the running task releases its wake lock once it exits.
+     */
+    public synchronized void shutdown() {
+        List<Runnable> dropped = mExecutor.shutdownNow();
+        for (int i = 0; i < dropped.size(); i++) {
+            taskDone(false);
+        }
+        Log.d(TAG, mName + " shut down, dropped tasks: " + dropped.size());
+    }
+
+    public synchronized int getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    public synchronized int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * Function to get the total time the wake lock was held by this executor
+     *
+     * @return time in msec, including the current hold
+     */
+    public synchronized long getWakeLockHeldMillis() {
+        long nanos = mWakeLockHeldNanos;
+        if (mWakeLock != null && mPendingCount > 0) {
+            nanos += SystemClock.elapsedRealtimeNanos() - mWakeLockAcquireNanos;
+        }
+        return nanos / 1000000;
+    }
+
+    private synchronized void taskDone(boolean completed) {
+        mPendingCount--;
+        if (mWakeLock != null && mPendingCount == 0) {
+            mWakeLockHeldNanos += SystemClock.elapsedRealtimeNanos() - mWakeLockAcquireNanos;
+        }
+        if (completed) mCompletedCount++;
+        if (mWakeLock != null && mWakeLock.isHeld()) mWakeLock.release();
+    }
+
+    /**
+     * Wrapper to keep track of pending tasks and the wake lock
+     */
+    private class TrackedTask implements Runnable {
+        private final Runnable mTask;
+
+        TrackedTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, mName + " task failed: " + e);
+            } finally {
+                taskDone(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Per BSSID index of the RSSI seen in the Wi-Fi scans of a session.
+ *
+ * The index is updated as scan results come in, so per AP queries don't have to go through
+ * the raw results of ScanResultStore. Every BSSID gets a fixed size ring buffer with its last
+ * RING_SIZE RSSI samples, plus first/last seen times and the number of scans it was seen in.
+ * All the ring buffers share two flat primitive arrays.
+ * This class has no Android dependencies.
+ */
+public class BssidRssiIndex {
+    public static final int RING_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_SUMMARY_LINES = 50;
+
+    // Packed BSSID to slot
+    private final LongIntHashMap mSlots = new LongIntHashMap();
+    private int mSlotCount;
+    private int mScanCount;
+
+    // Per slot columns
+    private long[] mBssids = new long[INITIAL_CAPACITY];
+    private long[] mFirstSeenNanos = new long[INITIAL_CAPACITY];
+    private long[] mLastSeenNanos = new long[INITIAL_CAPACITY];
+    private int[] mFirstScan = new int[INITIAL_CAPACITY];
+    private int[] mLastScan = new int[INITIAL_CAPACITY];
+    private int[] mSeenScans = new int[INITIAL_CAPACITY];
+    // Total number of samples, the ring position is mSampleCount % RING_SIZE
+    private int[] mSampleCount = new int[INITIAL_CAPACITY];
+
+    // Ring buffers, RING_SIZE entries per slot
+    private byte[] mRingRssi = new byte[INITIAL_CAPACITY * RING_SIZE];
+    private long[] mRingTimeNanos = new long[INITIAL_CAPACITY * RING_SIZE];
+
+    /**
+     * Function to be called once per scan before its results are added
+     */
+    public synchronized void beginScan() {
+        mScanCount++;
+    }
+
+    /**
+     * Function to add one scan result to the index
+     *
+     * @param bssid - packed BSSID
+     * @param rssi - RSSI in dBm
+     * @param timeNanos - time the AP was seen, nsec since boot
+     */
+    public synchronized void addResult(long bssid, int rssi, long timeNanos) {
+        int slot = mSlots.get(bssid);
+        if (slot == LongIntHashMap.NO_VALUE) {
+            slot = newSlot(bssid, timeNanos);
+        }
+        // Results of one scan are not ordered by time
+        mLastSeenNanos[slot] = Math.max(mLastSeenNanos[slot], timeNanos);
+        // A BSSID may be reported more than once by a scan on several buckets
+        if (mLastScan[slot] != mScanCount) {
+            mLastScan[slot] = mScanCount;
+            mSeenScans[slot]++;
+        }
+        int pos = slot * RING_SIZE + mSampleCount[slot] % RING_SIZE;
+        mRingRssi[pos] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+        mRingTimeNanos[pos] = timeNanos;
+        mSampleCount[slot]++;
+    }
+
+    public synchronized int getBssidCount() {
+        return mSlotCount;
+    }
+
+    public synchronized int getScanCount() {
+        return mScanCount;
+    }
+
+    /**
+     * Remove all the BSSIDs
+     */
+    public synchronized void clear() {
+        mSlots.clear();
+        mSlotCount = 0;
+        mScanCount = 0;
+    }
+
+    /**
+     * Function to get the ratio of scans a BSSID was seen in, since it was first seen
+     *
+     * @param bssid - packed BSSID
+     * @return ratio between 0 and 1, or -1 if the BSSID was never seen
+     */
+    public synchronized double getVisibility(long bssid) {
+        int slot = mSlots.get(bssid);
+        if (slot == LongIntHashMap.NO_VALUE) return -1;
+        return visibility(slot);
+    }
+
+    /**
+     * Function to get the RSSI trend of a BSSID over the samples in its ring buffer
+     *
+     * @param bssid - packed BSSID
+     * @return least squares slope in dBm per minute, 0 if there are less than two samples
+     */
+    public synchronized double getRssiTrend(long bssid) {
+        int slot = mSlots.get(bssid);
+        if (slot == LongIntHashMap.NO_VALUE) return 0;
+        return rssiTrend(slot);
+    }
+
+    /**
+     * Function to describe one BSSID
+     *
+     * @param bssid - packed BSSID
+     */
+    public synchronized String query(long bssid) {
+        int slot = mSlots.get(bssid);
+        if (slot == LongIntHashMap.NO_VALUE) {
+            return ScanResultStore.formatMac(bssid) + " not seen";
+        }
+        StringBuilder sb = new StringBuilder(describe(slot));
+        sb.append(" rssi=[");
+        int samples = Math.min(mSampleCount[slot], RING_SIZE);
+        for (int i = samples; i > 0; i--) {
+            sb.append(mRingRssi[ringPos(slot, mSampleCount[slot] - i)]);
+            if (i > 1) sb.append(',');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Function to describe the most visible BSSIDs
+     */
+    public synchronized String getSummary() {
+        if (mSlotCount == 0) return "No BSSID seen";
+        Integer[] slots = new Integer[mSlotCount];
+        for (int i = 0; i < mSlotCount; i++) {
+            slots[i] = i;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return mSeenScans[b] - mSeenScans[a];
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append("BSSIDs: ").append(mSlotCount).append(", Scans: ").append(mScanCount);
+        for (int i = 0; i < Math.min(mSlotCount, MAX_SUMMARY_LINES); i++) {
+            sb.append('\n').append(describe(slots[i]));
+        }
+        return sb.toString();
+    }
+
+    private String describe(int slot) {
+        long samples = Math.min(mSampleCount[slot], RING_SIZE);
+        long rssiSum = 0;
+        for (int i = 0; i < samples; i++) {
+            rssiSum += mRingRssi[slot * RING_SIZE + i];
+        }
+        return ScanResultStore.formatMac(mBssids[slot])
+                + " firstSeenMs=" + mFirstSeenNanos[slot] / 1000000
+                + " lastSeenMs=" + mLastSeenNanos[slot] / 1000000
+                + " seenScans=" + mSeenScans[slot]
+                + " visibility=" + String.format("%.2f", visibility(slot))
+                + " meanRssi=" + (samples == 0 ? 0 : rssiSum / samples)
+                + " trend=" + String.format("%.2f", rssiTrend(slot)) + "dBm/min";
+    }
+
+    private double visibility(int slot) {
+        int scans = mScanCount - mFirstScan[slot] + 1;
+        return scans <= 0 ? 0 : (double) mSeenScans[slot] / scans;
+    }
+
+    private double rssiTrend(int slot) {
+        int samples = Math.min(mSampleCount[slot], RING_SIZE);
+        if (samples < 2) return 0;
+        // Times are taken relative to the first sample to keep the sums small
+        long t0 = mRingTimeNanos[ringPos(slot, mSampleCount[slot] - samples)];
+        double sumT = 0, sumR = 0, sumTT = 0, sumTR = 0;
+        for (int i = 0; i < samples; i++) {
+            int pos = slot * RING_SIZE + i;
+            double t = (mRingTimeNanos[pos] - t0) / 60e9;
+            double r = mRingRssi[pos];
+            sumT += t;
+            sumR += r;
+            sumTT += t * t;
+            sumTR += t * r;
+        }
+        double denominator = samples * sumTT - sumT * sumT;
+        if (denominator == 0) return 0;
+        return (samples * sumTR - sumT * sumR) / denominator;
+    }
+
+    private static int ringPos(int slot, int sample) {
+        return slot * RING_SIZE + sample % RING_SIZE;
+    }
+
+    private int newSlot(long bssid, long timeNanos) {
+        if (mSlotCount == mBssids.length) {
+            int capacity = mSlotCount * 2;
+            mBssids = Arrays.copyOf(mBssids, capacity);
+            mFirstSeenNanos = Arrays.copyOf(mFirstSeenNanos, capacity);
+            mLastSeenNanos = Arrays.copyOf(mLastSeenNanos, capacity);
+            mFirstScan = Arrays.copyOf(mFirstScan, capacity);
+            mLastScan = Arrays.copyOf(mLastScan, capacity);
+            mSeenScans = Arrays.copyOf(mSeenScans, capacity);
+            mSampleCount = Arrays.copyOf(mSampleCount, capacity);
+            mRingRssi = Arrays.copyOf(mRingRssi, capacity * RING_SIZE);
+            mRingTimeNanos = Arrays.copyOf(mRingTimeNanos, capacity * RING_SIZE);
+        }
+        int slot = mSlotCount++;
+        mBssids[slot] = bssid;
+        mFirstSeenNanos[slot] = timeNanos;
+        mLastSeenNanos[slot] = timeNanos;
+        mFirstScan[slot] = mScanCount;
+        mLastScan[slot] = -1;
+        mSeenScans[slot] = 0;
+        mSampleCount[slot] = 0;
+        mSlots.put(bssid, slot);
+        return slot;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Band or list of channels to be scanned by Gscan.
+ *
+ * A plan is parsed from a string, either a list of frequencies in MHz separated by ','
+ * (e.g. "2412,2437,2462"), or band names combined with '|' (e.g. "24GHZ|5GHZ_DFS_ONLY").
+ * Band names are 24GHZ, 5GHZ, 5GHZ_DFS_ONLY, 5GHZ_WITH_DFS, BOTH and BOTH_WITH_DFS.
+ * The band values are the same as the WIFI_BAND_* constants of WifiScanner. This class has no
+ * Android dependencies.
+ */
+public class ChannelPlan {
+    public static final int BAND_UNSPECIFIED = 0;
+    public static final int BAND_24_GHZ = 1;
+    public static final int BAND_5_GHZ = 2;
+    public static final int BAND_5_GHZ_DFS_ONLY = 4;
+    public static final int BAND_5_GHZ_WITH_DFS = 6;
+    public static final int BAND_BOTH = 3;
+    public static final int BAND_BOTH_WITH_DFS = 7;
+
+    private static final String[] BAND_NAMES = {
+        "24GHZ", "5GHZ", "5GHZ_DFS_ONLY", "5GHZ_WITH_DFS", "BOTH", "BOTH_WITH_DFS"
+    };
+    private static final int[] BAND_VALUES = {
+        BAND_24_GHZ, BAND_5_GHZ, BAND_5_GHZ_DFS_ONLY, BAND_5_GHZ_WITH_DFS, BAND_BOTH,
+        BAND_BOTH_WITH_DFS
+    };
+
+    private final int mBand;
+    private final int[] mChannels;
+    private final String mName;
+
+    private ChannelPlan(int band, int[] channels, String name) {
+        mBand = band;
+        mChannels = channels;
+        mName = name;
+    }
+
+    /**
+     * Function to create a plan scanning a band
+     *
+     * @param band - one of the BAND_* constants, or several of them OR'ed
+     */
+    public static ChannelPlan forBand(int band) {
+        for (int i = 0; i < BAND_VALUES.length; i++) {
+            if (BAND_VALUES[i] == band) return new ChannelPlan(band, null, BAND_NAMES[i]);
+        }
+        // Not a named band, list the single bands it is made of
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < BAND_VALUES.length; i++) {
+            if (Integer.bitCount(BAND_VALUES[i]) != 1 || (band & BAND_VALUES[i]) == 0) continue;
+            if (name.length() > 0) name.append('|');
+            name.append(BAND_NAMES[i]);
+        }
+        return new ChannelPlan(band, null, name.toString());
+    }
+
+    /**
+     * Function to create a plan scanning a list of channels
+     *
+     * @param channels - frequencies in MHz
+     */
+    public static ChannelPlan forChannels(int[] channels) {
+        StringBuilder name = new StringBuilder("Channels");
+        for (int i = 0; i < channels.length; i++) {
+            name.append(i == 0 ? ':' : ',').append(channels[i]);
+        }
+        return new ChannelPlan(BAND_UNSPECIFIED, channels.clone(), name.toString());
+    }
+
+    /**
+     * Function to parse a plan
+     *
+     * @param plan - plan string, see the class description for the format
+     * @throws IllegalArgumentException if the string is not a valid plan
+     */
+    public static ChannelPlan parse(String plan) {
+        String trimmed = plan == null ? "" : plan.trim();
+        if (trimmed.isEmpty()) throw new IllegalArgumentException("Empty channel plan");
+        // Band names may start with a digit too, only digits and commas make a channel list
+        if (trimmed.matches("[0-9, ]+")) {
+            String[] tokens = trimmed.split(",");
+            int[] channels = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                try {
+                    channels[i] = Integer.parseInt(tokens[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid channel: " + tokens[i]);
+                }
+            }
+            return forChannels(channels);
+        }
+        int band = BAND_UNSPECIFIED;
+        for (String token : trimmed.split("\\|")) {
+            band |= parseBand(token.trim());
+        }
+        return forBand(band);
+    }
+
+    /**
+     * Function to parse a list of plans separated by ';'
+     *
+     * @param plans - plan strings, e.g. "2412,2437,2462;BOTH_WITH_DFS"
+     * @throws IllegalArgumentException if one of the strings is not a valid plan
+     */
+    public static List<ChannelPlan> parseList(String plans) {
+        List<ChannelPlan> list = new ArrayList<ChannelPlan>();
+        for (String plan : plans.split(";")) {
+            if (!plan.trim().isEmpty()) list.add(parse(plan));
+        }
+        if (list.isEmpty()) throw new IllegalArgumentException("Empty channel plan list");
+        return list;
+    }
+
+    public int getBand() {
+        return mBand;
+    }
+
+    /**
+     * Function to get the channels of the plan
+     *
+     * @return frequencies in MHz, or null when the plan scans a band
+     */
+    public int[] getChannels() {
+        return mChannels == null ? null : mChannels.clone();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    private static int parseBand(String name) {
+        for (int i = 0; i < BAND_NAMES.length; i++) {
+            if (BAND_NAMES[i].equalsIgnoreCase(name)) return BAND_VALUES[i];
+        }
+        throw new IllegalArgumentException("Unknown band: " + name);
+    }
+}
@@ -34,11 +34,22 @@ import android.bluetooth.le.ScanSettings;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -50,7 +61,35 @@ public class GattClientListener extends BroadcastReceiver {
     public static final String GATTCLIENT_ALARM =
                            "com.android.pmc.GATTClient.ALARM";
     private static final int MILLSEC = 1000;
-    private static final int INIT_VALUE = 0;
+    // Alarm number used to release Bluetooth resources after the last cycle
+    private static final int RELEASE_ALARM = -1;
+    // Setup time allowed to the last cycle, the release alarm only fires if its window
+    // doesn't end by then
+    private static final int RELEASE_TIMEOUT_SEC = 30;
+    private static final double CONNECTION_INTERVAL_UNIT_MS = 1.25;
+    // Logged in place of the connection interval until the stack reports it
+    private static final String UNKNOWN_INTERVAL = "Unknown";
+    private static final UUID SERVICE_UUID = UUID.fromString(GattServer.TEST_SERVICE_UUID);
+    private static final UUID WRITABLE_CHAR_UUID =
+            UUID.fromString(GattServer.WRITABLE_CHAR_UUID);
+    private static final UUID NOTIFY_CHAR_UUID = UUID.fromString(GattServer.NOTIFY_CHAR_UUID);
+    private static final UUID CCC_DESC_UUID = UUID.fromString(GattServer.CCC_DESC_UUID);
+    // Test modes: client writes or reads, or server notifications / indications
+    public static final String MODE_WRITE = "Write";
+    public static final String MODE_READ = "Read";
+    public static final String MODE_NOTIFY = "Notify";
+    public static final String MODE_INDICATE = "Indicate";
+    // Connection handling between cycles: discover services again on the same link, keep
+    // the link idle, disconnect and rediscover from scratch, or reconnect with cached services
+    public static final String CONNECTION_REDISCOVER = "Rediscover";
+    public static final String CONNECTION_PERSISTENT = "Persistent";
+    public static final String CONNECTION_DISCONNECT = "Disconnect";
+    public static final String CONNECTION_CACHED = "Cached";
+    // Payload fill patterns
+    public static final String PATTERN_SECOND = "Second";
+    public static final String PATTERN_ZERO = "Zero";
+    public static final String PATTERN_INCREMENTING = "Incrementing";
+    public static final String PATTERN_RANDOM = "Random";
     private Context mContext;
     private final AlarmManager mAlarmManager;
 
@@ -65,6 +104,31 @@ public class GattClientListener extends BroadcastReceiver {
     private int mWriteTime;
     private int mIdleTime;
     private int mCycles;
+    // Write without response, keeping up to mWriteWindow writes in flight
+    private boolean mWriteNoResponse;
+    private int mWriteWindow = 1;
+    // Value size of the writes, 0 for the default size; acknowledged writes larger than the
+    // MTU are sent by the stack as prepared writes followed by an execute write
+    private int mWriteSize;
+    // Writes per reliable write transaction, 0 for plain writes
+    private int mReliableWrites;
+    private String mPayloadPattern = PATTERN_SECOND;
+    private String mMode = MODE_WRITE;
+    private String mConnectionMode = CONNECTION_REDISCOVER;
+    // Link configuration of every write cycle, null to keep the defaults
+    private GattSweepPlan mSweepPlan;
+    private PMCStatusLogger mPMCStatusLogger;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Set once the last cycle alarm fired, the client is released at the end of its window
+    private boolean mReleasePending;
+    private final Runnable mReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
+    private final AlarmDriftTracker mAlarmDriftTracker =
+            AlarmDriftTracker.getTracker("GattClient");
 
     /**
      * Constructor
@@ -75,28 +139,202 @@ public class GattClientListener extends BroadcastReceiver {
         Log.d(TAG, "Start GattClientListener()");
         mContext = context;
         mAlarmManager = alarmManager;
-        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-
-        if (mBluetoothAdapter == null) {
-            Log.e(TAG, "BluetoothAdapter is Null");
-            return;
-        } else {
-            if (!mBluetoothAdapter.isEnabled()) {
-                Log.d(TAG, "BluetoothAdapter is NOT enabled, enable now");
-                mBluetoothAdapter.enable();
-                if (!mBluetoothAdapter.isEnabled()) {
-                    Log.e(TAG, "Can't enable Bluetooth");
-                    return;
-                }
-            }
-        }
+        // Bluetooth is initialized by the first GATT client command
+        mBluetoothGatt = null;
+        mMacAddress = null;
+        mDevice = null;
+        Log.d(TAG, "End GattClientListener");
+    }
 
+    /**
+     * Function to initialize the scanner and the GATT callback on the first command
+     *
+     * @param adapter - enabled adapter
+     * @param startNanos - time the first command was received
+     */
+    private void initialize(BluetoothAdapter adapter, long startNanos) {
+        mBluetoothAdapter = adapter;
         mMyBleScanner = new MyBleScanner(mBluetoothAdapter);
         mGattCallback = new GattCallback();
-        mBluetoothGatt = null;
+        BluetoothUtils.recordColdStart("GattClient", startNanos);
+    }
+
+    /**
+     * Function to release the GATT connection and the scanner after the last cycle
+     */
+    private void release() {
+        Log.d(TAG, "Release GATT client");
+        mReleasePending = false;
+        mHandler.removeCallbacks(mReleaseRunnable);
+        // Intents of the GATT client alarms only differ by their extras
+        PendingIntent releaseAlarm = PendingIntent.getBroadcast(mContext, 0,
+                new Intent(GATTCLIENT_ALARM), PendingIntent.FLAG_NO_CREATE);
+        if (releaseAlarm != null) mAlarmManager.cancel(releaseAlarm);
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.disconnect();
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+        }
+        if (mGattCallback != null) {
+            // No disconnection callback once closed
+            mGattCallback.mConnected = false;
+            mGattCallback.mMtu = 0;
+        }
+        if (mMyBleScanner != null) {
+            mMyBleScanner.stopScan();
+            mMyBleScanner = null;
+        }
+        if (mGattCallback != null && mGattCallback.mWriting) {
+            // The last write window is cut short, keep its statistics anyway
+            mGattCallback.endWriteWindow(
+                    SystemClock.elapsedRealtime() - mGattCallback.mStartWriteTime);
+        }
+        if (mGattCallback != null && mGattCallback.mReading) {
+            mGattCallback.endReadWindow(
+                    SystemClock.elapsedRealtime() - mGattCallback.mStartWriteTime);
+        }
+        if (mGattCallback != null && mGattCallback.mReceiving) {
+            mGattCallback.endNotifyWindow();
+        }
+        if (mPMCStatusLogger != null) {
+            mPMCStatusLogger.logValue("RoundTripNsByLink", mGattCallback.getRoundTripByLink());
+            mPMCStatusLogger.logHistogram("ConnectNs", mGattCallback.mConnectNanos);
+            mPMCStatusLogger.logHistogram("DiscoveryNs", mGattCallback.mDiscoveryNanos);
+            mPMCStatusLogger.logHistogram("MtuNs", mGattCallback.mMtuNanos);
+            mPMCStatusLogger.logHistogram("FirstDataNs", mGattCallback.mFirstDataNanos);
+            if (mSweepPlan != null) {
+                mPMCStatusLogger.logValue("SweepMatrix", mGattCallback.mSweepMatrix);
+            }
+            mAlarmDriftTracker.logTo(mPMCStatusLogger);
+            mPMCStatusLogger.flash();
+            mPMCStatusLogger = null;
+        }
         mMacAddress = null;
         mDevice = null;
-        Log.d(TAG, "End GattClientListener");
+    }
+
+    /**
+     * Function to select the write type, to be called before startAlarm()
+     *
+     * @param noResponse - true to write without response, false for acknowledged writes
+     * @param window - max number of writes without response in flight
+     */
+    public void setWriteType(boolean noResponse, int window) {
+        mWriteNoResponse = noResponse;
+        mWriteWindow = noResponse ? Math.max(1, window) : 1;
+        mReliableWrites = 0;
+    }
+
+    /**
+     * Function to write through reliable write transactions, to be called before
+     * startAlarm() and after setWriteType()
+     *
+     * @param writesPerTransaction - writes queued on the server between beginReliableWrite()
+     *     and executeReliableWrite(), 0 for plain writes
+     */
+    public void setReliableWrite(int writesPerTransaction) {
+        mReliableWrites = Math.max(0, writesPerTransaction);
+        if (mReliableWrites > 0) {
+            mWriteNoResponse = false;
+            mWriteWindow = 1;
+        }
+    }
+
+    /**
+     * Function to set the value size of the writes, to be called before startAlarm()
+     *
+     * The size is clamped to one ATT packet once the MTU is known: MTU - 3 for writes
+     * without response and MTU - 5 for the prepared writes of reliable write transactions.
+     *
+     * @param size - value size in bytes, up to 512, 0 for the default size
+     * @return false if the size is out of range
+     */
+    public boolean setWriteSize(int size) {
+        if (size < 0 || size > GattCallback.MAX_VALUE_BYTES) return false;
+        mWriteSize = size;
+        return true;
+    }
+
+    /**
+     * Function to select the test mode, to be called before startAlarm()
+     *
+     * @param mode - MODE_WRITE to write to the server during WriteTime, MODE_READ to read
+     *     from it one request at a time, MODE_NOTIFY or MODE_INDICATE to receive the server
+     *     notifications or indications instead
+     * @return false if the mode is unknown
+     */
+    public boolean setMode(String mode) {
+        String known = findName(mode, MODE_WRITE, MODE_READ, MODE_NOTIFY, MODE_INDICATE);
+        if (known == null) return false;
+        mMode = known;
+        return true;
+    }
+
+    /**
+     * Function to select how the link is handled between cycles, to be called before
+     * startAlarm()
+     *
+     * @param connectionMode - CONNECTION_REDISCOVER to discover services again every cycle,
+     *     CONNECTION_PERSISTENT to keep the link idle between cycles, CONNECTION_DISCONNECT to
+     *     disconnect after every cycle and discover services from scratch, CONNECTION_CACHED
+     *     to disconnect after every cycle and reconnect with the cached services
+     * @return false if the connection mode is unknown
+     */
+    public boolean setConnectionMode(String connectionMode) {
+        String known = findName(connectionMode, CONNECTION_REDISCOVER, CONNECTION_PERSISTENT,
+                CONNECTION_DISCONNECT, CONNECTION_CACHED);
+        if (known == null) return false;
+        mConnectionMode = known;
+        return true;
+    }
+
+    /**
+     * Function to match a name against a list of names, ignoring case
+     *
+     * @param name - name to be matched
+     * @param names - known names
+     * @return the matching known name, or null if there is none
+     */
+    private static String findName(String name, String... names) {
+        for (String known : names) {
+            if (known.equalsIgnoreCase(name)) return known;
+        }
+        return null;
+    }
+
+    /**
+     * Function to sweep PHY, connection priority and MTU over the write cycles, to be called
+     * before startAlarm() and after setConnectionMode()
+     *
+     * The MTU is exchanged once per connection, so several MTUs can only be swept when
+     * every cycle connects again, in CONNECTION_DISCONNECT or CONNECTION_CACHED mode.
+     *
+     * @param plan - configurations, one per cycle, null to keep the default link settings
+     * @return false if the plan sweeps MTUs over a kept connection
+     */
+    public boolean setSweepPlan(GattSweepPlan plan) {
+        if (plan != null && plan.getMtuCount() > 1
+                && !CONNECTION_DISCONNECT.equalsIgnoreCase(mConnectionMode)
+                && !CONNECTION_CACHED.equalsIgnoreCase(mConnectionMode)) {
+            return false;
+        }
+        mSweepPlan = plan;
+        return true;
+    }
+
+    /**
+     * Function to select how the write payload is filled, to be called before startAlarm()
+     *
+     * @param pattern - PATTERN_SECOND to fill every byte with the second of the write window,
+     *     PATTERN_ZERO, PATTERN_INCREMENTING or PATTERN_RANDOM for a fixed payload
+     * @return false if the pattern is unknown
+     */
+    public boolean setPayloadPattern(String pattern) {
+        String known = findName(pattern, PATTERN_SECOND, PATTERN_ZERO, PATTERN_INCREMENTING,
+                PATTERN_RANDOM);
+        if (known == null) return false;
+        mPayloadPattern = known;
+        return true;
     }
 
     /**
@@ -107,31 +345,78 @@ public class GattClientListener extends BroadcastReceiver {
      * @param idleTime - how long (sec) it doesn't need to wait
      * @param numCycles - how many of cycles of writing with idle time
      */
-    public void startAlarm(int startTime, int writeTime, int idleTime, int numCycles,
-                    Intent intent) {
+    public void startAlarm(final int startTime, final int writeTime, final int idleTime,
+                    final int numCycles, Intent intent) {
 
         int currentAlarm = 0;
 
         if (intent == null) {
+            if (mMyBleScanner == null) {
+                // Started again once Bluetooth is on
+                final long startNanos = SystemClock.elapsedRealtimeNanos();
+                BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+                    @Override
+                    public void onAdapterReady(BluetoothAdapter adapter) {
+                        if (adapter == null) {
+                            Log.e(TAG, "GATT client is not ready to start test");
+                            return;
+                        }
+                        initialize(adapter, startNanos);
+                        startAlarm(startTime, writeTime, idleTime, numCycles, null);
+                    }
+                });
+                return;
+            }
             // Start Scan here when this func is called for the first time
             mMyBleScanner.startScan();
             mWriteTime = writeTime;
             mIdleTime = idleTime;
             mCycles = numCycles;
+            mAlarmDriftTracker.reset();
+            mPMCStatusLogger = new PMCStatusLogger(TAG + ".log", TAG);
+            mPMCStatusLogger.logValue("Mode", mMode);
+            mPMCStatusLogger.logValue("ConnectionMode", mConnectionMode);
+            mPMCStatusLogger.logValue("WriteType", mGattCallback.getWriteMethod());
+            mPMCStatusLogger.logValue("WriteWindow", mWriteWindow);
+            mPMCStatusLogger.logValue("WriteSize", mWriteSize);
+            mPMCStatusLogger.logValue("ReliableWrites", mReliableWrites);
+            mPMCStatusLogger.logValue("PayloadPattern", mPayloadPattern);
+            if (mSweepPlan != null) {
+                mPMCStatusLogger.logValue("SweepConfigs", mSweepPlan.getConfigCount());
+            }
+            mGattCallback.mSweepMatrix = new JSONArray();
+            mGattCallback.mRoundTripByLink.clear();
+            mGattCallback.resetSetupStats();
+            mGattCallback.mCycle = 0;
+            mGattCallback.mPayloadValue = -1;
         } else {
             // Get alarm number inside the intent
             currentAlarm = intent.getIntExtra("com.android.pmc.GATTClient.CurrentAlarm", 0);
         }
         Log.d(TAG, "Current Cycle Num: " + currentAlarm);
         if (currentAlarm >= mCycles) {
-            Log.d(TAG, "All alarms are done");
+            Log.d(TAG, "All alarms are done. " + mAlarmDriftTracker);
+            // Release Bluetooth resources once the last window is over, or once its setup
+            // timed out
+            mReleasePending = true;
+            scheduleAlarm(mWriteTime + RELEASE_TIMEOUT_SEC, RELEASE_ALARM);
             return;
         }
+        scheduleAlarm(startTime, ++currentAlarm);
+    }
 
+    /**
+     * Function to schedule the next GATT client alarm
+     *
+     * @param startTime - time (sec) from now when the alarm fires
+     * @param alarmNumber - alarm number put inside the intent
+     */
+    private void scheduleAlarm(int startTime, int alarmNumber) {
         Intent alarmIntent = new Intent(GattClientListener.GATTCLIENT_ALARM);
-        alarmIntent.putExtra("com.android.pmc.GATTClient.CurrentAlarm", ++currentAlarm);
+        alarmIntent.putExtra("com.android.pmc.GATTClient.CurrentAlarm", alarmNumber);
 
         long triggerTime = SystemClock.elapsedRealtime() + startTime * MILLSEC;
+        AlarmDriftTracker.setTriggerTime(alarmIntent, triggerTime);
         mAlarmManager.setExactAndAllowWhileIdle(
                               AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime,
                               PendingIntent.getBroadcast(mContext, 0,
@@ -151,6 +436,15 @@ public class GattClientListener extends BroadcastReceiver {
         if (!intent.getAction().equals(GATTCLIENT_ALARM)) {
             return;
         }
+        mAlarmDriftTracker.recordAlarm(intent);
+        if (intent.getIntExtra("com.android.pmc.GATTClient.CurrentAlarm", 0) == RELEASE_ALARM) {
+            release();
+            return;
+        }
+        if (mMyBleScanner == null) {
+            Log.e(TAG, "GATT client is not initialized");
+            return;
+        }
 
         if (mMacAddress == null) mMacAddress = mMyBleScanner.getAdvMacAddress();
         if (mMacAddress == null || mMacAddress.isEmpty()) {
@@ -159,9 +453,19 @@ public class GattClientListener extends BroadcastReceiver {
         }
         if (mDevice == null) mDevice = mBluetoothAdapter.getRemoteDevice(mMacAddress);
 
+        mGattCallback.startSetup();
         if (mBluetoothGatt == null) {
-            mBluetoothGatt = mDevice.connectGatt(mContext,
-                        false, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+            // Callbacks run on the main thread, like the alarms, so the window state has
+            // a single owner
+            mBluetoothGatt = mDevice.connectGatt(mContext, false, mGattCallback,
+                        BluetoothDevice.TRANSPORT_LE, BluetoothDevice.PHY_LE_1M_MASK, mHandler);
+        } else if (!mGattCallback.mConnected) {
+            // Cached mode keeps the BluetoothGatt object and its services while disconnected
+            mBluetoothGatt.connect();
+        } else if (CONNECTION_PERSISTENT.equalsIgnoreCase(mConnectionMode)
+                && mSweepPlan == null && mGattCallback.mMtu > 0) {
+            // Link, services and MTU are kept from the previous cycle
+            mGattCallback.startCycle(mBluetoothGatt);
         } else {
             mBluetoothGatt.discoverServices();
         }
@@ -176,7 +480,105 @@ public class GattClientListener extends BroadcastReceiver {
 
         public static final int MAX_MTU = 511;
         public static final int MAX_BYTES = 508;
+        // Max length of an attribute value, and ATT prepare write header size
+        public static final int MAX_VALUE_BYTES = 512;
+        public static final int PREPARE_WRITE_HEADER_BYTES = 5;
         private long mStartWriteTime;
+        private long mStartWriteWallTime;
+        private int mCycle;
+        private volatile boolean mConnected;
+        // Setup of the current cycle, each step is -1 until it runs
+        private long mSetupStartNanos;
+        private long mSetupStartWallTime;
+        private long mStepStartNanos;
+        private long mConnectStep;
+        private long mDiscoveryStep;
+        private long mMtuStep;
+        // Time from the start of a window to its first acknowledged request or notification
+        private long mWindowStartNanos;
+        private boolean mAwaitingFirstData;
+        private final LatencyHistogram mConnectNanos = new LatencyHistogram();
+        private final LatencyHistogram mDiscoveryNanos = new LatencyHistogram();
+        private final LatencyHistogram mMtuNanos = new LatencyHistogram();
+        private final LatencyHistogram mFirstDataNanos = new LatencyHistogram();
+        // Statistics of the current write window
+        private boolean mWriting;
+        private int mInFlight;
+        private long mBytesWritten;
+        private long mWritesDone;
+        private long mWriteFailures;
+        // Requests rejected with none of ours in flight, the stack is congested
+        private long mStalls;
+        // Writes of a WriteWindow above 1 rejected while another write is in flight, the
+        // stack only takes one request per connection at a time
+        private long mBusyRejections;
+        private final LatencyHistogram mWriteCpuNanos = new LatencyHistogram();
+        // Time from a write being accepted to its onCharacteristicWrite()
+        private final LatencyHistogram mWriteLatencyNanos = new LatencyHistogram();
+        // Current reliable write transaction, its writes count once it is executed
+        private boolean mTransactionActive;
+        private boolean mTransactionAborted;
+        private int mTransactionWrites;
+        private long mTransactionBytes;
+        private long mTransactionStartNanos;
+        private long mTransactions;
+        private long mTransactionFailures;
+        // Time from beginReliableWrite() to onReliableWriteCompleted()
+        private final LatencyHistogram mTransactionNanos = new LatencyHistogram();
+        // Send times of the writes in flight, oldest first
+        private long[] mSendNanos = new long[1];
+        // Value bytes of the writes in flight, as sent after clamping to the MTU
+        private int[] mSendBytes = new int[1];
+        private int mSendHead;
+        // Set when a request was rejected with nothing in flight, retried by the next
+        // GATT callback or at the end of the window
+        private boolean mRetryPending;
+        private final Runnable mWindowTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (mBluetoothGatt != null) retryPending(mBluetoothGatt);
+            }
+        };
+        // Statistics of the current read window, one read in flight
+        private boolean mReading;
+        private long mReadsDone;
+        private long mReadFailures;
+        private long mReadStartNanos;
+        private final LatencyHistogram mReadLatencyNanos = new LatencyHistogram();
+        // Round trip of acknowledged writes and reads of all the cycles, keyed by
+        // request type, connection interval and MTU
+        private final TreeMap<String, LatencyHistogram> mRoundTripByLink =
+                new TreeMap<String, LatencyHistogram>();
+        // Link configuration of the current cycle, interval in units of 1.25 msec, 0 until
+        // the first onConnectionUpdated() of the connection
+        private int mConnectionInterval;
+        private int mMtu;
+        private int mTxPhy;
+        private int mRxPhy;
+        private int mSweepConfig = -1;
+        // One row per swept write cycle
+        private JSONArray mSweepMatrix = new JSONArray();
+        // Resolved once per service discovery
+        private BluetoothGattCharacteristic mCharacteristic;
+        private BluetoothGattCharacteristic mNotifyCharacteristic;
+        // Set when the CCCD disable write of a notify window is queued, the link is only
+        // dropped once it is written
+        private boolean mDisconnectPending;
+        // Statistics of the current notification window
+        private boolean mReceiving;
+        private long mReceivedBytes;
+        private long mNotifications;
+        private long mGaps;
+        private long mLastSequence;
+        private final Runnable mEndNotifyWindow = new Runnable() {
+            @Override
+            public void run() {
+                endNotifyWindow();
+            }
+        };
+        // Payload reused by every write, refilled only when its value or size changes
+        private byte[] mPayload = new byte[MAX_BYTES];
+        private int mPayloadValue = -1;
 
         GattCallback() {}
 
@@ -187,18 +589,40 @@ public class GattClientListener extends BroadcastReceiver {
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 Log.d(TAG, "State Connected to mac address "
                             + gatt.getDevice().getAddress() + " status " + status);
+                mConnected = true;
+                mConnectionInterval = 0;
+                mDisconnectPending = false;
+                mConnectStep = endStep(mConnectNanos);
+                if (CONNECTION_DISCONNECT.equalsIgnoreCase(mConnectionMode)) {
+                    // Drop the cached services so they are discovered over the air
+                    gatt.refresh();
+                } else if (CONNECTION_CACHED.equalsIgnoreCase(mConnectionMode)
+                        && (mCharacteristic != null || mNotifyCharacteristic != null)) {
+                    // Services of the previous connection are still valid, skip discovery
+                    requestLinkSettings(gatt);
+                    return;
+                }
                 // Discover services in advertiser, callback will be called
                 mBluetoothGatt.discoverServices();
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.d(TAG, "State Disconnected from mac address "
                             + gatt.getDevice().getAddress() + " status " + status);
+                mConnected = false;
+                mMtu = 0;
+                if (CONNECTION_CACHED.equalsIgnoreCase(mConnectionMode)
+                        && mBluetoothGatt != null) {
+                    // Kept open to reconnect with connect() on the next cycle
+                    return;
+                }
                 try {
                     mBluetoothGatt.close();
                 } catch (Exception e) {
                     Log.e(TAG, "Close Gatt: " + e);
                 }
                 mBluetoothGatt = null;
+                mCharacteristic = null;
+                mNotifyCharacteristic = null;
 
             } else if (newState == BluetoothProfile.STATE_CONNECTING) {
                 Log.d(TAG, "State Connecting to mac address "
@@ -212,92 +636,775 @@ public class GattClientListener extends BroadcastReceiver {
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             Log.d(TAG, "onServicesDiscovered Status " + status);
-            mBluetoothGatt.requestMtu(MAX_MTU);
+            mDiscoveryStep = endStep(mDiscoveryNanos);
+            mCharacteristic = null;
+            BluetoothGattService service = gatt.getService(SERVICE_UUID);
+            if (service == null) {
+                Log.e(TAG, "service not found!");
+            } else {
+                mCharacteristic = service.getCharacteristic(WRITABLE_CHAR_UUID);
+                if (mCharacteristic == null) Log.e(TAG, "Characteristic not found!");
+                mNotifyCharacteristic = service.getCharacteristic(NOTIFY_CHAR_UUID);
+            }
+            requestLinkSettings(gatt);
+        }
+
+        /**
+         * Function to request the MTU, and the PHY and connection priority of the sweep, the
+         * window of the cycle starts once the MTU is set
+         *
+         * @param gatt - connected BluetoothGatt object
+         */
+        private void requestLinkSettings(BluetoothGatt gatt) {
+            if (mSweepPlan == null) {
+                gatt.requestMtu(MAX_MTU);
+                return;
+            }
+            // Link configuration of the cycle
+            mSweepConfig = mCycle;
+            int phy = mSweepPlan.getPhy(mSweepConfig);
+            Log.d(TAG, "Sweep configuration " + mSweepPlan.getName(mSweepConfig));
+            // Read back once the cycle starts, onPhyUpdate() only comes on a change
+            mTxPhy = 0;
+            mRxPhy = 0;
+            gatt.setPreferredPhy(phy, phy, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            gatt.requestConnectionPriority(mSweepPlan.getPriority(mSweepConfig));
+            gatt.requestMtu(mSweepPlan.getMtu(mSweepConfig));
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Log.d(TAG, "onPhyUpdate tx: " + txPhy + " rx: " + rxPhy + " status: " + status);
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+            retryPending(gatt);
+        }
+
+        @Override
+        public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Log.d(TAG, "onPhyRead tx: " + txPhy + " rx: " + rxPhy + " status: " + status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mTxPhy = txPhy;
+                mRxPhy = rxPhy;
+            }
+            retryPending(gatt);
+        }
+
+        @Override
+        public void onConnectionUpdated(BluetoothGatt gatt, int interval, int latency,
+                int timeout, int status) {
+            Log.d(TAG, "onConnectionUpdated interval: " + interval + " latency: " + latency
+                    + " timeout: " + timeout + " status: " + status);
+            if (status == BluetoothGatt.GATT_SUCCESS) mConnectionInterval = interval;
+            retryPending(gatt);
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt,
                 BluetoothGattCharacteristic characteristic, int status) {
-            Log.d(TAG, "onCharacteristicRead: " + status);
+            if (!mReading) {
+                Log.d(TAG, "onCharacteristicRead: " + status);
+                retryPending(gatt);
+                return;
+            }
+            mRetryPending = false;
+            mReadLatencyNanos.record(SystemClock.elapsedRealtimeNanos() - mReadStartNanos);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                onFirstData();
+                mReadsDone++;
+            } else {
+                Log.e(TAG, "onCharacteristicRead: " + status);
+                mReadFailures++;
+            }
+            readNext(gatt);
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt,
                     BluetoothGattCharacteristic characteristic, int status) {
-            Log.d(TAG, "onCharacteristicWrite: " + status);
-            long timeElapse = SystemClock.elapsedRealtime() - mStartWriteTime;
-            if (timeElapse < (mWriteTime * MILLSEC)) {
-                writeCharacteristic(gatt, (int) (timeElapse / MILLSEC));
+            if (!mWriting) {
+                retryPending(gatt);
+                return;
+            }
+            mRetryPending = false;
+            int sentBytes = 0;
+            if (mInFlight > 0) {
+                int oldest = (mSendHead - mInFlight + mSendNanos.length) % mSendNanos.length;
+                mWriteLatencyNanos.record(SystemClock.elapsedRealtimeNanos() - mSendNanos[oldest]);
+                sentBytes = mSendBytes[oldest];
+                mInFlight--;
             }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                onFirstData();
+                if (mTransactionActive) {
+                    mTransactionWrites++;
+                    mTransactionBytes += sentBytes;
+                } else {
+                    mWritesDone++;
+                    mBytesWritten += sentBytes;
+                }
+            } else {
+                Log.e(TAG, "onCharacteristicWrite: " + status);
+                mWriteFailures++;
+            }
+            if (mTransactionActive) {
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    abortTransaction(gatt);
+                } else if (mTransactionWrites >= mReliableWrites) {
+                    executeTransaction(gatt);
+                } else {
+                    fillWriteWindow(gatt);
+                }
+                return;
+            }
+            fillWriteWindow(gatt);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                     BluetoothGattCharacteristic characteristic) {
-            Log.d(TAG, "onCharacteristicChanged");
+            byte[] value = characteristic.getValue();
+            synchronized (this) {
+                if (!mReceiving || value == null) return;
+                onFirstData();
+                mNotifications++;
+                mReceivedBytes += value.length;
+                if (value.length < 4) return;
+                long sequence = ((value[0] & 0xffL) << 24) | ((value[1] & 0xff) << 16)
+                        | ((value[2] & 0xff) << 8) | (value[3] & 0xff);
+                if (mLastSequence >= 0 && sequence > mLastSequence + 1) {
+                    mGaps += sequence - mLastSequence - 1;
+                }
+                mLastSequence = sequence;
+            }
         }
 
         @Override
         public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
                     int status) {
             Log.d(TAG, "onServicesDiscovered: " + status);
+            retryPending(gatt);
         }
 
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
                 int status) {
             Log.d(TAG, "onDescriptorWrite: " + status);
+            if (mDisconnectPending) {
+                mDisconnectPending = false;
+                endCycle();
+            }
+            retryPending(gatt);
         }
 
         @Override
         public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-            Log.d(TAG, "onReliableWriteCompleted: " + status);
+            if (!mTransactionActive) {
+                Log.d(TAG, "onReliableWriteCompleted: " + status);
+                retryPending(gatt);
+                return;
+            }
+            mTransactionActive = false;
+            mTransactionNanos.record(SystemClock.elapsedRealtimeNanos() - mTransactionStartNanos);
+            if (status == BluetoothGatt.GATT_SUCCESS && !mTransactionAborted) {
+                mTransactions++;
+                mWritesDone += mTransactionWrites;
+                mBytesWritten += mTransactionBytes;
+            } else {
+                Log.e(TAG, "onReliableWriteCompleted: " + status + " aborted: "
+                        + mTransactionAborted);
+                mTransactionFailures++;
+            }
+            if (mWriting) fillWriteWindow(gatt);
         }
 
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             Log.d(TAG, "onReadRemoteRssi: " + rssi + " status: " + status);
+            retryPending(gatt);
         }
 
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             // Every time it disconnects/reconnects it needs to re-set MTU
             Log.d(TAG, "onMtuChanged " + mtu + " status: " + status);
-            // First time to write a characteristic to GATT server
+            if (status == BluetoothGatt.GATT_SUCCESS || mMtu == 0) mMtu = mtu;
+            mMtuStep = endStep(mMtuNanos);
+            startCycle(gatt);
+        }
+
+        /**
+         * Function to clear the setup histograms at the start of a test
+         */
+        private void resetSetupStats() {
+            mConnectNanos.reset();
+            mDiscoveryNanos.reset();
+            mMtuNanos.reset();
+            mFirstDataNanos.reset();
+        }
+
+        /**
+         * Function to start timing the setup of a cycle, called when the cycle alarm fires
+         */
+        private void startSetup() {
+            mSetupStartNanos = SystemClock.elapsedRealtimeNanos();
+            mSetupStartWallTime = System.currentTimeMillis();
+            mStepStartNanos = mSetupStartNanos;
+            mConnectStep = -1;
+            mDiscoveryStep = -1;
+            mMtuStep = -1;
+        }
+
+        /**
+         * Function to end a setup step, the next step starts now
+         *
+         * @param histogram - histogram of the step
+         * @return duration of the step in nsec
+         */
+        private long endStep(LatencyHistogram histogram) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            long duration = now - mStepStartNanos;
+            mStepStartNanos = now;
+            histogram.record(duration);
+            return duration;
+        }
+
+        /**
+         * Function to log the setup of the cycle and to start its window
+         *
+         * @param gatt - connected BluetoothGatt object
+         */
+        private void startCycle(BluetoothGatt gatt) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (mPMCStatusLogger != null) {
+                JSONObject setup = new JSONObject();
+                try {
+                    setup.put("ConnectionMode", mConnectionMode);
+                    if (mConnectStep >= 0) setup.put("ConnectNs", mConnectStep);
+                    if (mDiscoveryStep >= 0) setup.put("DiscoveryNs", mDiscoveryStep);
+                    if (mMtuStep >= 0) setup.put("MtuNs", mMtuStep);
+                    setup.put("SetupNs", now - mSetupStartNanos);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Exception to put setup statistics into JSON object: " + e);
+                }
+                long endWallTime = mSetupStartWallTime + (now - mSetupStartNanos) / 1000000;
+                mPMCStatusLogger.logPhase("Setup" + mCycle, mSetupStartWallTime / 1000.0,
+                        endWallTime / 1000.0, setup);
+            }
+            // PHY in use for the cycle, whether or not setPreferredPhy() changed it
+            if (mSweepPlan != null) gatt.readPhy();
+            mWindowStartNanos = now;
+            mAwaitingFirstData = true;
+            if (MODE_WRITE.equalsIgnoreCase(mMode)) {
+                // First time to write a characteristic to GATT server
+                startWriteWindow(gatt);
+            } else if (MODE_READ.equalsIgnoreCase(mMode)) {
+                startReadWindow(gatt);
+            } else {
+                startNotifyWindow(gatt);
+            }
+        }
+
+        /**
+         * Function to record the time to the first data of the window
+         */
+        private void onFirstData() {
+            if (!mAwaitingFirstData) return;
+            mAwaitingFirstData = false;
+            mFirstDataNanos.record(SystemClock.elapsedRealtimeNanos() - mWindowStartNanos);
+        }
+
+        /**
+         * Function to disconnect after a cycle in CONNECTION_DISCONNECT and CONNECTION_CACHED
+         * modes, the next cycle alarm connects again. The client is released after the last
+         * cycle.
+         */
+        private void endCycle() {
+            // Posted so the window statistics are logged before the logger is flushed
+            if (mReleasePending) mHandler.post(mReleaseRunnable);
+            if (mBluetoothGatt == null) return;
+            if (CONNECTION_DISCONNECT.equalsIgnoreCase(mConnectionMode)
+                    || CONNECTION_CACHED.equalsIgnoreCase(mConnectionMode)) {
+                mBluetoothGatt.disconnect();
+            }
+        }
+
+        /**
+         * Function to subscribe to the server notifications for WriteTime
+         *
+         * @param gatt - BluetoothGatt object to subscribe
+         */
+        private void startNotifyWindow(BluetoothGatt gatt) {
+            if (mNotifyCharacteristic == null) {
+                Log.e(TAG, "Notify characteristic not found!");
+                return;
+            }
+            synchronized (this) {
+                mStartWriteTime = SystemClock.elapsedRealtime();
+                mStartWriteWallTime = System.currentTimeMillis();
+                mReceiving = true;
+                mReceivedBytes = 0;
+                mNotifications = 0;
+                mGaps = 0;
+                mLastSequence = -1;
+            }
+            if (!subscribe(gatt, MODE_INDICATE.equalsIgnoreCase(mMode)
+                    ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                    : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
+                Log.e(TAG, "Failed to subscribe to notifications");
+            }
+            mHandler.removeCallbacks(mEndNotifyWindow);
+            mHandler.postDelayed(mEndNotifyWindow, mWriteTime * MILLSEC);
+        }
+
+        /**
+         * Function to unsubscribe and log the statistics of the notification window
+         */
+        private void endNotifyWindow() {
+            mHandler.removeCallbacks(mEndNotifyWindow);
+            long durationMillis = SystemClock.elapsedRealtime() - mStartWriteTime;
+            double seconds = durationMillis / 1000.0;
+            JSONObject summary = new JSONObject();
+            synchronized (this) {
+                if (!mReceiving) return;
+                mReceiving = false;
+                Log.d(TAG, "Notify window " + mCycle + ": " + mReceivedBytes + " bytes, "
+                        + mNotifications + " notifications, " + mGaps + " gaps");
+                try {
+                    summary.put("Bytes", mReceivedBytes);
+                    summary.put("Notifications", mNotifications);
+                    summary.put("Gaps", mGaps);
+                    summary.put("BytesPerSec", seconds > 0 ? mReceivedBytes / seconds : 0);
+                    summary.put("NotificationsPerSec",
+                            seconds > 0 ? mNotifications / seconds : 0);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Exception to put notify statistics into JSON object: " + e);
+                }
+            }
+            // Disconnecting right away would drop the queued CCCD write
+            mDisconnectPending = mBluetoothGatt != null && subscribe(mBluetoothGatt,
+                    BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+            if (!mDisconnectPending) endCycle();
+            if (mPMCStatusLogger == null) return;
+            mPMCStatusLogger.logPhase("NotifyCycle" + mCycle++, mStartWriteWallTime / 1000.0,
+                    (mStartWriteWallTime + durationMillis) / 1000.0, summary);
+        }
+
+        /**
+         * Function to write the client configuration of the notify characteristic
+         *
+         * @param gatt - BluetoothGatt object to configure
+         * @param value - ENABLE_NOTIFICATION_VALUE, ENABLE_INDICATION_VALUE or
+         *     DISABLE_NOTIFICATION_VALUE
+         * @return true if the descriptor write was accepted by the stack
+         */
+        private boolean subscribe(BluetoothGatt gatt, byte[] value) {
+            if (mNotifyCharacteristic == null) return false;
+            gatt.setCharacteristicNotification(mNotifyCharacteristic,
+                    value != BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+            BluetoothGattDescriptor descriptor = mNotifyCharacteristic.getDescriptor(CCC_DESC_UUID);
+            if (descriptor == null) return false;
+            descriptor.setValue(value);
+            return gatt.writeDescriptor(descriptor);
+        }
+
+        /**
+         * Function to start a new write window and its statistics
+         *
+         * @param gatt - BluetoothGatt object to write
+         */
+        private void startWriteWindow(BluetoothGatt gatt) {
             mStartWriteTime = SystemClock.elapsedRealtime();
-            writeCharacteristic(gatt, INIT_VALUE);
+            mStartWriteWallTime = System.currentTimeMillis();
+            mWriting = true;
+            mInFlight = 0;
+            mBytesWritten = 0;
+            mWritesDone = 0;
+            mWriteFailures = 0;
+            mStalls = 0;
+            mBusyRejections = 0;
+            mWriteCpuNanos.reset();
+            mWriteLatencyNanos.reset();
+            mTransactionActive = false;
+            mTransactions = 0;
+            mTransactionFailures = 0;
+            mTransactionNanos.reset();
+            if (mSendNanos.length != mWriteWindow) {
+                mSendNanos = new long[mWriteWindow];
+                mSendBytes = new int[mWriteWindow];
+            }
+            mSendHead = 0;
+            startRetryTimeout();
+            fillWriteWindow(gatt);
         }
 
         /**
-         * Function to be called to write a new GATT characteristic
+         * Function to end a window stalled on a rejected request if no GATT callback comes
+         * before the end of WriteTime
+         */
+        private void startRetryTimeout() {
+            mRetryPending = false;
+            mHandler.removeCallbacks(mWindowTimeout);
+            mHandler.postDelayed(mWindowTimeout, mWriteTime * MILLSEC);
+        }
+
+        /**
+         * Function to retry the request rejected while nothing was in flight, the stack
+         * accepts new requests once the pending one has its callback
+         *
+         * @param gatt - BluetoothGatt object of the window
+         */
+        private void retryPending(BluetoothGatt gatt) {
+            if (!mRetryPending) return;
+            mRetryPending = false;
+            if (mWriting) {
+                fillWriteWindow(gatt);
+            } else if (mReading) {
+                readNext(gatt);
+            }
+        }
+
+        /**
+         * Function to issue writes until the window is full, or to end the write window
+         * once WriteTime is over and all the writes are acknowledged
          *
          * @param gatt - BluetoothGatt object to write
-         * @param value - value to be set inside GATT characteristic
          */
-        private void writeCharacteristic(BluetoothGatt gatt, int value) {
-            UUID sUuid = UUID.fromString(GattServer.TEST_SERVICE_UUID);
-            BluetoothGattService service = gatt.getService(sUuid);
-            if (service == null) {
-                Log.e(TAG, "service not found!");
+        private void fillWriteWindow(BluetoothGatt gatt) {
+            long timeElapse = SystemClock.elapsedRealtime() - mStartWriteTime;
+            // An open transaction is completed before the window ends
+            if (timeElapse >= (mWriteTime * MILLSEC) && !mTransactionActive) {
+                if (mInFlight == 0) endWriteWindow(timeElapse);
                 return;
             }
-            UUID cUuid = UUID.fromString(GattServer.WRITABLE_CHAR_UUID);
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(cUuid);
+            if (mReliableWrites > 0 && !mTransactionActive) {
+                if (!gatt.beginReliableWrite()) {
+                    Log.e(TAG, "beginReliableWrite failed");
+                    mWriting = false;
+                    return;
+                }
+                mTransactionActive = true;
+                mTransactionAborted = false;
+                mTransactionWrites = 0;
+                mTransactionBytes = 0;
+                mTransactionStartNanos = SystemClock.elapsedRealtimeNanos();
+            }
+            while (mInFlight < mWriteWindow) {
+                if (!writeCharacteristic(gatt, (int) (timeElapse / MILLSEC))) {
+                    // The stack is busy or congested, resume from the next write callback, or
+                    // from any other callback when no write is in flight
+                    if (mInFlight > 0) {
+                        mBusyRejections++;
+                        return;
+                    }
+                    mStalls++;
+                    if (mWriting) mRetryPending = true;
+                    return;
+                }
+                mSendNanos[mSendHead] = SystemClock.elapsedRealtimeNanos();
+                mSendBytes[mSendHead] = mPayload.length;
+                mSendHead = (mSendHead + 1) % mSendNanos.length;
+                mInFlight++;
+            }
+        }
 
-            if (characteristic == null) {
+        /**
+         * Function to execute the current reliable write transaction, its writes are committed
+         * by the server in onReliableWriteCompleted()
+         *
+         * @param gatt - BluetoothGatt object of the transaction
+         */
+        private void executeTransaction(BluetoothGatt gatt) {
+            if (!gatt.executeReliableWrite()) {
+                Log.e(TAG, "executeReliableWrite failed");
+                abortTransaction(gatt);
+            }
+        }
+
+        /**
+         * Function to cancel the current reliable write transaction, completed by
+         * onReliableWriteCompleted()
+         *
+         * @param gatt - BluetoothGatt object of the transaction
+         */
+        private void abortTransaction(BluetoothGatt gatt) {
+            mTransactionAborted = true;
+            gatt.abortReliableWrite();
+        }
+
+        /**
+         * Function to log the statistics of the write window
+         *
+         * @param durationMillis - duration of the write window
+         */
+        private void endWriteWindow(long durationMillis) {
+            mWriting = false;
+            mRetryPending = false;
+            mHandler.removeCallbacks(mWindowTimeout);
+            double seconds = durationMillis / 1000.0;
+            Log.d(TAG, "Write window " + mCycle + ": " + mBytesWritten + " bytes, "
+                    + mWritesDone + " writes, " + mStalls + " stalls in " + seconds + " s");
+            endCycle();
+            if (mPMCStatusLogger == null) return;
+            JSONObject summary = new JSONObject();
+            try {
+                summary.put("Bytes", mBytesWritten);
+                summary.put("Writes", mWritesDone);
+                summary.put("WriteFailures", mWriteFailures);
+                summary.put("Stalls", mStalls);
+                summary.put("BusyRejections", mBusyRejections);
+                summary.put("BytesPerSec", seconds > 0 ? mBytesWritten / seconds : 0);
+                summary.put("WritesPerSec", seconds > 0 ? mWritesDone / seconds : 0);
+                summary.put("WriteCpuNs", PMCStatusLogger.histogramToJson(mWriteCpuNanos));
+                summary.put("WriteLatencyNs",
+                        PMCStatusLogger.histogramToJson(mWriteLatencyNanos));
+                summary.put("Retries", mStalls + mWriteFailures);
+                summary.put("ValueBytes", mPayload.length);
+                if (mWriteSize > mPayload.length) summary.put("RequestedValueBytes", mWriteSize);
+                summary.put("WriteMethod", getWriteMethod());
+                if (isLongWrite()) {
+                    // Each value is split into prepared writes of MTU - 5 bytes
+                    int chunk = mMtu - PREPARE_WRITE_HEADER_BYTES;
+                    summary.put("PreparedWritesPerValue", (mPayload.length + chunk - 1) / chunk);
+                }
+                if (mReliableWrites > 0) {
+                    summary.put("Transactions", mTransactions);
+                    summary.put("TransactionFailures", mTransactionFailures);
+                    summary.put("TransactionNs",
+                            PMCStatusLogger.histogramToJson(mTransactionNanos));
+                }
+                summary.put("Mtu", mMtu);
+                summary.put("ConnectionIntervalMs", getConnectionIntervalMs());
+                if (mSweepPlan != null && mSweepConfig >= 0) {
+                    summary.put("Config", mSweepPlan.getName(mSweepConfig));
+                    summary.put("TxPhy", mTxPhy);
+                    summary.put("RxPhy", mRxPhy);
+                    JSONObject row = new JSONObject();
+                    row.put("Config", mSweepPlan.getName(mSweepConfig));
+                    row.put("Phy", mSweepPlan.getPhy(mSweepConfig));
+                    row.put("Priority", mSweepPlan.getPriority(mSweepConfig));
+                    row.put("Mtu", mMtu);
+                    row.put("ConnectionIntervalMs", getConnectionIntervalMs());
+                    row.put("BytesPerSec", seconds > 0 ? mBytesWritten / seconds : 0);
+                    row.put("WriteLatencyMeanNs", mWriteLatencyNanos.getMean());
+                    row.put("Retries", mStalls + mWriteFailures);
+                    mSweepMatrix.put(row);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Exception to put write statistics into JSON object: " + e);
+            }
+            // Writes without response only measure the local queueing
+            if (!mWriteNoResponse) addRoundTrip("Write", mWriteLatencyNanos);
+            mPMCStatusLogger.logPhase("WriteCycle" + mCycle++, mStartWriteWallTime / 1000.0,
+                    (mStartWriteWallTime + durationMillis) / 1000.0, summary);
+        }
+
+        /**
+         * Function to start a new read window, the reads are issued back to back
+         *
+         * @param gatt - BluetoothGatt object to read
+         */
+        private void startReadWindow(BluetoothGatt gatt) {
+            mStartWriteTime = SystemClock.elapsedRealtime();
+            mStartWriteWallTime = System.currentTimeMillis();
+            mReading = true;
+            mReadsDone = 0;
+            mReadFailures = 0;
+            mStalls = 0;
+            mReadLatencyNanos.reset();
+            startRetryTimeout();
+            readNext(gatt);
+        }
+
+        /**
+         * Function to issue the next read, or to end the read window once WriteTime is over
+         *
+         * @param gatt - BluetoothGatt object to read
+         */
+        private void readNext(BluetoothGatt gatt) {
+            long timeElapse = SystemClock.elapsedRealtime() - mStartWriteTime;
+            if (timeElapse >= (mWriteTime * MILLSEC)) {
+                endReadWindow(timeElapse);
+                return;
+            }
+            if (mCharacteristic == null) {
                 Log.e(TAG, "Characteristic not found!");
+                mReading = false;
                 return;
             }
+            mReadStartNanos = SystemClock.elapsedRealtimeNanos();
+            if (!gatt.readCharacteristic(mCharacteristic)) {
+                // Another request is still pending in the stack, retried by its callback
+                mStalls++;
+                mRetryPending = true;
+            }
+        }
 
-            byte[] byteValue = new byte[MAX_BYTES];
+        /**
+         * Function to log the statistics of the read window
+         *
+         * @param durationMillis - duration of the read window
+         */
+        private void endReadWindow(long durationMillis) {
+            mReading = false;
+            mRetryPending = false;
+            mHandler.removeCallbacks(mWindowTimeout);
+            double seconds = durationMillis / 1000.0;
+            Log.d(TAG, "Read window " + mCycle + ": " + mReadsDone + " reads, " + mReadFailures
+                    + " failures in " + seconds + " s, round trip ns: " + mReadLatencyNanos);
+            endCycle();
+            if (mPMCStatusLogger == null) return;
+            JSONObject summary = new JSONObject();
+            try {
+                summary.put("Reads", mReadsDone);
+                summary.put("ReadFailures", mReadFailures);
+                summary.put("Stalls", mStalls);
+                summary.put("ReadsPerSec", seconds > 0 ? mReadsDone / seconds : 0);
+                summary.put("ReadLatencyNs", PMCStatusLogger.histogramToJson(mReadLatencyNanos));
+                summary.put("Mtu", mMtu);
+                summary.put("ConnectionIntervalMs", getConnectionIntervalMs());
+            } catch (JSONException e) {
+                Log.e(TAG, "Exception to put read statistics into JSON object: " + e);
+            }
+            addRoundTrip("Read", mReadLatencyNanos);
+            mPMCStatusLogger.logPhase("ReadCycle" + mCycle++, mStartWriteWallTime / 1000.0,
+                    (mStartWriteWallTime + durationMillis) / 1000.0, summary);
+        }
 
-            for (int i = 0; i < MAX_BYTES; i++) {
-                byteValue[i] = (byte) value;
+        /**
+         * Function to add the round trips of a cycle to the histogram of its link settings
+         *
+         * @param type - request type, "Write" or "Read"
+         * @param cycle - round trips of the cycle
+         */
+        private void addRoundTrip(String type, LatencyHistogram cycle) {
+            if (cycle.getCount() == 0) return;
+            String key = type + "/" + (mConnectionInterval > 0
+                    ? mConnectionInterval * CONNECTION_INTERVAL_UNIT_MS + "ms" : UNKNOWN_INTERVAL)
+                    + "/" + mMtu;
+            LatencyHistogram histogram = mRoundTripByLink.get(key);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                mRoundTripByLink.put(key, histogram);
             }
+            histogram.add(cycle);
+        }
+
+        /**
+         * Function to get the connection interval in msec, or UNKNOWN_INTERVAL if the stack
+         * has not reported it since the connection
+         */
+        private Object getConnectionIntervalMs() {
+            if (mConnectionInterval == 0) return UNKNOWN_INTERVAL;
+            return mConnectionInterval * CONNECTION_INTERVAL_UNIT_MS;
+        }
 
-            characteristic.setValue(byteValue);
-            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            gatt.writeCharacteristic(characteristic);
+        /**
+         * Function to get the round trip histograms keyed by request type, connection interval
+         * and MTU, e.g. "Write/7.5ms/247", or "Write/Unknown/247" before the first connection
+         * update
+         */
+        private JSONObject getRoundTripByLink() {
+            JSONObject byLink = new JSONObject();
+            try {
+                for (Map.Entry<String, LatencyHistogram> entry : mRoundTripByLink.entrySet()) {
+                    byLink.put(entry.getKey(),
+                            PMCStatusLogger.histogramToJson(entry.getValue()));
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Exception to put round trips into JSON object: " + e);
+            }
+            return byLink;
+        }
+
+        /**
+         * Function to be called to write a new GATT characteristic
+         *
+         * @param gatt - BluetoothGatt object to write
+         * @param value - value to be set inside GATT characteristic
+         * @return true if the write was accepted by the stack
+         */
+        private boolean writeCharacteristic(BluetoothGatt gatt, int value) {
+            if (mCharacteristic == null) {
+                Log.e(TAG, "Characteristic not found!");
+                mWriting = false;
+                return false;
+            }
+            long startCpu = Debug.threadCpuTimeNanos();
+            fillPayload(value);
+            // The stack copies the value when the write is queued, so the payload can be reused
+            mCharacteristic.setValue(mPayload);
+            mCharacteristic.setWriteType(mWriteNoResponse
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            boolean accepted = gatt.writeCharacteristic(mCharacteristic);
+            mWriteCpuNanos.record(Debug.threadCpuTimeNanos() - startCpu);
+            return accepted;
+        }
+
+        /**
+         * Function to tell if acknowledged writes of the payload are sent as long writes
+         */
+        private boolean isLongWrite() {
+            return !mWriteNoResponse && mMtu > PREPARE_WRITE_HEADER_BYTES
+                    && mPayload.length > mMtu - 3;
+        }
+
+        /**
+         * Function to get the largest value sent in one write for the write method and MTU:
+         * writes without response are truncated to MTU - 3 by the stack, and every queued
+         * write of a reliable transaction is one prepared write of MTU - 5 bytes
+         */
+        private int getMaxValueBytes() {
+            if (mMtu <= PREPARE_WRITE_HEADER_BYTES) return MAX_VALUE_BYTES;
+            if (mWriteNoResponse) return mMtu - 3;
+            if (mReliableWrites > 0) return mMtu - PREPARE_WRITE_HEADER_BYTES;
+            return MAX_VALUE_BYTES;
+        }
+
+        /**
+         * Function to get the write method of the window: "NoResponse", "Default", "Long" or
+         * "Reliable"
+         */
+        private String getWriteMethod() {
+            if (mWriteNoResponse) return "NoResponse";
+            if (mReliableWrites > 0) return "Reliable";
+            return isLongWrite() ? "Long" : "Default";
+        }
+
+        /**
+         * Function to fill the payload for the given value, only when it changes
+         *
+         * @param value - second of the write window, only used by PATTERN_SECOND
+         */
+        private void fillPayload(int value) {
+            if (!PATTERN_SECOND.equals(mPayloadPattern)) {
+                // Fixed payloads are filled once
+                value = 0;
+            }
+            // Swept cycles fill one ATT packet, other writes keep the largest payload
+            int size = mSweepPlan != null && mMtu > 3 ? Math.min(MAX_BYTES, mMtu - 3) : MAX_BYTES;
+            if (mWriteSize > 0) size = Math.min(mWriteSize, MAX_VALUE_BYTES);
+            size = Math.min(size, getMaxValueBytes());
+            if (mPayload.length != size) {
+                if (mWriteSize > size) {
+                    Log.e(TAG, "WriteSize " + mWriteSize + " clamped to " + size + " for "
+                            + getWriteMethod() + " writes at MTU " + mMtu);
+                }
+                mPayload = new byte[size];
+                mPayloadValue = -1;
+            }
+            if (value == mPayloadValue) return;
+            mPayloadValue = value;
+            if (PATTERN_INCREMENTING.equals(mPayloadPattern)) {
+                for (int i = 0; i < mPayload.length; i++) {
+                    mPayload[i] = (byte) i;
+                }
+            } else if (PATTERN_RANDOM.equals(mPayloadPattern)) {
+                new Random(0).nextBytes(mPayload);
+            } else {
+                Arrays.fill(mPayload, (byte) value);
+            }
         }
     }
 
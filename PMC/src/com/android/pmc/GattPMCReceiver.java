@@ -71,9 +71,34 @@ public class GattPMCReceiver extends BroadcastReceiver {
                 return;
             }
 
+            if (extras.containsKey("StopGattServer")) {
+                Log.d(TAG, "Stop Gatt Server");
+                mGattServer.stopGattServer();
+                return;
+            }
+
+            if (extras.containsKey("GattServerStats")) {
+                setResultData(mGattServer.getStats());
+                return;
+            }
+
             if (extras.containsKey("GattServer")) {
                 // this is for Gatt Server
                 Log.d(TAG, "For Gatt Server");
+                int notifySize = 0;
+                if (extras.containsKey("NotifySize")) {
+                    str = extras.getString("NotifySize");
+                    Log.d(TAG, "Notify Size = " + str);
+                    notifySize = Integer.valueOf(str);
+                }
+                mGattServer.setNotifySize(notifySize);
+                int maxClients = 0;
+                if (extras.containsKey("MaxClients")) {
+                    str = extras.getString("MaxClients");
+                    Log.d(TAG, "Max Clients = " + str);
+                    maxClients = Integer.valueOf(str);
+                }
+                mGattServer.setMaxClients(maxClients);
                 mGattServer.startGattServer();
                 return;
             }
@@ -111,6 +136,90 @@ public class GattPMCReceiver extends BroadcastReceiver {
             Log.d(TAG, "Repetitions = " + str);
             Repetitions = Integer.valueOf(str);
 
+            str = GattClientListener.MODE_WRITE;
+            if (extras.containsKey("Mode")) {
+                str = extras.getString("Mode");
+                Log.d(TAG, "Mode = " + str);
+            }
+            if (!mGattClientListener.setMode(str)) {
+                Log.e(TAG, "Invalid mode: " + str);
+                return;
+            }
+
+            str = GattClientListener.CONNECTION_REDISCOVER;
+            if (extras.containsKey("ConnectionMode")) {
+                str = extras.getString("ConnectionMode");
+                Log.d(TAG, "Connection Mode = " + str);
+            }
+            if (!mGattClientListener.setConnectionMode(str)) {
+                Log.e(TAG, "Invalid connection mode: " + str);
+                return;
+            }
+
+            GattSweepPlan sweepPlan = null;
+            if (extras.containsKey("SweepPhys") || extras.containsKey("SweepPriorities")
+                    || extras.containsKey("SweepMtus")) {
+                String phys = extras.containsKey("SweepPhys") ? extras.getString("SweepPhys")
+                        : "1M";
+                String priorities = extras.containsKey("SweepPriorities")
+                        ? extras.getString("SweepPriorities") : "Balanced";
+                String mtus = extras.containsKey("SweepMtus") ? extras.getString("SweepMtus")
+                        : "511";
+                Log.d(TAG, "Sweep PHYs = " + phys + " priorities = " + priorities
+                        + " MTUs = " + mtus);
+                try {
+                    sweepPlan = new GattSweepPlan(phys, priorities, mtus);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid sweep: " + e.getMessage());
+                    return;
+                }
+            }
+            if (!mGattClientListener.setSweepPlan(sweepPlan)) {
+                Log.e(TAG, "Sweeping MTUs needs ConnectionMode Disconnect or Cached");
+                return;
+            }
+
+            String writeType = "Default";
+            int writeWindow = 1;
+            if (extras.containsKey("WriteType")) {
+                writeType = extras.getString("WriteType");
+                Log.d(TAG, "Write Type = " + writeType);
+            }
+            if (extras.containsKey("WriteWindow")) {
+                str = extras.getString("WriteWindow");
+                Log.d(TAG, "Write Window = " + str);
+                writeWindow = Integer.valueOf(str);
+            }
+            mGattClientListener.setWriteType(writeType.equalsIgnoreCase("NoResponse"), writeWindow);
+            if (writeType.equalsIgnoreCase("Reliable")) {
+                int reliableWrites = 1;
+                if (extras.containsKey("ReliableWrites")) {
+                    str = extras.getString("ReliableWrites");
+                    Log.d(TAG, "Reliable Writes = " + str);
+                    reliableWrites = Integer.valueOf(str);
+                }
+                mGattClientListener.setReliableWrite(reliableWrites);
+            }
+            int writeSize = 0;
+            if (extras.containsKey("WriteSize")) {
+                str = extras.getString("WriteSize");
+                Log.d(TAG, "Write Size = " + str);
+                writeSize = Integer.valueOf(str);
+            }
+            if (!mGattClientListener.setWriteSize(writeSize)) {
+                Log.e(TAG, "Invalid write size: " + writeSize);
+                return;
+            }
+            str = GattClientListener.PATTERN_SECOND;
+            if (extras.containsKey("PayloadPattern")) {
+                str = extras.getString("PayloadPattern");
+                Log.d(TAG, "Payload Pattern = " + str);
+            }
+            if (!mGattClientListener.setPayloadPattern(str)) {
+                Log.e(TAG, "Invalid payload pattern: " + str);
+                return;
+            }
+
             mGattClientListener.startAlarm(startTime, writeTime, idleTime, Repetitions, null);
         }
     }
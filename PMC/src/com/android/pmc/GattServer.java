@@ -33,9 +33,15 @@ import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class to implement Gatt Server functionalities
@@ -52,6 +58,40 @@ public class GattServer {
     private static final String READABLE_DESC_UUID = "76d5ed92-ca81-4edb-bb6b-9f019665fb32";
     public static final String WRITABLE_CHAR_UUID = "aa7edd5a-4d1d-4f0e-883a-d145616a1630";
     public static final String TEST_SERVICE_UUID = "3846D7A0-69C8-11E4-BA00-0002A5D5C51B";
+    public static final String NOTIFY_CHAR_UUID = "2d4c2e8a-3b3e-4b9a-9d0f-6c5b7e1f4a21";
+    public static final String CCC_DESC_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+    // Default ATT MTU and ATT notification header size
+    private static final int DEFAULT_MTU = 23;
+    private static final int NOTIFY_HEADER_BYTES = 3;
+    // Room for the sequence number put at the start of every notification
+    private static final int MIN_NOTIFY_BYTES = 4;
+    // Value returned to reads of the writable characteristic, max attribute length
+    private static final int READ_VALUE_BYTES = 512;
+    private final byte[] mReadValue = new byte[READ_VALUE_BYTES];
+    // Backoff before retrying a notification rejected by the stack with none in flight,
+    // doubled on every rejection of a blocked episode
+    private static final int NOTIFY_RETRY_MIN_DELAY_MS = 10;
+    private static final int NOTIFY_RETRY_MAX_DELAY_MS = 80;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private BluetoothGattCharacteristic mNotifyCharacteristic;
+    // Session of every client connected since the server was started, by address
+    private final ConcurrentHashMap<String, ClientSession> mSessions =
+            new ConcurrentHashMap<String, ClientSession>();
+    // Advertising stops once this many clients are connected, 0 to always advertise
+    private int mMaxClients;
+    // Max notification payload, 0 to fill the MTU
+    private int mNotifySize;
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mSentNotifications = new AtomicLong();
+    private final AtomicLong mNotifyStalls = new AtomicLong();
+    // Bytes and writes received since the server was started, updated from binder threads
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private final AtomicLong mReceivedWrites = new AtomicLong();
+    // Queued writes of long and reliable writes, and the executed or cancelled queues
+    private final AtomicLong mPreparedWrites = new AtomicLong();
+    private final AtomicLong mExecutedWrites = new AtomicLong();
+    private final AtomicLong mCancelledWrites = new AtomicLong();
+    private long mStartTime;
 
     /**
      * Constructor
@@ -59,36 +99,32 @@ public class GattServer {
      * @param context - System will provide a context
      */
     public GattServer(Context context) {
-        Log.d(TAG, "Start GattServer()");
+        // Bluetooth is initialized by the first GATT server command
+        Log.d(TAG, "GattServer()");
         mContext = context;
-        // Check if Bluetooth is enabled
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
 
-        if (bluetoothAdapter == null) {
-            Log.e(TAG, "BluetoothAdapter is Null");
-            return;
-        } else {
-            if (!bluetoothAdapter.isEnabled()) {
-                Log.d(TAG, "BluetoothAdapter is NOT enabled, enable now");
-                bluetoothAdapter.enable();
-                if (!bluetoothAdapter.isEnabled()) {
-                    Log.e(TAG, "Can't enable Bluetooth");
-                    return;
-                }
-            }
-        }
+    /**
+     * Function to initialize the GATT service on the first command
+     *
+     * @param bluetoothAdapter - enabled adapter
+     * @param startNanos - time the first command was received
+     */
+    private void initialize(BluetoothAdapter bluetoothAdapter, long startNanos) {
 
         // Prepare data for GATT service
-        mBluetoothManager = (BluetoothManager) context.getSystemService(
+        mBluetoothManager = (BluetoothManager) mContext.getSystemService(
                                 Service.BLUETOOTH_SERVICE);
 
         mGattServerCallBack = new MyGattServerCallback();
 
         BluetoothGattCharacteristic characteristic =
                     new BluetoothGattCharacteristic(UUID.fromString(WRITABLE_CHAR_UUID),
-                    BluetoothGattCharacteristic.PROPERTY_WRITE
+                    BluetoothGattCharacteristic.PROPERTY_READ
+                    | BluetoothGattCharacteristic.PROPERTY_WRITE
                     | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
-                    BluetoothGattCharacteristic.PERMISSION_WRITE);
+                    BluetoothGattCharacteristic.PERMISSION_READ
+                    | BluetoothGattCharacteristic.PERMISSION_WRITE);
 
         BluetoothGattDescriptor descriptor =
                     new BluetoothGattDescriptor(UUID.fromString(READABLE_DESC_UUID),
@@ -101,15 +137,57 @@ public class GattServer {
                     BluetoothGattService.SERVICE_TYPE_PRIMARY);
         mGattService.addCharacteristic(characteristic);
 
+        // Characteristic streamed to the subscribed clients
+        mNotifyCharacteristic = new BluetoothGattCharacteristic(
+                    UUID.fromString(NOTIFY_CHAR_UUID),
+                    BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                    | BluetoothGattCharacteristic.PROPERTY_INDICATE,
+                    BluetoothGattCharacteristic.PERMISSION_READ);
+        mNotifyCharacteristic.addDescriptor(new BluetoothGattDescriptor(
+                    UUID.fromString(CCC_DESC_UUID),
+                    BluetoothGattDescriptor.PERMISSION_READ
+                    | BluetoothGattDescriptor.PERMISSION_WRITE));
+        mGattService.addCharacteristic(mNotifyCharacteristic);
+
         // Create BLE Advertiser object
         mBleAdvertiser = new MyBleAdvertiser(bluetoothAdapter);
-        Log.d(TAG, "End GattServer()");
+        BluetoothUtils.recordColdStart("GattServer", startNanos);
     }
 
     /**
      * Function to be called to start Gatt Server
      */
     public void startGattServer() {
+        if (mGattServer != null) {
+            Log.d(TAG, "Gatt Server is already started");
+            return;
+        }
+        if (mBleAdvertiser == null) {
+            // Started again once Bluetooth is on
+            final long startNanos = SystemClock.elapsedRealtimeNanos();
+            BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+                @Override
+                public void onAdapterReady(BluetoothAdapter adapter) {
+                    if (adapter == null) {
+                        Log.e(TAG, "Gatt Server is not ready to start");
+                        return;
+                    }
+                    if (mBleAdvertiser == null) initialize(adapter, startNanos);
+                    startGattServer();
+                }
+            });
+            return;
+        }
+        mReceivedBytes.set(0);
+        mReceivedWrites.set(0);
+        mPreparedWrites.set(0);
+        mExecutedWrites.set(0);
+        mCancelledWrites.set(0);
+        mSentBytes.set(0);
+        mSentNotifications.set(0);
+        mNotifyStalls.set(0);
+        mSessions.clear();
+        mStartTime = SystemClock.elapsedRealtime();
         // Connect to Gatt Server
         mGattServer = mBluetoothManager.openGattServer(mContext, mGattServerCallBack);
         // Add GATT Service to Gatt Server
@@ -119,6 +197,262 @@ public class GattServer {
         Log.d(TAG, "startGattServer finished");
     }
 
+    /**
+     * Function to be called to stop Gatt Server and release Bluetooth resources
+     */
+    public void stopGattServer() {
+        if (mGattServer == null) return;
+        Log.d(TAG, getStats());
+        mBleAdvertiser.stopAdvertising();
+        for (ClientSession session : mSessions.values()) {
+            session.mSubscribed = false;
+        }
+        mGattServer.close();
+        mGattServer = null;
+        mBleAdvertiser = null;
+        Log.d(TAG, "stopGattServer finished");
+    }
+
+    /**
+     * Function to get the bytes and writes received since the server was started
+     */
+    public String getStats() {
+        long seconds = (SystemClock.elapsedRealtime() - mStartTime) / 1000;
+        long bytes = mReceivedBytes.get();
+        return "Received bytes: " + bytes + ", writes: " + mReceivedWrites.get()
+                + ", bytes/sec: " + (seconds > 0 ? bytes / seconds : 0)
+                + "\nSent notification bytes: " + mSentBytes.get() + ", notifications: "
+                + mSentNotifications.get() + ", stalls: " + mNotifyStalls.get()
+                + "\nPrepared writes: " + mPreparedWrites.get() + ", executed: "
+                + mExecutedWrites.get() + ", cancelled: " + mCancelledWrites.get()
+                + getSessionStats();
+    }
+
+    /**
+     * Function to get the statistics of every client session, one line per client
+     */
+    private String getSessionStats() {
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nClients: ").append(mSessions.size()).append(", connected: ")
+                .append(getConnectedCount()).append(", max: ").append(mMaxClients);
+        for (ClientSession session : mSessions.values()) {
+            long connectedMillis = session.getConnectedMillis(now);
+            long requests = session.mRequests.get();
+            sb.append("\n").append(session.mDevice.getAddress())
+                    .append(session.mConnected ? " connected" : " disconnected")
+                    .append(", connections: ").append(session.mConnections)
+                    .append(", connected ms: ").append(connectedMillis)
+                    .append(", MTU: ").append(session.mMtu)
+                    .append(", bytes written: ").append(session.mBytesWritten.get())
+                    .append(", requests: ").append(requests)
+                    .append(", requests/sec: ").append(connectedMillis > 0
+                            ? requests * 1000 / connectedMillis : 0)
+                    .append(", reads: ").append(session.mReads.get())
+                    .append(", response ns: ").append(session.mResponseNanos)
+                    .append(", read response ns: ").append(session.mReadResponseNanos);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Function to set how many clients can be connected at the same time
+     *
+     * @param maxClients - advertising stops while this many clients are connected and is
+     *     restarted after every connection below it, 0 to leave advertising untouched
+     */
+    public void setMaxClients(int maxClients) {
+        mMaxClients = maxClients;
+    }
+
+    /**
+     * Function to set the max payload of the notifications
+     *
+     * @param size - max payload in bytes, 0 to fill the MTU
+     */
+    public void setNotifySize(int size) {
+        mNotifySize = size;
+    }
+
+    /**
+     * State and statistics of one client. Callbacks of different clients run concurrently on
+     * binder threads, so the counters are atomic. Only one notification is in flight per
+     * client, the next one is sent from onNotificationSent().
+     */
+    private static class ClientSession {
+        final BluetoothDevice mDevice;
+        volatile int mMtu = DEFAULT_MTU;
+        volatile boolean mConnected;
+        int mConnections;
+        // Elapsed realtime of the current connection, and duration of the previous ones
+        long mConnectTime;
+        long mPreviousConnectedMillis;
+        final AtomicLong mBytesWritten = new AtomicLong();
+        final AtomicLong mRequests = new AtomicLong();
+        final AtomicLong mReads = new AtomicLong();
+        // Time from the request callback to sendResponse() returning, reads apart
+        final LatencyHistogram mResponseNanos = new LatencyHistogram();
+        final LatencyHistogram mReadResponseNanos = new LatencyHistogram();
+        volatile boolean mSubscribed;
+        volatile boolean mIndicate;
+        int mSequence;
+        byte[] mPayload = new byte[0];
+        // Set from sending a notification to its onNotificationSent()
+        boolean mInFlight;
+        // Set while notifications are rejected, so a blocked episode is one stall
+        boolean mStalled;
+        boolean mRetryPending;
+        int mRetryDelayMs;
+        Runnable mRetry;
+
+        ClientSession(BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        synchronized void onConnected(long now) {
+            mConnected = true;
+            mConnections++;
+            mConnectTime = now;
+            // The MTU is exchanged again on every connection
+            mMtu = DEFAULT_MTU;
+            mInFlight = false;
+            mStalled = false;
+            mRetryDelayMs = 0;
+        }
+
+        synchronized void onDisconnected(long now) {
+            if (mConnected) mPreviousConnectedMillis += now - mConnectTime;
+            mConnected = false;
+            mSubscribed = false;
+        }
+
+        synchronized long getConnectedMillis(long now) {
+            return mPreviousConnectedMillis + (mConnected ? now - mConnectTime : 0);
+        }
+    }
+
+    private ClientSession getSession(BluetoothDevice device) {
+        ClientSession session = mSessions.get(device.getAddress());
+        if (session == null) {
+            final ClientSession newSession = new ClientSession(device);
+            newSession.mRetry = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (newSession) {
+                        newSession.mRetryPending = false;
+                    }
+                    sendNotification(newSession);
+                }
+            };
+            session = newSession;
+            ClientSession previous = mSessions.putIfAbsent(device.getAddress(), session);
+            if (previous != null) session = previous;
+        }
+        return session;
+    }
+
+    private int getConnectedCount() {
+        int count = 0;
+        for (ClientSession session : mSessions.values()) {
+            if (session.mConnected) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Function to send a response and record its latency for the client session
+     *
+     * @param session - client session
+     * @param startNanos - time the request was received
+     */
+    private void sendResponse(ClientSession session, int requestId, int offset, byte[] value,
+                              long startNanos) {
+        sendResponse(session, requestId, offset, value, startNanos, session.mResponseNanos);
+    }
+
+    /**
+     * Function to send a response and record its latency into the given histogram
+     *
+     * @param session - client session
+     * @param startNanos - time the request was received
+     * @param histogram - histogram of the request type
+     */
+    private void sendResponse(ClientSession session, int requestId, int offset, byte[] value,
+                              long startNanos, LatencyHistogram histogram) {
+        BluetoothGattServer gattServer = mGattServer;
+        if (gattServer == null) return;
+        gattServer.sendResponse(session.mDevice, requestId, BluetoothGatt.GATT_SUCCESS, offset,
+                value);
+        histogram.record(SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    /**
+     * Function to keep advertising while fewer than mMaxClients clients are connected
+     */
+    private void updateAdvertising() {
+        MyBleAdvertiser advertiser = mBleAdvertiser;
+        if (mMaxClients <= 0 || advertiser == null || mGattServer == null) return;
+        if (getConnectedCount() < mMaxClients) {
+            // Controllers may stop connectable advertising on connection, restart it
+            advertiser.stopAdvertising();
+            advertiser.startAdvertising();
+        } else {
+            advertiser.stopAdvertising();
+        }
+    }
+
+    /**
+     * Function to send the next notification to a client, as long as it is subscribed and
+     * has none in flight. A rejected notification is retried after a bounded backoff.
+     *
+     * @param session - client to notify
+     */
+    private void sendNotification(ClientSession session) {
+        BluetoothGattServer gattServer = mGattServer;
+        if (!session.mSubscribed || gattServer == null) return;
+        boolean sent;
+        int retryDelayMs;
+        synchronized (session) {
+            // The next notification is sent from onNotificationSent()
+            if (session.mInFlight) return;
+            int size = session.mMtu - NOTIFY_HEADER_BYTES;
+            if (mNotifySize > 0) size = Math.min(size, mNotifySize);
+            size = Math.max(size, MIN_NOTIFY_BYTES);
+            if (session.mPayload.length != size) session.mPayload = new byte[size];
+            // Sequence number so the client can count the missed notifications
+            int sequence = session.mSequence;
+            session.mPayload[0] = (byte) (sequence >>> 24);
+            session.mPayload[1] = (byte) (sequence >>> 16);
+            session.mPayload[2] = (byte) (sequence >>> 8);
+            session.mPayload[3] = (byte) sequence;
+            // The characteristic value is shared by all the clients
+            synchronized (mNotifyCharacteristic) {
+                mNotifyCharacteristic.setValue(session.mPayload);
+                sent = gattServer.notifyCharacteristicChanged(session.mDevice,
+                        mNotifyCharacteristic, session.mIndicate);
+            }
+            if (sent) {
+                session.mSequence++;
+                session.mInFlight = true;
+                session.mStalled = false;
+                session.mRetryDelayMs = 0;
+                mSentNotifications.incrementAndGet();
+                mSentBytes.addAndGet(size);
+                return;
+            }
+            if (!session.mStalled) {
+                session.mStalled = true;
+                mNotifyStalls.incrementAndGet();
+            }
+            if (session.mRetryPending) return;
+            session.mRetryPending = true;
+            session.mRetryDelayMs = Math.min(NOTIFY_RETRY_MAX_DELAY_MS,
+                    Math.max(NOTIFY_RETRY_MIN_DELAY_MS, session.mRetryDelayMs * 2));
+            retryDelayMs = session.mRetryDelayMs;
+        }
+        mHandler.postDelayed(session.mRetry, retryDelayMs);
+    }
+
     /**
      * Class to provide callback for GATT server to handle GATT requests
      */
@@ -134,17 +468,36 @@ public class GattServer {
         @Override
         public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
                 BluetoothGattCharacteristic characteristic) {
-            Log.d(TAG, "onCharacteristicReadRequest: " + characteristic);
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            ClientSession session = getSession(device);
+            session.mRequests.incrementAndGet();
+            session.mReads.incrementAndGet();
+            // A read response carries up to MTU - 1 bytes, longer values are read by offset
+            int start = Math.min(Math.max(0, offset), READ_VALUE_BYTES);
+            int end = Math.min(start + session.mMtu - 1, READ_VALUE_BYTES);
+            sendResponse(session, requestId, offset, Arrays.copyOfRange(mReadValue, start, end),
+                    startNanos, session.mReadResponseNanos);
         }
 
         @Override
         public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
                 BluetoothGattCharacteristic characteristic, boolean preparedWrite,
                 boolean responseNeeded, int offset, byte[] value) {
-            Log.d(TAG, "onCharacteristicWriteRequest requestId: " + requestId
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            ClientSession session = getSession(device);
+            session.mRequests.incrementAndGet();
+            mReceivedWrites.incrementAndGet();
+            if (preparedWrite) mPreparedWrites.incrementAndGet();
+            if (value != null) {
+                mReceivedBytes.addAndGet(value.length);
+                session.mBytesWritten.addAndGet(value.length);
+            }
+            // Writes without response are not acknowledged
+            if (!responseNeeded) return;
+            Log.v(TAG, "onCharacteristicWriteRequest requestId: " + requestId
                         + " preparedWrite: " + preparedWrite + " sendRespons back");
 
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+            sendResponse(session, requestId, offset, value, startNanos);
         }
 
         @Override
@@ -157,20 +510,49 @@ public class GattServer {
         public void onDescriptorWriteRequest(BluetoothDevice device, int requestId,
                 BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded,
                 int offset, byte[] value) {
+            long startNanos = SystemClock.elapsedRealtimeNanos();
             Log.d(TAG, "onDescriptorWriteRequest requestId: " + requestId + " preparedWrite: "
                     + preparedWrite);
+            ClientSession session = getSession(device);
+            session.mRequests.incrementAndGet();
+            boolean subscribe = false;
+            if (descriptor.getCharacteristic() == mNotifyCharacteristic) {
+                boolean indicate = Arrays.equals(value,
+                        BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+                boolean enable = indicate || Arrays.equals(value,
+                        BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                subscribe = enable && !session.mSubscribed;
+                session.mIndicate = indicate;
+                session.mSubscribed = enable;
+                Log.d(TAG, device.getAddress() + (enable ? " subscribed, indications: "
+                        + indicate : " unsubscribed"));
+            }
+            if (responseNeeded) sendResponse(session, requestId, offset, value, startNanos);
+            if (subscribe) sendNotification(session);
         }
 
         @Override
         public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
+            long startNanos = SystemClock.elapsedRealtimeNanos();
             Log.d(TAG, "onExecuteWrite requestId: " + requestId + " execute: " + execute);
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
+            ClientSession session = getSession(device);
+            session.mRequests.incrementAndGet();
+            (execute ? mExecutedWrites : mCancelledWrites).incrementAndGet();
+            sendResponse(session, requestId, 0, null, startNanos);
             Log.d(TAG, "onExecuteWrite sendResponse back to GATT Client");
         }
 
         @Override
         public void onNotificationSent(BluetoothDevice device, int status) {
-            Log.d(TAG, "onNotificationSent " + status);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.e(TAG, "onNotificationSent " + status);
+            }
+            ClientSession session = mSessions.get(device.getAddress());
+            if (session == null) return;
+            synchronized (session) {
+                session.mInFlight = false;
+            }
+            sendNotification(session);
         }
 
         @Override
@@ -178,16 +560,22 @@ public class GattServer {
             Log.d(TAG, "onConnectionStateChange status: " + status + " new state: " + newState);
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 Log.d(TAG, "Connected to mac address " + device.getAddress() + " status " + status);
+                getSession(device).onConnected(SystemClock.elapsedRealtime());
+                updateAdvertising();
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.d(TAG, "Disconnected from mac address " + device.getAddress() + " status "
                         + status);
+                ClientSession session = mSessions.get(device.getAddress());
+                if (session != null) session.onDisconnected(SystemClock.elapsedRealtime());
+                updateAdvertising();
             }
         }
 
         @Override
         public void onMtuChanged(BluetoothDevice device, int mtu) {
             Log.d(TAG, "onMtuChanged: " + mtu);
+            getSession(device).mMtu = mtu;
         }
     }
 
@@ -236,35 +624,12 @@ public class GattServer {
          * Class to provide callback to handle BLE Advertisement
          */
         class MyAdvertiseCallback extends AdvertiseCallback {
-            private boolean mMaxReached;
-            // The lock object is used to synchronize mMaxReached
-            private final Object mLock = new Object();
 
-            MyAdvertiseCallback() {
-                mMaxReached = false;
-            }
-
-            public void setMaxReached(boolean setMax) {
-                synchronized (mLock) {
-                    mMaxReached = setMax;
-                }
-            }
-            public boolean getMaxReached() {
-                synchronized (mLock) {
-                    return mMaxReached;
-                }
-            }
+            MyAdvertiseCallback() {}
 
             @Override
             public void onStartSuccess(AdvertiseSettings settingsInEffect) {
                 Log.d(TAG, "bluetooth_le_advertisement onSuccess ");
-                if (getMaxReached()) {
-                    Log.d(TAG, "Stop Advertising");
-                    mBleAdvertiser.stopAdvertising();
-                } else {
-                    Log.d(TAG, "Start Advertising");
-                    mBleAdvertiser.startAdvertising();
-                }
             }
 
             @Override
@@ -280,7 +645,6 @@ public class GattServer {
                     errorString = "ADVERTISE_FAILED_INTERNAL_ERROR";
                 } else if (errorCode == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
                     errorString = "ADVERTISE_FAILED_TOO_MANY_ADVERTISERS";
-                    setMaxReached(true);
                 }
                 Log.d(TAG, "bluetooth_le_advertisement onFailure: " + errorString);
             }
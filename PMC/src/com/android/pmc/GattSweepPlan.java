@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Link configurations swept by the GATT client, one per write cycle.
+ *
+ * The configurations are all the combinations of the given PHYs, connection priorities and
+ * MTUs, PHY first, then priority, then MTU. Lists are comma separated; PHYs are 1M, 2M or
+ * Coded, priorities are Balanced, High or LowPower, MTUs are numbers.
+ * The MTU is exchanged once per connection, so more than one MTU needs a new connection
+ * for every cycle.
+ * This class has no Android dependencies.
+ */
+public class GattSweepPlan {
+    // Same values as BluetoothDevice.PHY_LE_*_MASK
+    public static final int PHY_LE_1M_MASK = 1;
+    public static final int PHY_LE_2M_MASK = 2;
+    public static final int PHY_LE_CODED_MASK = 4;
+    // Same values as BluetoothGatt.CONNECTION_PRIORITY_*
+    public static final int PRIORITY_BALANCED = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    private final int[] mPhys;
+    private final int[] mPriorities;
+    private final int[] mMtus;
+
+    /**
+     * Constructor
+     *
+     * @param phys - comma separated PHYs
+     * @param priorities - comma separated connection priorities
+     * @param mtus - comma separated MTUs
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    public GattSweepPlan(String phys, String priorities, String mtus) {
+        String[] tokens = phys.split(",");
+        mPhys = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            mPhys[i] = parsePhy(tokens[i].trim());
+        }
+        tokens = priorities.split(",");
+        mPriorities = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            mPriorities[i] = parsePriority(tokens[i].trim());
+        }
+        tokens = mtus.split(",");
+        mMtus = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            mMtus[i] = Integer.parseInt(tokens[i].trim());
+            if (mMtus[i] < 23 || mMtus[i] > 517) {
+                throw new IllegalArgumentException("Invalid MTU: " + tokens[i]);
+            }
+        }
+    }
+
+    private static int parsePhy(String phy) {
+        switch (phy.toUpperCase()) {
+            case "1M":
+                return PHY_LE_1M_MASK;
+            case "2M":
+                return PHY_LE_2M_MASK;
+            case "CODED":
+                return PHY_LE_CODED_MASK;
+            default:
+                throw new IllegalArgumentException("Invalid PHY: " + phy);
+        }
+    }
+
+    private static int parsePriority(String priority) {
+        switch (priority.toUpperCase()) {
+            case "BALANCED":
+                return PRIORITY_BALANCED;
+            case "HIGH":
+                return PRIORITY_HIGH;
+            case "LOWPOWER":
+                return PRIORITY_LOW_POWER;
+            default:
+                throw new IllegalArgumentException("Invalid connection priority: " + priority);
+        }
+    }
+
+    public int getMtuCount() {
+        return mMtus.length;
+    }
+
+    public int getConfigCount() {
+        return mPhys.length * mPriorities.length * mMtus.length;
+    }
+
+    /**
+     * Function to get the PHY mask of a configuration
+     *
+     * @param config - configuration index, wraps around after the last configuration
+     */
+    public int getPhy(int config) {
+        return mPhys[(config % getConfigCount()) / (mPriorities.length * mMtus.length)];
+    }
+
+    public int getPriority(int config) {
+        return mPriorities[(config % getConfigCount()) / mMtus.length % mPriorities.length];
+    }
+
+    public int getMtu(int config) {
+        return mMtus[config % getConfigCount() % mMtus.length];
+    }
+
+    /**
+     * Function to get a readable name of a configuration, e.g. "2M/High/247"
+     *
+     * @param config - configuration index
+     */
+    public String getName(int config) {
+        int phy = getPhy(config);
+        int priority = getPriority(config);
+        return (phy == PHY_LE_1M_MASK ? "1M" : (phy == PHY_LE_2M_MASK ? "2M" : "Coded")) + "/"
+                + (priority == PRIORITY_BALANCED ? "Balanced"
+                        : (priority == PRIORITY_HIGH ? "High" : "LowPower"))
+                + "/" + getMtu(config);
+    }
+}
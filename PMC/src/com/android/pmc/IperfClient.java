@@ -20,7 +20,8 @@ import java.util.List;
  * Starts an iperf client with the provided params for data transmission tests.
  * The client starts a UDP data transfer with the provided server with the max possible timeout.t a
  */
-public class IperfClient {
+public class IperfClient implements Workload {
+    public static final String WORKLOAD_NAME = "IperfClient";
 
     private static final String IPERF_COMMAND = "iperf3";
     private static final String IPERF_OPTION_SERVER_FLAG = "-c";
@@ -37,15 +38,15 @@ public class IperfClient {
     // This is the max value supported by iperf3.
     private static final int IPERF_OPTION_TIMEOUT = 86400;
 
-    private final PMCMainActivity mPMCMainActivity;
+    private final PMCService mPMCService;
     private final ProcessBuilder mProcessBuilder;
     private PowerManager.WakeLock mWakeLock;
     private Process mProcess;
     private File mLogFile;
 
-    public IperfClient(PMCMainActivity activity, String serverAddress,
+    public IperfClient(PMCService service, String serverAddress,
             String serverPort, String bandWidthInMbps, String logFile) {
-        mPMCMainActivity = activity;
+        mPMCService = service;
         List<String> cmdList = new ArrayList<>();
         cmdList.add(IPERF_COMMAND);
         cmdList.add(IPERF_OPTION_VERBOSE_FLAG);
@@ -56,7 +57,7 @@ public class IperfClient {
         cmdList.add(IPERF_OPTION_TIMEOUT_FLAG);
         cmdList.add(Integer.toString(IPERF_OPTION_TIMEOUT));
         cmdList.add(IPERF_OPTION_TMPDIR_FLAG);
-        cmdList.add(activity.getCacheDir().getPath());
+        cmdList.add(service.getCacheDir().getPath());
         if (serverAddress != null && serverAddress.length() > 0) {
             cmdList.add(IPERF_OPTION_SERVER_FLAG);
             cmdList.add(serverAddress);
@@ -75,12 +76,32 @@ public class IperfClient {
         mProcessBuilder = new ProcessBuilder(cmdList);
     }
 
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        startClient();
+    }
+
+    @Override
+    public void stop() {
+        stopClient();
+    }
+
+    @Override
+    public String getStatus() {
+        return mProcess != null ? "Running: " + mProcessBuilder.command() : "Not running";
+    }
+
     /**
      * Start the iperf client
      */
     public void startClient() {
         Log.i(PMCMainActivity.TAG, "Starting iperf client: " + mProcessBuilder.command());
-        PowerManager pm = (PowerManager) mPMCMainActivity.getSystemService(Context.POWER_SERVICE);
+        PowerManager pm = (PowerManager) mPMCService.getSystemService(Context.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST");
         // Acquire the lock
         mWakeLock.acquire();
@@ -90,7 +111,7 @@ public class IperfClient {
             mProcess = mProcessBuilder.start();
         } catch (Exception e) {
             Log.e(PMCMainActivity.TAG, "Starting iperf client failed: " + e);
-            mPMCMainActivity.updateProgressStatus("Starting iperf client failed");
+            mPMCService.postProgressStatus("Starting iperf client failed");
         }
     }
 
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to implement the client side of the LE credit based L2CAP channel workload.
+ *
+ * The client scans for the PSM advertised by L2capServer, opens a channel to it and
+ * streams frames for WriteTime in the selected direction. The connection runs on its own
+ * thread, the frames on the threads of L2capStream. The stream ends with an exact alarm, and
+ * its throughput, round trip and credit stalls are written to L2CAPC.log.
+ */
+public class L2capClient {
+    public static final String TAG = "L2CAPC";
+    // Stream directions, from the client point of view
+    public static final String DIRECTION_TX = "Tx";
+    public static final String DIRECTION_RX = "Rx";
+    public static final String DIRECTION_BOTH = "Both";
+    private static final int MILLSEC = 1000;
+    private static final int JOIN_TIMEOUT_MS = 1000;
+
+    private final Context mContext;
+    private final AlarmManager mAlarmManager;
+    private BluetoothLeScanner mScanner;
+    private int mWriteTime;
+    private int mFrameSize;
+    private String mDirection;
+    private PMCStatusLogger mPMCStatusLogger;
+    private long mScanStartNanos;
+    private long mConnectNanos;
+    private int mPsm;
+    private L2capStream mStream;
+    // Set while Bluetooth is being enabled, cleared by stopClient() to cancel the start
+    private boolean mStarting;
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            ScanRecord record = result.getScanRecord();
+            byte[] psm = record != null
+                    ? record.getServiceData(L2capServer.L2CAP_SERVICE_UUID) : null;
+            if (psm == null || psm.length < 2) return;
+            onServerFound(result.getDevice(), ((psm[0] & 0xff) << 8) | (psm[1] & 0xff));
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "Scan Failed: " + errorCode);
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param context - system will provide a context to this function
+     * @param alarmManager - system will provide a AlarmManager to this function
+     */
+    public L2capClient(Context context, AlarmManager alarmManager) {
+        mContext = context;
+        mAlarmManager = alarmManager;
+    }
+
+    /**
+     * Function to find the server and stream to it for writeTime
+     *
+     * @param writeTime - how long (sec) to stream once the channel is connected
+     * @param frameSize - size of the data frames, 0 for the max transmit packet size
+     * @param direction - DIRECTION_TX, DIRECTION_RX or DIRECTION_BOTH
+     */
+    public synchronized void startClient(final int writeTime, final int frameSize,
+                                         final String direction) {
+        if (mScanner != null || mStream != null || mStarting) {
+            Log.e(TAG, "L2CAP client is already running");
+            return;
+        }
+        mStarting = true;
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+            @Override
+            public void onAdapterReady(BluetoothAdapter adapter) {
+                startScan(adapter, writeTime, frameSize, direction, startNanos);
+            }
+        });
+    }
+
+    /**
+     * Function to scan for the server once Bluetooth is on
+     *
+     * @param adapter - enabled adapter, null if Bluetooth could not be enabled
+     * @param writeTime - how long (sec) to stream once the channel is connected
+     * @param frameSize - size of the data frames
+     * @param direction - DIRECTION_TX, DIRECTION_RX or DIRECTION_BOTH
+     * @param startNanos - time the client was started
+     */
+    private synchronized void startScan(BluetoothAdapter adapter, int writeTime, int frameSize,
+                                        String direction, long startNanos) {
+        if (!mStarting) return;
+        mStarting = false;
+        if (adapter == null) return;
+        mScanner = adapter.getBluetoothLeScanner();
+        if (mScanner == null) {
+            Log.e(TAG, "BLEScanner is null");
+            return;
+        }
+        BluetoothUtils.recordColdStart(TAG, startNanos);
+        mWriteTime = writeTime;
+        mFrameSize = frameSize;
+        mDirection = direction;
+        mPMCStatusLogger = new PMCStatusLogger(TAG + ".log", TAG);
+        mPMCStatusLogger.logValue("Direction", mDirection);
+        mPMCStatusLogger.logValue("WriteTime", mWriteTime);
+        mScanStartNanos = SystemClock.elapsedRealtimeNanos();
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        // Only the advertisements carrying the PSM of the server are reported
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        filters.add(new ScanFilter.Builder()
+                .setServiceData(L2capServer.L2CAP_SERVICE_UUID, new byte[0]).build());
+        mScanner.startScan(filters, settings, mScanCallback);
+    }
+
+    /**
+     * Function to connect to the server found by the scan, on a dedicated thread since
+     * connect() blocks
+     *
+     * @param device - server device
+     * @param psm - PSM advertised by the server
+     */
+    private synchronized void onServerFound(final BluetoothDevice device, final int psm) {
+        if (mScanner == null) return;
+        mScanner.stopScan(mScanCallback);
+        mScanner = null;
+        mPsm = psm;
+        Log.d(TAG, "Found L2CAP server " + device.getAddress() + " PSM " + psm);
+        mPMCStatusLogger.logValue("ScanNs", SystemClock.elapsedRealtimeNanos() - mScanStartNanos);
+        mPMCStatusLogger.logValue("Psm", psm);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                connect(device, psm);
+            }
+        }, TAG + "-connect").start();
+    }
+
+    private void connect(BluetoothDevice device, int psm) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        BluetoothSocket socket;
+        try {
+            socket = device.createInsecureL2capChannel(psm);
+            socket.connect();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't connect the L2CAP channel: " + e);
+            synchronized (this) {
+                if (mPMCStatusLogger != null) {
+                    mPMCStatusLogger.logStatus("L2CAP connection failed: " + e);
+                    mPMCStatusLogger = null;
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (mPMCStatusLogger == null) {
+                // Stopped while connecting
+                closeSocket(socket);
+                return;
+            }
+            mConnectNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+            Log.d(TAG, "L2CAP channel connected in " + mConnectNanos / 1000 + " us");
+            mStream = new L2capStream(socket, TAG, mFrameSize,
+                    !DIRECTION_RX.equalsIgnoreCase(mDirection),
+                    !DIRECTION_TX.equalsIgnoreCase(mDirection));
+            mStream.start();
+        }
+        setStopAlarm();
+    }
+
+    private void closeSocket(BluetoothSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Close socket: " + e);
+        }
+    }
+
+    /**
+     * Function to set the alarm ending the stream after WriteTime
+     */
+    private void setStopAlarm() {
+        Intent intent = new Intent(L2capPMCReceiver.L2CAP_INTENT);
+        intent.putExtra("StopL2capClient", "");
+        mAlarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + mWriteTime * MILLSEC,
+                PendingIntent.getBroadcast(mContext, 0, intent,
+                        PendingIntent.FLAG_UPDATE_CURRENT));
+    }
+
+    /**
+     * Function to stop scanning or streaming and to write the statistics of the stream
+     */
+    public void stopClient() {
+        L2capStream stream;
+        synchronized (this) {
+            mStarting = false;
+            if (mScanner != null) {
+                mScanner.stopScan(mScanCallback);
+                mScanner = null;
+            }
+            stream = mStream;
+            mStream = null;
+        }
+        if (stream != null) {
+            stream.stop();
+            stream.join(JOIN_TIMEOUT_MS);
+            Log.d(TAG, stream.toString());
+        }
+        synchronized (this) {
+            if (mPMCStatusLogger == null) return;
+            if (stream != null) {
+                mPMCStatusLogger.logValue("ConnectNs", mConnectNanos);
+                long startTime = stream.getStartTime();
+                mPMCStatusLogger.logPhase("Stream", startTime / 1000.0,
+                        (startTime + stream.getDurationMillis()) / 1000.0, stream.toJson());
+            } else {
+                Log.e(TAG, "L2CAP channel was not connected");
+            }
+            mPMCStatusLogger.flash();
+            mPMCStatusLogger = null;
+        }
+    }
+
+    /**
+     * Function to get the statistics of the current stream
+     */
+    public synchronized String getStats() {
+        if (mStream == null) return mScanner != null ? "Scanning" : "Not streaming";
+        return "PSM: " + mPsm + ", connect us: " + mConnectNanos / 1000 + "\n" + mStream;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Encoding of the frames streamed by L2capStream.
+ *
+ * Every frame starts with a HEADER_BYTES header, all fields big endian: length of the
+ * whole frame (int), flags (int), send time (long) and the send time of the last frame
+ * received from the peer (long), 0 when there is none. The payload after the header is not
+ * interpreted.
+ * This class has no Android dependencies.
+ */
+public class L2capFrame {
+    public static final int HEADER_BYTES = 24;
+    // Flag asking the peer to stream data frames back
+    public static final int FLAG_SEND_DATA = 1;
+    private static final int LENGTH_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 4;
+    private static final int SEND_NANOS_OFFSET = 8;
+    private static final int ECHO_NANOS_OFFSET = 16;
+
+    /**
+     * Function to write a frame header at the start of a buffer
+     *
+     * @param frame - buffer of at least HEADER_BYTES
+     * @param length - length of the whole frame, header included
+     * @param flags - FLAG_* bits
+     * @param sendNanos - send time of the frame
+     * @param echoNanos - send time of the last frame received from the peer
+     */
+    public static void putHeader(byte[] frame, int length, int flags, long sendNanos,
+                                 long echoNanos) {
+        putInt(frame, LENGTH_OFFSET, length);
+        putInt(frame, FLAGS_OFFSET, flags);
+        putLong(frame, SEND_NANOS_OFFSET, sendNanos);
+        putLong(frame, ECHO_NANOS_OFFSET, echoNanos);
+    }
+
+    public static int getLength(byte[] frame) {
+        return getInt(frame, LENGTH_OFFSET);
+    }
+
+    public static int getFlags(byte[] frame) {
+        return getInt(frame, FLAGS_OFFSET);
+    }
+
+    public static long getSendNanos(byte[] frame) {
+        return getLong(frame, SEND_NANOS_OFFSET);
+    }
+
+    public static long getEchoNanos(byte[] frame) {
+        return getLong(frame, ECHO_NANOS_OFFSET);
+    }
+
+    /**
+     * Function to write a big endian int
+     *
+     * @param buffer - buffer to be written
+     * @param offset - offset of the first byte
+     * @param value - value to be written
+     */
+    public static void putInt(byte[] buffer, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    /**
+     * Function to write a big endian long
+     *
+     * @param buffer - buffer to be written
+     * @param offset - offset of the first byte
+     * @param value - value to be written
+     */
+    public static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Function to read a big endian int
+     *
+     * @param buffer - buffer to be read
+     * @param offset - offset of the first byte
+     */
+    public static int getInt(byte[] buffer, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Function to read a big endian long
+     *
+     * @param buffer - buffer to be read
+     * @param offset - offset of the first byte
+     */
+    public static long getLong(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
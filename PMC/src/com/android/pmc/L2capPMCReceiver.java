@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.app.AlarmManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * PMC Receiver functions for the LE credit based L2CAP channel client and server.
+ */
+public class L2capPMCReceiver extends BroadcastReceiver {
+    public static final String TAG = "L2CAPPMC";
+    public static final String L2CAP_INTENT = "com.android.pmc.L2CAP";
+    private final L2capClient mL2capClient;
+    private final L2capServer mL2capServer;
+
+    /**
+     * Constructor to be called by PMC
+     *
+     * @param context - PMC will provide a context
+     * @param alarmManager - PMC will provide alarmManager
+     */
+    public L2capPMCReceiver(Context context, AlarmManager alarmManager) {
+        mL2capClient = new L2capClient(context, alarmManager);
+        mL2capServer = new L2capServer(context);
+    }
+
+    /**
+     * Method to receive the broadcast from python client for PMC commands
+     *
+     * @param context - system will provide a context to this function
+     * @param intent - system will provide an intent to this function
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.d(TAG, "Intent: " + intent.getAction());
+        if (!intent.getAction().equals(L2CAP_INTENT)) return;
+        Bundle extras = intent.getExtras();
+        String str;
+
+        if (extras == null) {
+            Log.e(TAG, "No parameters specified");
+            return;
+        }
+
+        if (extras.containsKey("StopL2capServer")) {
+            mL2capServer.stopServer();
+            return;
+        }
+
+        if (extras.containsKey("L2capServerStats")) {
+            setResultData(mL2capServer.getStats());
+            return;
+        }
+
+        if (extras.containsKey("StopL2capClient")) {
+            mL2capClient.stopClient();
+            return;
+        }
+
+        if (extras.containsKey("L2capClientStats")) {
+            setResultData(mL2capClient.getStats());
+            return;
+        }
+
+        int frameSize = 0;
+        if (extras.containsKey("FrameSize")) {
+            str = extras.getString("FrameSize");
+            Log.d(TAG, "Frame Size = " + str);
+            frameSize = Integer.valueOf(str);
+        }
+
+        if (extras.containsKey("L2capServer")) {
+            Log.d(TAG, "For L2CAP Server");
+            mL2capServer.startServer(frameSize);
+            return;
+        }
+
+        if (!extras.containsKey("WriteTime")) {
+            Log.e(TAG, "No WriteTime specified for L2CAP client");
+            return;
+        }
+        str = extras.getString("WriteTime");
+        Log.d(TAG, "Write Time = " + str);
+        int writeTime = Integer.valueOf(str);
+
+        str = L2capClient.DIRECTION_BOTH;
+        if (extras.containsKey("Direction")) {
+            str = extras.getString("Direction");
+            Log.d(TAG, "Direction = " + str);
+        }
+        mL2capClient.startClient(writeTime, frameSize, str);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.content.Context;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to implement the server side of the LE credit based L2CAP channel workload.
+ *
+ * The server listens on a dynamic PSM and advertises it as service data of
+ * L2CAP_SERVICE_UUID, so the client doesn't need to be told the PSM. Every accepted
+ * channel is served by its own L2capStream, which streams data back only when the client
+ * asks for it.
+ */
+public class L2capServer {
+    public static final String TAG = "L2CAPS";
+    public static final ParcelUuid L2CAP_SERVICE_UUID =
+            ParcelUuid.fromString("3846D7A1-69C8-11E4-BA00-0002A5D5C51B");
+    // Time to wait for the threads of a stream once its channel is closed
+    private static final int JOIN_TIMEOUT_MS = 1000;
+
+    private final Context mContext;
+    private BluetoothLeAdvertiser mAdvertiser;
+    private BluetoothServerSocket mServerSocket;
+    private Thread mAcceptThread;
+    private int mFrameSize;
+    private long mStartTime;
+    // Set while Bluetooth is being enabled, cleared by stopServer() to cancel the start
+    private boolean mStarting;
+    // Streams of every channel accepted since the server was started
+    private final List<L2capStream> mStreams = new ArrayList<L2capStream>();
+    private final AdvertiseCallback mAdvertiseCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+            Log.d(TAG, "L2CAP advertising started");
+        }
+
+        @Override
+        public void onStartFailure(int errorCode) {
+            Log.e(TAG, "L2CAP advertising failed: " + errorCode);
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param context - context to register the Bluetooth state receiver
+     */
+    public L2capServer(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Function to start listening and advertising the PSM once Bluetooth is on
+     *
+     * @param frameSize - size of the data frames sent to the clients, 0 for the max transmit
+     *     packet size of every channel
+     */
+    public synchronized void startServer(final int frameSize) {
+        if (mServerSocket != null || mStarting) {
+            Log.d(TAG, "L2CAP server is already started");
+            return;
+        }
+        mStarting = true;
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        BluetoothUtils.enableAdapter(mContext, TAG, new BluetoothUtils.AdapterCallback() {
+            @Override
+            public void onAdapterReady(BluetoothAdapter adapter) {
+                listen(adapter, frameSize, startNanos);
+            }
+        });
+    }
+
+    /**
+     * Function to listen on a dynamic PSM and to advertise it
+     *
+     * @param adapter - enabled adapter, null if Bluetooth could not be enabled
+     * @param frameSize - size of the data frames sent to the clients
+     * @param startNanos - time the server was started
+     */
+    private synchronized void listen(BluetoothAdapter adapter, int frameSize,
+                                     long startNanos) {
+        if (!mStarting) return;
+        mStarting = false;
+        if (adapter == null) return;
+        mAdvertiser = adapter.getBluetoothLeAdvertiser();
+        if (mAdvertiser == null) {
+            Log.e(TAG, "BluetoothLeAdvertiser is Null");
+            return;
+        }
+        try {
+            mServerSocket = adapter.listenUsingInsecureL2capChannel();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't listen on an L2CAP channel: " + e);
+            return;
+        }
+        BluetoothUtils.recordColdStart(TAG, startNanos);
+        mFrameSize = frameSize;
+        mStartTime = SystemClock.elapsedRealtime();
+        synchronized (mStreams) {
+            mStreams.clear();
+        }
+        final BluetoothServerSocket serverSocket = mServerSocket;
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop(serverSocket);
+            }
+        }, TAG + "-accept");
+        mAcceptThread.start();
+
+        int psm = mServerSocket.getPsm();
+        Log.d(TAG, "Listening on PSM " + psm);
+        AdvertiseSettings settings = new AdvertiseSettings.Builder()
+                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
+                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                .setConnectable(true)
+                .setTimeout(0).build();
+        AdvertiseData data = new AdvertiseData.Builder()
+                .addServiceData(L2CAP_SERVICE_UUID, new byte[] {(byte) (psm >> 8), (byte) psm})
+                .build();
+        mAdvertiser.startAdvertising(settings, data, mAdvertiseCallback);
+    }
+
+    /**
+     * Function to stop advertising, listening and all the streams
+     */
+    public synchronized void stopServer() {
+        mStarting = false;
+        if (mServerSocket == null) return;
+        Log.d(TAG, getStats());
+        mAdvertiser.stopAdvertising(mAdvertiseCallback);
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Close server socket: " + e);
+        }
+        mServerSocket = null;
+        List<L2capStream> streams;
+        synchronized (mStreams) {
+            streams = new ArrayList<L2capStream>(mStreams);
+        }
+        for (L2capStream stream : streams) {
+            stream.stop();
+            stream.join(JOIN_TIMEOUT_MS);
+        }
+        Log.d(TAG, "stopServer finished");
+    }
+
+    /**
+     * Function to get the PSM and the statistics of every channel, one line per channel
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("PSM: ");
+        synchronized (this) {
+            sb.append(mServerSocket != null ? String.valueOf(mServerSocket.getPsm()) : "none");
+        }
+        sb.append(", up ms: ").append(SystemClock.elapsedRealtime() - mStartTime);
+        synchronized (mStreams) {
+            sb.append(", channels: ").append(mStreams.size());
+            for (L2capStream stream : mStreams) {
+                sb.append("\n").append(stream);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void acceptLoop(BluetoothServerSocket serverSocket) {
+        while (true) {
+            BluetoothSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // The server socket is closed by stopServer()
+                Log.d(TAG, "Accept ended: " + e);
+                return;
+            }
+            String address = socket.getRemoteDevice().getAddress();
+            Log.d(TAG, "Accepted L2CAP channel from " + address);
+            // Data is only streamed back when the client asks for it
+            L2capStream stream = new L2capStream(socket, TAG + "-" + address, mFrameSize,
+                    false, false);
+            synchronized (mStreams) {
+                mStreams.add(stream);
+            }
+            stream.start();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bidirectional frame stream over a connected LE credit based L2CAP channel.
+ *
+ * Frames are sent by a dedicated writer thread and received by a reader thread, each with
+ * a buffer allocated once for the whole stream. Every frame starts with an L2capFrame header
+ * carrying its send time and the send time of the last frame received from the peer.
+ * The send time echoed back by the peer gives the round trip time, including the queueing
+ * on both sides. A side that doesn't stream data sends a header only
+ * frame about every ECHO_INTERVAL_MS so the round trip is measured in one direction tests
+ * too. That frame is sent as soon as the next frame of the peer is received, so the echoed
+ * send time is not held back by the interval, and carries no echo if the peer is silent.
+ *
+ * Credits are not visible through BluetoothSocket, a write blocks when the peer has run out
+ * of credits, so writes blocked for more than CREDIT_STALL_NANOS are counted as credit
+ * stalls.
+ */
+public class L2capStream {
+    public static final String TAG = "PMCL2CAP";
+    private static final int ECHO_INTERVAL_MS = 100;
+    private static final long CREDIT_STALL_NANOS = 2000000L;
+
+    private final BluetoothSocket mSocket;
+    private final String mName;
+    private final int mFrameSize;
+    // Data frames are sent once the peer asked for them, or right away when mSendData is set
+    private volatile boolean mSendData;
+    private final boolean mRequestData;
+    private volatile boolean mRunning;
+    private Thread mWriterThread;
+    private Thread mReaderThread;
+    private long mStartTime;
+    private long mEndTime;
+    // Send time of the last frame received from the peer, echoed in the next frame
+    private volatile long mPeerSendNanos;
+    private long mLastEchoNanos;
+    // Header only frames wait on mEchoLock for the next frame of the peer
+    private final Object mEchoLock = new Object();
+    private boolean mEchoArmed;
+    private boolean mEchoReady;
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mSentFrames = new AtomicLong();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private final AtomicLong mReceivedFrames = new AtomicLong();
+    private final AtomicLong mCreditStalls = new AtomicLong();
+    // Time each write blocks in the socket, and round trip of the echoed send times
+    private final LatencyHistogram mWriteBlockNanos = new LatencyHistogram();
+    private final LatencyHistogram mRoundTripNanos = new LatencyHistogram();
+
+    /**
+     * Constructor
+     *
+     * @param socket - connected L2CAP socket
+     * @param name - name of the stream in the logs
+     * @param frameSize - size of the data frames, at least L2capFrame.HEADER_BYTES, 0 for the
+     *     max transmit packet size of the channel
+     * @param sendData - true to stream data frames to the peer from the start
+     * @param requestData - true to ask the peer to stream data frames back
+     */
+    public L2capStream(BluetoothSocket socket, String name, int frameSize, boolean sendData,
+                       boolean requestData) {
+        mSocket = socket;
+        mName = name;
+        mFrameSize = Math.max(L2capFrame.HEADER_BYTES,
+                frameSize > 0 ? frameSize : socket.getMaxTransmitPacketSize());
+        mSendData = sendData;
+        mRequestData = requestData;
+    }
+
+    /**
+     * Function to start the reader and writer threads
+     */
+    public synchronized void start() {
+        if (mRunning) return;
+        mRunning = true;
+        mStartTime = System.currentTimeMillis();
+        mReaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, mName + "-reader");
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, mName + "-writer");
+        mReaderThread.start();
+        mWriterThread.start();
+    }
+
+    /**
+     * Function to close the channel, the threads exit on their next read or write
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!mRunning) return;
+            mRunning = false;
+            mEndTime = System.currentTimeMillis();
+        }
+        synchronized (mEchoLock) {
+            mEchoLock.notifyAll();
+        }
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, mName + " close: " + e);
+        }
+    }
+
+    /**
+     * Function to wait for both threads to exit after stop()
+     *
+     * @param timeoutMillis - max time to wait for each thread
+     */
+    public void join(long timeoutMillis) {
+        try {
+            if (mWriterThread != null) mWriterThread.join(timeoutMillis);
+            if (mReaderThread != null) mReaderThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    private void writeLoop() {
+        byte[] frame = new byte[mFrameSize];
+        for (int i = L2capFrame.HEADER_BYTES; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+        try {
+            OutputStream out = mSocket.getOutputStream();
+            long echoNanos = 0;
+            while (mRunning) {
+                boolean sendData = mSendData;
+                int length = sendData ? mFrameSize : L2capFrame.HEADER_BYTES;
+                if (sendData) echoNanos = mPeerSendNanos;
+                long now = SystemClock.elapsedRealtimeNanos();
+                L2capFrame.putHeader(frame, length,
+                        mRequestData ? L2capFrame.FLAG_SEND_DATA : 0, now, echoNanos);
+                out.write(frame, 0, length);
+                long blocked = SystemClock.elapsedRealtimeNanos() - now;
+                mWriteBlockNanos.record(blocked);
+                if (blocked > CREDIT_STALL_NANOS) mCreditStalls.incrementAndGet();
+                mSentFrames.incrementAndGet();
+                mSentBytes.addAndGet(length);
+                if (!sendData) echoNanos = waitForPeerFrame();
+            }
+        } catch (IOException e) {
+            if (mRunning) Log.e(TAG, mName + " write: " + e);
+        }
+        stop();
+    }
+
+    private void readLoop() {
+        // Frames of the peer may be larger than ours, the payload is read in chunks
+        byte[] buffer = new byte[Math.max(mFrameSize, mSocket.getMaxReceivePacketSize())];
+        try {
+            InputStream in = mSocket.getInputStream();
+            while (mRunning) {
+                if (!readFully(in, buffer, L2capFrame.HEADER_BYTES)) break;
+                int length = L2capFrame.getLength(buffer);
+                int flags = L2capFrame.getFlags(buffer);
+                long peerSendNanos = L2capFrame.getSendNanos(buffer);
+                long echoNanos = L2capFrame.getEchoNanos(buffer);
+                if (length < L2capFrame.HEADER_BYTES) {
+                    Log.e(TAG, mName + " invalid frame length: " + length);
+                    break;
+                }
+                if (!skipPayload(in, buffer, length - L2capFrame.HEADER_BYTES)) break;
+                mPeerSendNanos = peerSendNanos;
+                synchronized (mEchoLock) {
+                    if (mEchoArmed) {
+                        // Wake the writer to echo this send time right away
+                        mEchoArmed = false;
+                        mEchoReady = true;
+                        mEchoLock.notifyAll();
+                    }
+                }
+                if ((flags & L2capFrame.FLAG_SEND_DATA) != 0) mSendData = true;
+                // Every send time echoed back is one round trip sample
+                if (echoNanos != 0 && echoNanos != mLastEchoNanos) {
+                    mLastEchoNanos = echoNanos;
+                    mRoundTripNanos.record(SystemClock.elapsedRealtimeNanos() - echoNanos);
+                }
+                mReceivedFrames.incrementAndGet();
+                mReceivedBytes.addAndGet(length);
+            }
+        } catch (IOException e) {
+            if (mRunning) Log.e(TAG, mName + " read: " + e);
+        }
+        stop();
+    }
+
+    /**
+     * Function to wait ECHO_INTERVAL_MS between header only frames, then for the next frame
+     * of the peer for up to ECHO_INTERVAL_MS
+     *
+     * @return send time of the peer frame to echo right away, 0 if none was received
+     */
+    private long waitForPeerFrame() {
+        SystemClock.sleep(ECHO_INTERVAL_MS);
+        synchronized (mEchoLock) {
+            mEchoReady = false;
+            mEchoArmed = true;
+            long deadline = SystemClock.elapsedRealtime() + ECHO_INTERVAL_MS;
+            try {
+                for (long left = ECHO_INTERVAL_MS; left > 0 && !mEchoReady && mRunning;
+                        left = deadline - SystemClock.elapsedRealtime()) {
+                    mEchoLock.wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mEchoArmed = false;
+            return mEchoReady ? mPeerSendNanos : 0;
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        for (int offset = 0; offset < length; ) {
+            int count = in.read(buffer, offset, length - offset);
+            if (count < 0) return false;
+            offset += count;
+        }
+        return true;
+    }
+
+    /**
+     * Function to read and drop the payload of a frame, in chunks of the buffer size
+     *
+     * @param in - input stream of the socket
+     * @param buffer - reusable receive buffer
+     * @param length - payload size in bytes
+     * @return false if the channel was closed
+     */
+    private static boolean skipPayload(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        for (int left = length; left > 0; ) {
+            int chunk = Math.min(left, buffer.length);
+            if (!readFully(in, buffer, chunk)) return false;
+            left -= chunk;
+        }
+        return true;
+    }
+
+    /**
+     * Function to get the statistics of the stream as a JSON object
+     */
+    public JSONObject toJson() {
+        double seconds = getDurationMillis() / 1000.0;
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("FrameSize", mFrameSize);
+            summary.put("MaxTransmitPacketSize", mSocket.getMaxTransmitPacketSize());
+            summary.put("MaxReceivePacketSize", mSocket.getMaxReceivePacketSize());
+            summary.put("SentBytes", mSentBytes.get());
+            summary.put("SentFrames", mSentFrames.get());
+            summary.put("ReceivedBytes", mReceivedBytes.get());
+            summary.put("ReceivedFrames", mReceivedFrames.get());
+            summary.put("SentBytesPerSec", seconds > 0 ? mSentBytes.get() / seconds : 0);
+            summary.put("ReceivedBytesPerSec",
+                    seconds > 0 ? mReceivedBytes.get() / seconds : 0);
+            summary.put("CreditStalls", mCreditStalls.get());
+            summary.put("WriteBlockNs", PMCStatusLogger.histogramToJson(mWriteBlockNanos));
+            summary.put("RoundTripNs", PMCStatusLogger.histogramToJson(mRoundTripNanos));
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put L2CAP statistics into JSON object: " + e);
+        }
+        return summary;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public synchronized long getDurationMillis() {
+        return (mRunning ? System.currentTimeMillis() : mEndTime) - mStartTime;
+    }
+
+    @Override
+    public String toString() {
+        long millis = getDurationMillis();
+        return mName + ": sent " + mSentBytes.get() + " bytes, received "
+                + mReceivedBytes.get() + " bytes in " + millis + " ms, credit stalls: "
+                + mCreditStalls.get() + ", round trip ns: " + mRoundTripNanos
+                + ", write block ns: " + mWriteBlockNanos;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Fixed size log-linear histogram for latency samples.
+ *
+ * Values are grouped by power of two, and every power of two is split into SUB_BUCKETS linear
+ * buckets, which keeps the relative error of the reported percentiles under 12.5% for any
+ * value range. The histogram does not know about units, callers decide whether they record
+ * milliseconds or nanoseconds. Negative values are counted in the lowest bucket.
+ * This class has no Android dependencies so it can be reused by host side tools.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[NUM_BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+
+    /**
+     * Add one sample to the histogram
+     *
+     * @param value - sample value
+     */
+    public synchronized void record(long value) {
+        mCounts[bucketIndex(value)]++;
+        mCount++;
+        mSum += value;
+        if (value < mMin) mMin = value;
+        if (value > mMax) mMax = value;
+    }
+
+    /**
+     * Clear all the samples
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getSum() {
+        return mSum;
+    }
+
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public synchronized long getMax() {
+        return mCount == 0 ? 0 : mMax;
+    }
+
+    public synchronized double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * Function to get an approximate percentile of the recorded samples
+     *
+     * @param percentile - percentile between 0 and 100
+     * @return middle of the bucket holding the percentile, clamped to the recorded min and max
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mCount == 0) return 0;
+        long target = (long) Math.ceil(percentile / 100.0 * mCount);
+        if (target < 1) target = 1;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                long lower = bucketLowerBound(i);
+                long upper = (i + 1 < NUM_BUCKETS) ? bucketLowerBound(i + 1) : Long.MAX_VALUE;
+                long value = lower + (upper - lower) / 2;
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Function to merge samples of another histogram into this one
+     *
+     * @param other - histogram to be merged
+     */
+    public void add(LatencyHistogram other) {
+        long[] counts = new long[NUM_BUCKETS];
+        long count, sum, min, max;
+        synchronized (other) {
+            System.arraycopy(other.mCounts, 0, counts, 0, NUM_BUCKETS);
+            count = other.mCount;
+            sum = other.mSum;
+            min = other.mMin;
+            max = other.mMax;
+        }
+        synchronized (this) {
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                mCounts[i] += counts[i];
+            }
+            mCount += count;
+            mSum += sum;
+            if (min < mMin) mMin = min;
+            if (max > mMax) mMax = max;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mCount + " mean=" + Math.round(getMean()) + " min=" + getMin()
+                + " p50=" + getPercentile(50) + " p95=" + getPercentile(95)
+                + " p99=" + getPercentile(99) + " max=" + getMax();
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return value < 0 ? 0 : (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub)) << shift;
+    }
+}
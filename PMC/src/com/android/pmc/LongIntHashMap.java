@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Open addressing hash map from long keys to non negative int values.
+ *
+ * It is used to intern packed MAC addresses without boxing every key into a Long.
+ * This class is not thread safe and has no Android dependencies.
+ */
+public class LongIntHashMap {
+    public static final int NO_VALUE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    // NO_VALUE marks an empty slot
+    private int[] mValues;
+    private int mSize;
+
+    public LongIntHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Function to get the value of a key
+     *
+     * @param key - key to look up
+     * @return the value, or NO_VALUE if the key is not in the map
+     */
+    public int get(long key) {
+        int slot = findSlot(mKeys, mValues, key);
+        return mValues[slot];
+    }
+
+    /**
+     * Function to put a key into the map
+     *
+     * @param key - key to be added or updated
+     * @param value - non negative value
+     */
+    public void put(long key, int value) {
+        if (value < 0) throw new IllegalArgumentException("Negative value: " + value);
+        int slot = findSlot(mKeys, mValues, key);
+        if (mValues[slot] == NO_VALUE) {
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mValues[slot] = value;
+        // Keep the load factor under 0.5 so the probe sequences stay short
+        if (mSize * 2 > mKeys.length) rehash(mKeys.length * 2);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Remove all the keys
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mValues[i] = NO_VALUE;
+        }
+        mSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == NO_VALUE) continue;
+            int slot = findSlot(mKeys, mValues, oldKeys[i]);
+            mKeys[slot] = oldKeys[i];
+            mValues[slot] = oldValues[i];
+            mSize++;
+        }
+    }
+
+    private static int findSlot(long[] keys, int[] values, long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (values[slot] != NO_VALUE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
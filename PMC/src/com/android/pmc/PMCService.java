@@ -0,0 +1,787 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Foreground service hosting all PMC receivers and workloads.
+ *
+ * The service keeps running when PMCMainActivity is destroyed, and it can be started
+ * without any UI for power runs, by callers holding CONTROL_PMC such as the shell:
+ *   adb shell am start-foreground-service com.android.pmc/.PMCService
+ * Status updates are only forwarded to a bound UI, at most once every
+ * StatusUpdateInterval msec, or never when the interval is negative.
+ */
+public class PMCService extends Service {
+
+    public static final String TAG = PMCMainActivity.TAG;
+    public static final String SETTING_STATUS_UPDATE_INTERVAL_KEY = "StatusUpdateInterval";
+    public static final String SETTING_GSCAN_CHANNEL_PLAN_KEY = "GScanChannelPlan";
+    public static final String SETTING_GSCAN_BATCH_SIZE_KEY = "GScanBatchSize";
+    public static final String SETTING_SWEEP_SCAN_TYPE_KEY = "SweepScanType";
+    public static final String SETTING_SWEEP_INTERVALS_KEY = "SweepIntervals";
+    public static final String SETTING_SWEEP_CHANNEL_PLANS_KEY = "SweepChannelPlans";
+    public static final String SETTING_SWEEP_PHASE_DURATION_KEY = "SweepPhaseDuration";
+    public static final String SETTING_ADV_SET_COUNT_KEY = "AdvSetCount";
+    public static final String SETTING_ADV_INTERVAL_KEY = "AdvInterval";
+    public static final String SETTING_ADV_TX_POWER_KEY = "AdvTxPower";
+    public static final String SETTING_ADV_PAYLOAD_SIZE_KEY = "AdvPayloadSize";
+    public static final String SETTING_ADV_CONNECTABLE_KEY = "AdvConnectable";
+    public static final int[] SOCIAL_CHANNELS = {2412, 2437, 2462};
+    private static final String sConnScanAction = "ConnectionScan";
+    private static final String sGScanAction = "GScan";
+    private static final String sDownloadAction = "DownloadData";
+    private static final String SETPARAMS_INTENT_STRING = "com.android.pmc.action.SETPARAMS";
+    private static final String AUTOPOWER_INTENT_STRING = "com.android.pmc.action.AUTOPOWER";
+    private static final String NOTIFICATION_CHANNEL_ID = "PMC";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int DEFAULT_STATUS_UPDATE_INTERVAL = 1000;
+    private static final String SCAN_RESULTS_FILE = "WifiScanResults.bin";
+    private static final String BSSID_KEY = "Bssid";
+
+    private final IBinder mBinder = new LocalBinder();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final WorkloadManager mWorkloadManager = new WorkloadManager();
+    private final ScanResultStore mScanResultStore = new ScanResultStore();
+    private final BssidRssiIndex mBssidRssiIndex = new BssidRssiIndex();
+    private String mServerIP = "10.10.10.1";
+    private String mServerPort = "8080";
+    private int mIntervalMillis = 60 * 1000;
+    private String mIperfBandwidth = "1M";
+    private String mIperfLogFile = "/sdcard/iperf.txt";
+    private ChannelPlan mGScanChannelPlan = ChannelPlan.forChannels(SOCIAL_CHANNELS);
+    private int mGScanBatchSize = 0;
+    private String mSweepScanType = ScanSweepWorkload.SCAN_TYPE_CONN_SCAN;
+    private int[] mSweepIntervalsMillis = {10 * 1000, 30 * 1000, 60 * 1000};
+    private List<ChannelPlan> mSweepChannelPlans =
+            Collections.singletonList(ChannelPlan.forChannels(SOCIAL_CHANNELS));
+    private long mSweepPhaseMillis = 10 * 60 * 1000;
+    private int mAdvSetCount = 1;
+    private int mAdvIntervalMillis = 250;
+    private int mAdvTxPowerDbm = -7;
+    private int mAdvPayloadBytes = 16;
+    private boolean mAdvConnectable = false;
+    private BoundedTaskExecutor.OverrunPolicy mOverrunPolicy =
+            BoundedTaskExecutor.OverrunPolicy.SKIP;
+    private boolean mTethered = false;
+    private PMCReceiver mPMCReceiver;
+    private BleScanReceiver mBleScanReceiver;
+    private GattPMCReceiver mGattPMCReceiver;
+    private L2capPMCReceiver mL2capPMCReceiver;
+    private A2dpReceiver mA2dpReceiver;
+    private AlarmManager mAlarmManager;
+    private PowerManager.WakeLock mWakeLock;
+    private ConnectivityManager mConnManager;
+    private int mProvisionCheckSleep = 1250;
+
+    // The lock object is used to synchronize the coalesced status updates
+    private final Object mStatusLock = new Object();
+    private StatusListener mStatusListener;
+    private int mStatusUpdateIntervalMillis = DEFAULT_STATUS_UPDATE_INTERVAL;
+    private String mLatestStatus = "";
+    private boolean mStatusUpdatePending;
+    private long mLastStatusUpdateTime;
+
+    /**
+     * Interface for the UI to receive status updates
+     */
+    public interface StatusListener {
+        /**
+         * Called on the main thread with the latest status
+         *
+         * @param status - latest status message
+         */
+        void onStatusChanged(String status);
+    }
+
+    /**
+     * Binder for PMCMainActivity to get the service object
+     */
+    public class LocalBinder extends Binder {
+        PMCService getService() {
+            return PMCService.this;
+        }
+    }
+
+    class OnStartTetheringCallback extends ConnectivityManager.OnStartTetheringCallback {
+        @Override
+        public void onTetheringStarted() {
+            mTethered = true;
+        }
+    }
+
+    /**
+     * Class to run USB tethering as a workload
+     */
+    class UsbTetheringWorkload implements Workload {
+        public static final String WORKLOAD_NAME = "UsbTethering";
+
+        @Override
+        public String getName() {
+            return WORKLOAD_NAME;
+        }
+
+        @Override
+        public void start() {
+            OnStartTetheringCallback tetherCallback = new OnStartTetheringCallback();
+            mConnManager.startTethering(ConnectivityManager.TETHERING_USB, true, tetherCallback);
+            // sleep until provisioning check for tethering is done
+            try {
+                Thread.sleep(mProvisionCheckSleep);
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Sleep exception after enabling USB tethering");
+            }
+        }
+
+        @Override
+        public void stop() {
+            if (mTethered) {
+                mConnManager.stopTethering(ConnectivityManager.TETHERING_USB);
+                mTethered = false;
+            }
+        }
+
+        @Override
+        public String getStatus() {
+            return mTethered ? "Tethered" : "Not tethered";
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(TAG, "PMCService onCreate()");
+        //Initiate wifi service manger
+        mAlarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        mConnManager = (ConnectivityManager)
+                this.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPMCReceiver = new PMCReceiver();
+        mBleScanReceiver = new BleScanReceiver(this, mAlarmManager);
+        mGattPMCReceiver = new GattPMCReceiver(this, mAlarmManager);
+        mL2capPMCReceiver = new L2capPMCReceiver(this, mAlarmManager);
+        mA2dpReceiver = new A2dpReceiver(this, mAlarmManager);
+        IntentFilter filter = new IntentFilter(AUTOPOWER_INTENT_STRING);
+        filter.addAction(SETPARAMS_INTENT_STRING);
+        registerReceiver(mPMCReceiver, filter);
+        registerReceiver(mBleScanReceiver, new IntentFilter(BleScanReceiver.BLE_SCAN_INTENT));
+        registerReceiver(mGattPMCReceiver, new IntentFilter(GattPMCReceiver.GATTPMC_INTENT));
+        registerReceiver(mL2capPMCReceiver, new IntentFilter(L2capPMCReceiver.L2CAP_INTENT));
+        registerReceiver(mA2dpReceiver, new IntentFilter(A2dpReceiver.A2DP_INTENT));
+        startForeground(NOTIFICATION_ID, buildNotification());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Keep running until PMC is explicitly stopped
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "PMCService onDestroy()");
+        mWorkloadManager.stopAll();
+        turnScreenOff();
+        unregisterReceiver(mPMCReceiver);
+        unregisterReceiver(mBleScanReceiver);
+        unregisterReceiver(mGattPMCReceiver);
+        unregisterReceiver(mL2capPMCReceiver);
+        unregisterReceiver(mA2dpReceiver);
+        mHandler.removeCallbacksAndMessages(null);
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    private Notification buildNotification() {
+        NotificationManager nm =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        nm.createNotificationChannel(new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                getString(R.string.app_name), NotificationManager.IMPORTANCE_LOW));
+        return new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.service_running))
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * Function for the UI to register for status updates, null to unregister
+     *
+     * @param listener - listener to be called on the main thread
+     */
+    public void setStatusListener(StatusListener listener) {
+        synchronized (mStatusLock) {
+            mStatusListener = listener;
+        }
+        if (listener != null) postProgressStatus(getLatestStatus());
+    }
+
+    public String getLatestStatus() {
+        synchronized (mStatusLock) {
+            return mLatestStatus;
+        }
+    }
+
+    /**
+     * Function to report progress from any thread. Updates are coalesced so the UI is
+     * refreshed at most once per status update interval, and not at all without a listener.
+     *
+     * @param status - status message
+     */
+    public void postProgressStatus(String status) {
+        synchronized (mStatusLock) {
+            mLatestStatus = status;
+            if (mStatusListener == null || mStatusUpdateIntervalMillis < 0
+                    || mStatusUpdatePending) {
+                return;
+            }
+            mStatusUpdatePending = true;
+            long delay = mLastStatusUpdateTime + mStatusUpdateIntervalMillis
+                    - SystemClock.elapsedRealtime();
+            mHandler.postDelayed(mStatusUpdateRunnable, Math.max(0, delay));
+        }
+    }
+
+    private final Runnable mStatusUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            StatusListener listener;
+            String status;
+            synchronized (mStatusLock) {
+                mStatusUpdatePending = false;
+                mLastStatusUpdateTime = SystemClock.elapsedRealtime();
+                listener = mStatusListener;
+                status = mLatestStatus;
+            }
+            if (listener != null) listener.onStatusChanged(status);
+        }
+    };
+
+    public WorkloadManager getWorkloadManager() {
+        return mWorkloadManager;
+    }
+
+    public ScanResultStore getScanResultStore() {
+        return mScanResultStore;
+    }
+
+    public BssidRssiIndex getBssidRssiIndex() {
+        return mBssidRssiIndex;
+    }
+
+    /**
+     * Function to create a scan pipeline saving its results into the store and index of the
+     * service
+     *
+     * @param backend - backend running the scans
+     * @param source - ScanResultStore source of the results
+     * @param latencyTracker - tracker of the scan latency
+     */
+    public ScanPipeline createScanPipeline(ScanBackend backend, byte source,
+                                           ScanLatencyTracker latencyTracker) {
+        return new ScanPipeline(backend, source, mScanResultStore, mBssidRssiIndex,
+                latencyTracker, new ScanPipeline.TimeSource() {
+                    @Override
+                    public long nanoTime() {
+                        return SystemClock.elapsedRealtimeNanos();
+                    }
+                });
+    }
+
+    public String getServerIP() {
+        return mServerIP;
+    }
+
+    public String getServerPort() {
+        return mServerPort;
+    }
+
+    public int getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    public String getIperfBandwidth() {
+        return mIperfBandwidth;
+    }
+
+    public String getIperfLogFile() {
+        return mIperfLogFile;
+    }
+
+    /**
+     * Function to export the captured Wi-Fi scan results into a binary file
+     *
+     * @return the result of the export to be sent back to the client
+     */
+    public String exportScanResults() {
+        File file = new File(PMCStatusLogger.LOG_DIR, SCAN_RESULTS_FILE);
+        try {
+            mScanResultStore.export(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception exporting scan results: " + e);
+            return "Export failed: " + e;
+        }
+        return "Exported to " + file.getPath() + ". " + mScanResultStore;
+    }
+
+    /**
+     * Function to query the RSSI history of the scanned BSSIDs
+     *
+     * @param bssid - BSSID to query, or null for a summary of the most visible BSSIDs
+     */
+    public String queryBssid(String bssid) {
+        if (bssid == null) return mBssidRssiIndex.getSummary();
+        long packed = ScanResultStore.packMac(bssid.toLowerCase());
+        if (packed < 0) return "Invalid BSSID: " + bssid;
+        return mBssidRssiIndex.query(packed);
+    }
+
+    /**
+     * Function to start a file download workload
+     *
+     * @param filename - file to be downloaded from the server
+     * @return false when the server is not configured
+     */
+    public boolean startDownloadFile(String filename) {
+        Log.d(TAG, "serverIP ::" + mServerIP + " Port ::" + mServerPort
+                + ". Interval: " + mIntervalMillis);
+        if (mServerIP.length() == 0 || mServerPort.length() == 0) {
+            postProgressStatus("Provide server IP and Port information in Setting");
+            return false;
+        }
+        // Any ongoing download session is stopped by the workload manager.
+        mWorkloadManager.startWorkload(new WifiDownloadReceiver(this,
+                "http://" + mServerIP + ":" + mServerPort + "/" + filename, mIntervalMillis,
+                mAlarmManager, sDownloadAction, mOverrunPolicy));
+        postProgressStatus("Started downloadng " + filename);
+        return true;
+    }
+
+    public void stopDownloadFile() {
+        if (mWorkloadManager.stopWorkload(WifiDownloadReceiver.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped download");
+        }
+    }
+
+    public void startConnectivityScan() {
+        mWorkloadManager.startWorkload(new WifiConnScanReceiver(this, mIntervalMillis,
+                mAlarmManager, sConnScanAction, mOverrunPolicy));
+        postProgressStatus("Started connectivity scan");
+    }
+
+    public void stopConnectivityScan() {
+        if (mWorkloadManager.stopWorkload(WifiConnScanReceiver.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped connectivity scan");
+        }
+    }
+
+    /**
+     * Function to start a GScan workload, in batched mode when GScanBatchSize is set
+     *
+     * @param plan - band or channels to scan
+     */
+    public void startGscan(ChannelPlan plan) {
+        mWorkloadManager.startWorkload(new WifiGScanReceiver(
+                this, plan, mGScanBatchSize, mIntervalMillis, mAlarmManager, sGScanAction,
+                mOverrunPolicy));
+        postProgressStatus("Started Gscan for " + plan
+                + (mGScanBatchSize > 0 ? ", batch size " + mGScanBatchSize : ""));
+    }
+
+    public void stopGScan() {
+        if (mWorkloadManager.stopWorkload(WifiGScanReceiver.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped Gscan");
+        }
+    }
+
+    /**
+     * Function to start a sweep over the configured scan intervals and channel plans
+     */
+    public void startScanSweep() {
+        mWorkloadManager.startWorkload(new ScanSweepWorkload(this, mAlarmManager,
+                mSweepScanType, mSweepIntervalsMillis, mSweepChannelPlans, mSweepPhaseMillis,
+                mOverrunPolicy));
+    }
+
+    public void stopScanSweep() {
+        if (mWorkloadManager.stopWorkload(ScanSweepWorkload.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped scan sweep");
+        }
+    }
+
+    /**
+     * Function to get the per phase statistics of the current or last scan sweep
+     */
+    public String getScanSweepSummary() {
+        ScanSweepWorkload sweep = (ScanSweepWorkload) mWorkloadManager
+                .getWorkload(ScanSweepWorkload.WORKLOAD_NAME);
+        return sweep == null ? "No scan sweep running" : sweep.getSummary();
+    }
+
+    /**
+     * Function to start the configured number of BLE advertising sets
+     */
+    public void startBleAdvertising() {
+        mWorkloadManager.startWorkload(new BleAdvertisingWorkload(this, mAdvSetCount,
+                mAdvIntervalMillis, mAdvTxPowerDbm, mAdvPayloadBytes, mAdvConnectable));
+    }
+
+    public void stopBleAdvertising() {
+        if (mWorkloadManager.stopWorkload(BleAdvertisingWorkload.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped BLE advertising");
+        }
+    }
+
+    /**
+     * Function to get the start latency and status of the running advertising sets
+     */
+    public String getBleAdvertisingSummary() {
+        BleAdvertisingWorkload advertising = (BleAdvertisingWorkload) mWorkloadManager
+                .getWorkload(BleAdvertisingWorkload.WORKLOAD_NAME);
+        return advertising == null ? "No BLE advertising running" : advertising.getSummary();
+    }
+
+    public void startIperfClient() {
+        mWorkloadManager.startWorkload(
+                new IperfClient(this, mServerIP, mServerPort, mIperfBandwidth, mIperfLogFile));
+        postProgressStatus("Started iperf client");
+    }
+
+    public void stopIperfClient() {
+        if (mWorkloadManager.stopWorkload(IperfClient.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped iperf client");
+        }
+    }
+
+    public void startUSBTethering() {
+        mWorkloadManager.startWorkload(new UsbTetheringWorkload());
+        if (mTethered) {
+            postProgressStatus("Started usb tethering");
+        }
+    }
+
+    public void stopUSBTethering() {
+        if (mWorkloadManager.stopWorkload(UsbTetheringWorkload.WORKLOAD_NAME)) {
+            postProgressStatus("Stopped usb tethering");
+        }
+    }
+
+    public void stopAllWorkloads() {
+        mWorkloadManager.stopAll();
+        postProgressStatus("Stopped all workloads");
+    }
+
+    private void turnScreenOn(Context context) {
+        if (mWakeLock == null) {
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mWakeLock = pm.newWakeLock(
+                    PowerManager.SCREEN_DIM_WAKE_LOCK | PowerManager.ACQUIRE_CAUSES_WAKEUP, TAG);
+        }
+        if (mWakeLock != null && !mWakeLock.isHeld()) {
+            Log.i(TAG, "Turning screen on");
+            mWakeLock.acquire();
+        }
+    }
+
+    private void turnScreenOff() {
+        if (mWakeLock != null && mWakeLock.isHeld()) {
+            Log.i(TAG, "Turning screen off");
+            mWakeLock.release();
+        }
+    }
+
+    /**
+     * Function to parse an integer setting, an invalid value is reported and ignored
+     *
+     * @param extras - parameters, all values are strings
+     * @param key - key of the setting
+     * @param min - smallest valid value
+     * @param max - largest valid value
+     * @param current - value kept when the setting is invalid
+     */
+    private int parseIntSetting(Bundle extras, String key, int min, int max, int current) {
+        String value = extras.getString(key);
+        try {
+            int parsed = Integer.parseInt(value != null ? value.trim() : "");
+            if (parsed >= min && parsed <= max) return parsed;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        reportInvalidSetting(key, value);
+        return current;
+    }
+
+    /**
+     * Function to report an invalid setting in the log and in the status
+     *
+     * @param key - key of the setting
+     * @param value - value received
+     */
+    private void reportInvalidSetting(String key, String value) {
+        String error = "Invalid " + key + ": " + value;
+        Log.e(TAG, error);
+        postProgressStatus(error);
+    }
+
+    /**
+     * Function to parse the comma separated scan intervals of a sweep
+     *
+     * @param value - intervals in seconds, every one of them positive
+     * @return intervals in msec, or null if the list is invalid
+     */
+    private static int[] parseSweepIntervals(String value) {
+        if (value == null) return null;
+        String[] tokens = value.split(",");
+        int[] intervals = new int[tokens.length];
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                int seconds = Integer.parseInt(tokens[i].trim());
+                if (seconds <= 0 || seconds > Integer.MAX_VALUE / 1000) return null;
+                intervals[i] = seconds * 1000;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return intervals;
+    }
+
+    private void setIntervalFromUser(String newValueInSeconds) {
+        if (newValueInSeconds.length() != 0 && Integer.parseInt(newValueInSeconds) >= 0) {
+            mIntervalMillis = Integer.parseInt(newValueInSeconds) * 1000;
+        }
+    }
+
+    /**
+     * Function to update parameters, from SETPARAMS intents or from SettingActivity
+     *
+     * @param extras - parameters to be updated, all values are strings
+     */
+    public void setParameters(Bundle extras) {
+        if (extras == null) return;
+        if (extras.containsKey(PMCMainActivity.SETTING_INTERVAL_KEY)) {
+            setIntervalFromUser(extras.getString(PMCMainActivity.SETTING_INTERVAL_KEY));
+        }
+        if (extras.containsKey(PMCMainActivity.SETTING_SERVER_IP_KEY)) {
+            mServerIP = extras.getString(PMCMainActivity.SETTING_SERVER_IP_KEY);
+        }
+        if (extras.containsKey(PMCMainActivity.SETTING_SERVER_PORT_KEY)) {
+            mServerPort = extras.getString(PMCMainActivity.SETTING_SERVER_PORT_KEY);
+        }
+        if (extras.containsKey(PMCMainActivity.SETTING_IPERF_BANDWIDTH_KEY)) {
+            mIperfBandwidth = extras.getString(PMCMainActivity.SETTING_IPERF_BANDWIDTH_KEY);
+        }
+        if (extras.containsKey(PMCMainActivity.SETTING_IPERF_LOGFILE_KEY)) {
+            mIperfLogFile = extras.getString(PMCMainActivity.SETTING_IPERF_LOGFILE_KEY);
+        }
+        if (extras.containsKey(PMCMainActivity.SETTING_OVERRUN_POLICY_KEY)) {
+            mOverrunPolicy = BoundedTaskExecutor.OverrunPolicy.parse(
+                    extras.getString(PMCMainActivity.SETTING_OVERRUN_POLICY_KEY), mOverrunPolicy);
+        }
+        if (extras.containsKey(SETTING_GSCAN_CHANNEL_PLAN_KEY)) {
+            try {
+                mGScanChannelPlan = ChannelPlan.parse(
+                        extras.getString(SETTING_GSCAN_CHANNEL_PLAN_KEY));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid Gscan channel plan: " + e.getMessage());
+            }
+        }
+        if (extras.containsKey(SETTING_GSCAN_BATCH_SIZE_KEY)) {
+            mGScanBatchSize = parseIntSetting(extras, SETTING_GSCAN_BATCH_SIZE_KEY, 0,
+                    Integer.MAX_VALUE, mGScanBatchSize);
+        }
+        if (extras.containsKey(SETTING_SWEEP_SCAN_TYPE_KEY)) {
+            mSweepScanType = extras.getString(SETTING_SWEEP_SCAN_TYPE_KEY);
+        }
+        if (extras.containsKey(SETTING_SWEEP_INTERVALS_KEY)) {
+            int[] intervals = parseSweepIntervals(extras.getString(SETTING_SWEEP_INTERVALS_KEY));
+            if (intervals != null) {
+                mSweepIntervalsMillis = intervals;
+            } else {
+                reportInvalidSetting(SETTING_SWEEP_INTERVALS_KEY,
+                        extras.getString(SETTING_SWEEP_INTERVALS_KEY));
+            }
+        }
+        if (extras.containsKey(SETTING_SWEEP_CHANNEL_PLANS_KEY)) {
+            try {
+                mSweepChannelPlans = ChannelPlan.parseList(
+                        extras.getString(SETTING_SWEEP_CHANNEL_PLANS_KEY));
+            } catch (IllegalArgumentException e) {
+                reportInvalidSetting(SETTING_SWEEP_CHANNEL_PLANS_KEY, e.getMessage());
+            }
+        }
+        if (extras.containsKey(SETTING_SWEEP_PHASE_DURATION_KEY)) {
+            int seconds = parseIntSetting(extras, SETTING_SWEEP_PHASE_DURATION_KEY, 1,
+                    Integer.MAX_VALUE, 0);
+            if (seconds > 0) mSweepPhaseMillis = seconds * 1000L;
+        }
+        if (extras.containsKey(SETTING_ADV_SET_COUNT_KEY)) {
+            mAdvSetCount = parseIntSetting(extras, SETTING_ADV_SET_COUNT_KEY, 1,
+                    Integer.MAX_VALUE, mAdvSetCount);
+        }
+        if (extras.containsKey(SETTING_ADV_INTERVAL_KEY)) {
+            mAdvIntervalMillis = parseIntSetting(extras, SETTING_ADV_INTERVAL_KEY, 0,
+                    Integer.MAX_VALUE, mAdvIntervalMillis);
+        }
+        if (extras.containsKey(SETTING_ADV_TX_POWER_KEY)) {
+            mAdvTxPowerDbm = parseIntSetting(extras, SETTING_ADV_TX_POWER_KEY,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, mAdvTxPowerDbm);
+        }
+        if (extras.containsKey(SETTING_ADV_PAYLOAD_SIZE_KEY)) {
+            mAdvPayloadBytes = parseIntSetting(extras, SETTING_ADV_PAYLOAD_SIZE_KEY, 0,
+                    BleAdvertisingWorkload.MAX_PAYLOAD_BYTES, mAdvPayloadBytes);
+        }
+        if (extras.containsKey(SETTING_ADV_CONNECTABLE_KEY)) {
+            mAdvConnectable =
+                    Boolean.parseBoolean(extras.getString(SETTING_ADV_CONNECTABLE_KEY));
+        }
+        if (extras.containsKey(SETTING_STATUS_UPDATE_INTERVAL_KEY)) {
+            int interval;
+            synchronized (mStatusLock) {
+                interval = mStatusUpdateIntervalMillis;
+            }
+            // Any negative interval turns the status updates off
+            interval = parseIntSetting(extras, SETTING_STATUS_UPDATE_INTERVAL_KEY,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, interval);
+            synchronized (mStatusLock) {
+                mStatusUpdateIntervalMillis = interval;
+            }
+        }
+    }
+
+    class PMCReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getAction().equals(AUTOPOWER_INTENT_STRING)) {
+                Bundle extras = intent.getExtras();
+                String key = "PowerAction";
+                if (extras != null) {
+                    if (extras.containsKey(key)) {
+                        String actionstring = extras.getString(key);
+                        Log.d(TAG, "PowerAction = " + actionstring);
+                        if (actionstring.equalsIgnoreCase("StartConnectivityScan")) {
+                            startConnectivityScan();
+                        } else if (actionstring.equalsIgnoreCase("StopConnectivityScan")) {
+                            stopConnectivityScan();
+                        } else if (actionstring.equalsIgnoreCase("Download1KB")) {
+                            startDownloadFile("1kb.txt");
+                        } else if (actionstring.equalsIgnoreCase("Download10KB")) {
+                            startDownloadFile("10kb.txt");
+                        } else if (actionstring.equalsIgnoreCase("Download100KB")) {
+                            startDownloadFile("100kb.txt");
+                        } else if (actionstring.equalsIgnoreCase("Download1MB")) {
+                            startDownloadFile("1mb.txt");
+                        } else if (actionstring.equalsIgnoreCase("StopDownload")) {
+                            stopDownloadFile();
+                        } else if (actionstring.equalsIgnoreCase("StartGScanChannel")) {
+                            startGscan(ChannelPlan.forChannels(SOCIAL_CHANNELS));
+                        } else if (actionstring.equalsIgnoreCase("StartGScanBand")) {
+                            startGscan(ChannelPlan.forBand(ChannelPlan.BAND_BOTH));
+                        } else if (actionstring.equalsIgnoreCase("StartGScanPlan")) {
+                            startGscan(mGScanChannelPlan);
+                        } else if (actionstring.equalsIgnoreCase("StopGScan")) {
+                            stopGScan();
+                        } else if (actionstring.equalsIgnoreCase("GetDownloadRate")) {
+                            WifiDownloadReceiver dr = (WifiDownloadReceiver) mWorkloadManager
+                                    .getWorkload(WifiDownloadReceiver.WORKLOAD_NAME);
+                            if (dr != null) {
+                                String dataRateString = "Data Rate: "
+                                        + Integer.toString(dr.getDownloadRate()) + " bytes/sec";
+                                this.setResultData(dataRateString);
+                            } else {
+                                this.setResultData("No download running");
+                            }
+                        } else if (actionstring.equalsIgnoreCase("GetWorkloadStatus")) {
+                            this.setResultData(mWorkloadManager.getStatus());
+                        } else if (actionstring.equalsIgnoreCase("StopAllWorkloads")) {
+                            stopAllWorkloads();
+                        } else if (actionstring.equalsIgnoreCase("GetAlarmDrift")) {
+                            this.setResultData(AlarmDriftTracker.getSummary());
+                        } else if (actionstring.equalsIgnoreCase("StartScanSweep")) {
+                            startScanSweep();
+                        } else if (actionstring.equalsIgnoreCase("StopScanSweep")) {
+                            stopScanSweep();
+                        } else if (actionstring.equalsIgnoreCase("GetScanSweepSummary")) {
+                            this.setResultData(getScanSweepSummary());
+                        } else if (actionstring.equalsIgnoreCase("GetScanLatency")) {
+                            this.setResultData(ScanLatencyTracker.getSummary());
+                        } else if (actionstring.equalsIgnoreCase("ExportScanResults")) {
+                            this.setResultData(exportScanResults());
+                        } else if (actionstring.equalsIgnoreCase("ClearScanResults")) {
+                            mScanResultStore.clear();
+                            mBssidRssiIndex.clear();
+                        } else if (actionstring.equalsIgnoreCase("QueryBssid")) {
+                            this.setResultData(queryBssid(extras.getString(BSSID_KEY)));
+                        } else if (actionstring.equalsIgnoreCase("GetColdStartTimes")) {
+                            this.setResultData(BluetoothUtils.getColdStartSummary());
+                        } else if (actionstring.equalsIgnoreCase("StartBleAdvertising")) {
+                            startBleAdvertising();
+                        } else if (actionstring.equalsIgnoreCase("StopBleAdvertising")) {
+                            stopBleAdvertising();
+                        } else if (actionstring.equalsIgnoreCase("GetBleAdvertisingSummary")) {
+                            this.setResultData(getBleAdvertisingSummary());
+                        } else if (actionstring.equalsIgnoreCase("StartIperfClient")) {
+                            startIperfClient();
+                        } else if (actionstring.equalsIgnoreCase("StopIperfClient")) {
+                            stopIperfClient();
+                        } else if (actionstring.equalsIgnoreCase("StartUSBTethering")) {
+                            startUSBTethering();
+                        } else if (actionstring.equalsIgnoreCase("StopUSBTethering")) {
+                            stopUSBTethering();
+                        } else if (actionstring.equalsIgnoreCase("TurnScreenOn")) {
+                            turnScreenOn(context);
+                        } else if (actionstring.equalsIgnoreCase("TurnScreenOff")) {
+                            turnScreenOff();
+                        } else if (actionstring.equalsIgnoreCase("StopService")) {
+                            stopSelf();
+                        }
+                        intent.removeExtra(key);
+                    }
+                }
+            } else if (intent.getAction().equals(SETPARAMS_INTENT_STRING)) {
+                setParameters(intent.getExtras());
+            }
+        }
+    }
+}
@@ -91,6 +91,71 @@ public class PMCStatusLogger {
         }
     }
 
+    /**
+     * Function to add the times and the statistics of a test phase into JSONArray object
+     *
+     * @param name - name of the phase
+     * @param startTime - Start time for the phase
+     * @param endTime - End time for the phase
+     * @param summary - statistics of the phase, may be null
+     */
+    public void logPhase(String name, double startTime, double endTime, JSONObject summary) {
+        JSONObject obj = summary != null ? summary : new JSONObject();
+        try {
+            obj.put("Phase", name);
+            obj.put("StartTime", startTime);
+            obj.put("EndTime", endTime);
+            mJArray.put(obj);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put phase " + name + " into JSONArray: " + e);
+        }
+    }
+
+    /**
+     * Function to add a single value into the JSON object
+     *
+     * @param key - name of the value
+     * @param value - value to be logged
+     */
+    public void logValue(String key, Object value) {
+        try {
+            mJObject.put(key, value);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put " + key + " into JSON object: " + e);
+        }
+    }
+
+    /**
+     * Function to add histogram statistics into the JSON object
+     *
+     * @param key - name of the histogram
+     * @param histogram - histogram to be logged
+     */
+    public void logHistogram(String key, LatencyHistogram histogram) {
+        logValue(key, histogramToJson(histogram));
+    }
+
+    /**
+     * Function to convert histogram statistics into a JSON object
+     *
+     * @param histogram - histogram to be converted
+     */
+    public static JSONObject histogramToJson(LatencyHistogram histogram) {
+        JSONObject obj = new JSONObject();
+        try {
+            obj.put("Count", histogram.getCount());
+            obj.put("Mean", histogram.getMean());
+            obj.put("Min", histogram.getMin());
+            obj.put("P50", histogram.getPercentile(50));
+            obj.put("P95", histogram.getPercentile(95));
+            obj.put("P99", histogram.getPercentile(99));
+            obj.put("Max", histogram.getMax());
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put histogram into JSON object: " + e);
+        }
+        return obj;
+    }
+
     /**
      * Function to save Json object into log file
      *
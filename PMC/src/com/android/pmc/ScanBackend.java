@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Interface for the source of Wi-Fi scans used by ScanPipeline.
+ *
+ * The real backends call WifiManager or WifiScanner, SimulatedScanBackend generates results
+ * without any radio so the scan pipeline can run on a host JVM.
+ */
+public interface ScanBackend {
+
+    /**
+     * Listener of one scan request. Exactly one of its functions is called per request,
+     * from any thread.
+     */
+    interface Listener {
+        /**
+         * Called when the results of the scan are available
+         *
+         * @param results - results of the scan
+         */
+        void onResults(ScanBatch results);
+
+        /**
+         * Called when the scan failed
+         *
+         * @param error - description of the failure
+         */
+        void onFailure(String error);
+    }
+
+    /**
+     * Function to get the name of the backend, used in the statistics
+     */
+    String getName();
+
+    /**
+     * Function to request one scan
+     *
+     * @param plan - band or channels to be scanned, null to scan all the channels
+     * @param listener - listener of the scan
+     */
+    void startScan(ChannelPlan plan, Listener listener);
+
+    /**
+     * Function to release the scan started with the listener, called once per request
+     *
+     * @param listener - listener given to startScan()
+     */
+    void stopScan(Listener listener);
+}
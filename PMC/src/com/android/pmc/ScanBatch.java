@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.Arrays;
+
+/**
+ * Results reported by a ScanBackend for one scan request, in primitive arrays.
+ *
+ * A request usually gives one scan, but Gscan may report several scans at once, so the
+ * batch keeps the index of the first result of every scan. This class is not thread safe
+ * and has no Android dependencies.
+ */
+public class ScanBatch {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private int[] mScanStart = new int[4];
+    private int mScanCount;
+    private long[] mBssids = new long[INITIAL_CAPACITY];
+    private int[] mFrequencies = new int[INITIAL_CAPACITY];
+    private int[] mRssis = new int[INITIAL_CAPACITY];
+    private int[] mChannelWidths = new int[INITIAL_CAPACITY];
+    private long[] mTimestamps = new long[INITIAL_CAPACITY];
+    private int mCount;
+
+    /**
+     * Function to start a new scan, the results added next belong to it
+     */
+    public void beginScan() {
+        if (mScanCount == mScanStart.length) {
+            mScanStart = Arrays.copyOf(mScanStart, mScanCount * 2);
+        }
+        mScanStart[mScanCount++] = mCount;
+    }
+
+    /**
+     * Function to add one result to the last scan
+     *
+     * @param bssid - packed BSSID
+     * @param frequency - frequency in MHz
+     * @param rssi - RSSI in dBm
+     * @param channelWidth - channel width constant of ScanResult
+     * @param timestampMicros - time the AP was last seen, usec since boot
+     */
+    public void add(long bssid, int frequency, int rssi, int channelWidth, long timestampMicros) {
+        if (mScanCount == 0) beginScan();
+        if (mCount == mBssids.length) {
+            int capacity = mCount * 2;
+            mBssids = Arrays.copyOf(mBssids, capacity);
+            mFrequencies = Arrays.copyOf(mFrequencies, capacity);
+            mRssis = Arrays.copyOf(mRssis, capacity);
+            mChannelWidths = Arrays.copyOf(mChannelWidths, capacity);
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+        }
+        mBssids[mCount] = bssid;
+        mFrequencies[mCount] = frequency;
+        mRssis[mCount] = rssi;
+        mChannelWidths[mCount] = channelWidth;
+        mTimestamps[mCount] = timestampMicros;
+        mCount++;
+    }
+
+    public int getScanCount() {
+        return mScanCount;
+    }
+
+    /**
+     * Function to get the index of the first result of a scan
+     *
+     * @param scan - scan index, getScanCount() gives the end of the last scan
+     */
+    public int getScanStart(int scan) {
+        return scan == mScanCount ? mCount : mScanStart[scan];
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getBssid(int i) {
+        return mBssids[i];
+    }
+
+    public int getFrequency(int i) {
+        return mFrequencies[i];
+    }
+
+    public int getRssi(int i) {
+        return mRssis[i];
+    }
+
+    public int getChannelWidth(int i) {
+        return mChannelWidths[i];
+    }
+
+    public long getTimestamp(int i) {
+        return mTimestamps[i];
+    }
+}
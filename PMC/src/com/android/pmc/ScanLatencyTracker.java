@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to keep the Wi-Fi scan latency, from the scan request to the delivery of its results.
+ *
+ * There is one tracker per scan type and channel plan, so the latency of a band scan is not
+ * mixed with the latency of a scan on a few channels. Latencies are recorded in nanoseconds
+ * by ScanPipeline. This class has no Android dependencies.
+ */
+public class ScanLatencyTracker {
+    private static final Map<String, ScanLatencyTracker> sTrackers =
+            new LinkedHashMap<String, ScanLatencyTracker>();
+
+    private final String mName;
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private int mFailureCount;
+
+    private ScanLatencyTracker(String name) {
+        mName = name;
+    }
+
+    /**
+     * Function to get the tracker of a scan type and channel plan, it is created on first use
+     *
+     * @param scanType - type of the scan, e.g. ConnScan or GScan
+     * @param channelPlan - description of the scanned band or channels
+     */
+    public static ScanLatencyTracker getTracker(String scanType, String channelPlan) {
+        String name = scanType + "[" + channelPlan + "]";
+        synchronized (sTrackers) {
+            ScanLatencyTracker tracker = sTrackers.get(name);
+            if (tracker == null) {
+                tracker = new ScanLatencyTracker(name);
+                sTrackers.put(name, tracker);
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * Function to get the latency summary of all scan types and channel plans
+     */
+    public static String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sTrackers) {
+            for (ScanLatencyTracker tracker : sTrackers.values()) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(tracker.toString());
+            }
+        }
+        return sb.length() == 0 ? "No scan recorded" : sb.toString();
+    }
+
+    /**
+     * Clear the samples at the start of a new session
+     */
+    public void reset() {
+        mHistogram.reset();
+        synchronized (this) {
+            mFailureCount = 0;
+        }
+    }
+
+    /**
+     * Function to record the latency of a completed scan
+     *
+     * @param latencyNanos - time from the scan request to the results
+     */
+    public void recordScan(long latencyNanos) {
+        mHistogram.record(latencyNanos);
+    }
+
+    /**
+     * Function to count a failed or timed out scan
+     */
+    public synchronized void recordFailure() {
+        mFailureCount++;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " scan latency (ns): " + mHistogram + " failures=" + getFailureCount();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan logic shared by the Wi-Fi scan workloads: request a scan from a ScanBackend, wait for
+ * its completion, record its latency, and save its results into the result store and the
+ * BSSID index.
+ *
+ * This class has no Android dependencies, so the whole pipeline can run on a host JVM with
+ * SimulatedScanBackend. runScan() is meant to be called from one worker thread.
+ */
+public class ScanPipeline {
+
+    /**
+     * Source of the timestamps, elapsedRealtimeNanos() on a device
+     */
+    public interface TimeSource {
+        long nanoTime();
+    }
+
+    /**
+     * Time source for host runs
+     */
+    public static final TimeSource SYSTEM_TIME = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final ScanBackend mBackend;
+    private final byte mSource;
+    private final ScanResultStore mStore;
+    private final BssidRssiIndex mIndex;
+    private final ScanLatencyTracker mLatencyTracker;
+    private final TimeSource mTimeSource;
+    // Updated by the worker thread and read by the main thread
+    private volatile int mScanCount;
+    private volatile int mFailureCount;
+
+    /**
+     * Constructor
+     *
+     * @param backend - backend running the scans
+     * @param source - ScanResultStore source of the results
+     * @param store - store of the results, may be null
+     * @param index - BSSID index updated with the results, may be null
+     * @param latencyTracker - tracker of the scan latency
+     * @param timeSource - source of the timestamps
+     */
+    public ScanPipeline(ScanBackend backend, byte source, ScanResultStore store,
+                        BssidRssiIndex index, ScanLatencyTracker latencyTracker,
+                        TimeSource timeSource) {
+        mBackend = backend;
+        mSource = source;
+        mStore = store;
+        mIndex = index;
+        mLatencyTracker = latencyTracker;
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Function to run one scan and wait for its results
+     *
+     * @param plan - band or channels to be scanned, null to scan all the channels
+     * @param timeoutMs - max time to wait for the results
+     * @return null if the scan completed, or the reason it didn't
+     */
+    public String runScan(ChannelPlan plan, long timeoutMs) throws InterruptedException {
+        ScanRequest request = new ScanRequest(mTimeSource.nanoTime());
+        try {
+            mBackend.startScan(plan, request);
+            if (!request.mDone.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                request.onFailure("Timeout, scan results avaiable action didn't triggered");
+            }
+        } finally {
+            mBackend.stopScan(request);
+        }
+        if (request.mError != null) {
+            mLatencyTracker.recordFailure();
+            mFailureCount++;
+            return request.mError;
+        }
+        mLatencyTracker.recordScan(request.mEndNanos - request.mStartNanos);
+        storeResults(request.mResults);
+        mScanCount++;
+        return null;
+    }
+
+    /**
+     * Function to save scan results into the store and the BSSID index
+     *
+     * @param results - results of one or more scans
+     */
+    public void storeResults(ScanBatch results) {
+        if (results == null || mStore == null) return;
+        long now = mTimeSource.nanoTime();
+        // Keep the results of one scan together when other scans run at the same time
+        synchronized (mStore) {
+            for (int scan = 0; scan < results.getScanCount(); scan++) {
+                // Scans of a Gscan batch were done long before they are delivered
+                long scanNanos = getScanTimeNanos(results, scan, now);
+                mStore.beginScan(mSource, scanNanos);
+                if (mIndex != null) mIndex.beginScan();
+                int end = results.getScanStart(scan + 1);
+                for (int i = results.getScanStart(scan); i < end; i++) {
+                    long bssid = results.getBssid(i);
+                    long timestampMicros = results.getTimestamp(i);
+                    mStore.addResult(bssid, results.getFrequency(i), results.getRssi(i),
+                            results.getChannelWidth(i), timestampMicros);
+                    // Each sample is timed when its AP was seen, not when it was delivered
+                    if (mIndex != null && bssid >= 0) {
+                        mIndex.addResult(bssid, results.getRssi(i),
+                                timestampMicros > 0 ? timestampMicros * 1000 : scanNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Function to get the time of a scan from the timestamps of its results
+     *
+     * @param results - results of one or more scans
+     * @param scan - scan index
+     * @param deliveryNanos - time the results were received, used if no result has a
+     *     timestamp
+     * @return time the last AP of the scan was seen, in nsec since boot
+     */
+    static long getScanTimeNanos(ScanBatch results, int scan, long deliveryNanos) {
+        long latestMicros = 0;
+        int end = results.getScanStart(scan + 1);
+        for (int i = results.getScanStart(scan); i < end; i++) {
+            latestMicros = Math.max(latestMicros, results.getTimestamp(i));
+        }
+        return latestMicros > 0 ? latestMicros * 1000 : deliveryNanos;
+    }
+
+    public ScanBackend getBackend() {
+        return mBackend;
+    }
+
+    public int getScanCount() {
+        return mScanCount;
+    }
+
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    public LatencyHistogram getLatency() {
+        return mLatencyTracker.getHistogram();
+    }
+
+    /**
+     * One scan request, completed by the backend from any thread
+     */
+    private class ScanRequest implements ScanBackend.Listener {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        final long mStartNanos;
+        volatile long mEndNanos;
+        volatile ScanBatch mResults;
+        volatile String mError;
+
+        ScanRequest(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public synchronized void onResults(ScanBatch results) {
+            if (mDone.getCount() == 0) return;
+            mEndNanos = mTimeSource.nanoTime();
+            mResults = results;
+            mDone.countDown();
+        }
+
+        @Override
+        public synchronized void onFailure(String error) {
+            if (mDone.getCount() == 0) return;
+            mError = error;
+            mDone.countDown();
+        }
+    }
+}
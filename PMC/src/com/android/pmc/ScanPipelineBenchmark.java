@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Host benchmark of the Wi-Fi scan pipeline, running on SimulatedScanBackend.
+ *
+ * Usage: PMCScanBenchmark [scans] [pipelines] [latencyUs] [failureRate] [apCount] [minRate]
+ * Every pipeline runs the given number of scans on its own thread, like the scan workloads
+ * do on their executors, and all of them share one result store and BSSID index. The
+ * throughput and latency statistics are printed at the end. When minRate is given the exit
+ * code is 1 if the throughput is below minRate scans per second, so CI can catch regressions.
+ */
+public class ScanPipelineBenchmark {
+    private static final long SCAN_TIMEOUT_MS = 10000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int scans = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int pipelineCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long latencyNanos = args.length > 2 ? Long.parseLong(args[2]) * 1000 : 0;
+        double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+        int apCount = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+        double minRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+        final SimulatedScanBackend backend =
+                new SimulatedScanBackend(apCount, latencyNanos, failureRate, 42);
+        ScanResultStore store = new ScanResultStore();
+        BssidRssiIndex index = new BssidRssiIndex();
+        final ScanPipeline[] pipelines = new ScanPipeline[pipelineCount];
+        final ChannelPlan[] plans = {
+            ChannelPlan.forBand(ChannelPlan.BAND_BOTH_WITH_DFS),
+            ChannelPlan.forChannels(new int[] {2412, 2437, 2462})
+        };
+        Thread[] threads = new Thread[pipelineCount];
+        for (int i = 0; i < pipelineCount; i++) {
+            final ChannelPlan plan = plans[i % plans.length];
+            ScanLatencyTracker tracker = ScanLatencyTracker.getTracker(
+                    "Benchmark" + i, plan.getName());
+            tracker.reset();
+            pipelines[i] = new ScanPipeline(backend, ScanResultStore.SOURCE_GSCAN, store, index,
+                    tracker, ScanPipeline.SYSTEM_TIME);
+            final ScanPipeline pipeline = pipelines[i];
+            final int count = scans;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < count; n++) {
+                            pipeline.runScan(plan, SCAN_TIMEOUT_MS);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "PMC-Benchmark" + i);
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        backend.shutdown();
+
+        long completed = 0;
+        for (ScanPipeline pipeline : pipelines) {
+            completed += pipeline.getScanCount() + pipeline.getFailureCount();
+        }
+        double rate = completed / seconds;
+        System.out.println("Scans: " + completed + " in " + String.format("%.3f", seconds)
+                + " s, " + String.format("%.0f", rate) + " scans/s");
+        System.out.println(ScanLatencyTracker.getSummary());
+        System.out.println(store);
+        System.out.println("BSSIDs indexed: " + index.getBssidCount());
+        if (minRate > 0 && rate < minRate) {
+            System.out.println("FAIL: throughput below " + minRate + " scans/s");
+            System.exit(1);
+        }
+    }
+}
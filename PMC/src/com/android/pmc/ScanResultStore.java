@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar in-memory store for the Wi-Fi scan results captured during a session.
+ *
+ * Every column is a primitive array, so one result costs 22 bytes of heap no matter how long
+ * the session is. BSSIDs are packed into longs and interned into int ids, the BSSID table is
+ * stored once. When maxResults is reached new results are counted as dropped, results with
+ * a BSSID packMac() could not parse are counted as invalid.
+ *
+ * The binary export is big endian and laid out as:
+ *   int magic "PMCS", int version, int bssidCount, int scanCount, int resultCount
+ *   long[bssidCount] packed BSSIDs
+ *   scanCount x (long timeNanos, byte source, int firstResult)
+ *   int[resultCount] scan ids, int[resultCount] BSSID ids, int[resultCount] frequencies (MHz),
+ *   byte[resultCount] RSSI (dBm), byte[resultCount] channel widths,
+ *   long[resultCount] timestamps (usec since boot)
+ * This class has no Android dependencies so the export can be read back by host side tools.
+ */
+public class ScanResultStore {
+    public static final int MAGIC = 0x504d4353;  // "PMCS"
+    public static final int VERSION = 1;
+    public static final byte SOURCE_CONN_SCAN = 0;
+    public static final byte SOURCE_GSCAN = 1;
+    public static final int DEFAULT_MAX_RESULTS = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int mMaxResults;
+    private final LongIntHashMap mBssidIds = new LongIntHashMap();
+    private long[] mBssids = new long[INITIAL_CAPACITY];
+    private int mBssidCount;
+
+    // Scan columns
+    private long[] mScanTimeNanos = new long[INITIAL_CAPACITY];
+    private byte[] mScanSource = new byte[INITIAL_CAPACITY];
+    private int[] mScanFirstResult = new int[INITIAL_CAPACITY];
+    private int mScanCount;
+
+    // Result columns
+    private int[] mResultScan = new int[INITIAL_CAPACITY];
+    private int[] mResultBssid = new int[INITIAL_CAPACITY];
+    private int[] mResultFrequency = new int[INITIAL_CAPACITY];
+    private byte[] mResultRssi = new byte[INITIAL_CAPACITY];
+    private byte[] mResultChannelWidth = new byte[INITIAL_CAPACITY];
+    private long[] mResultTimestamp = new long[INITIAL_CAPACITY];
+    private int mResultCount;
+    private int mDroppedCount;
+    private int mInvalidCount;
+
+    public ScanResultStore() {
+        this(DEFAULT_MAX_RESULTS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxResults - max number of results kept in memory
+     */
+    public ScanResultStore(int maxResults) {
+        mMaxResults = maxResults;
+    }
+
+    /**
+     * Function to pack a MAC address string like "aa:bb:cc:dd:ee:ff" into a long
+     *
+     * @param mac - MAC address
+     * @return packed address, or -1 if the string is not a valid MAC address
+     */
+    public static long packMac(String mac) {
+        if (mac == null || mac.length() != 17) return -1;
+        long packed = 0;
+        for (int i = 0; i < 17; i += 3) {
+            int hi = Character.digit(mac.charAt(i), 16);
+            int lo = Character.digit(mac.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0 || (i < 15 && mac.charAt(i + 2) != ':')) return -1;
+            packed = (packed << 8) | (hi << 4) | lo;
+        }
+        return packed;
+    }
+
+    /**
+     * Function to format a packed MAC address back to a string
+     *
+     * @param packed - packed address
+     */
+    public static String formatMac(long packed) {
+        StringBuilder sb = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (packed >>> shift) & 0xff;
+            if (sb.length() > 0) sb.append(':');
+            sb.append(Character.forDigit(b >>> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Function to start a new scan, the results added next belong to it
+     *
+     * @param source - SOURCE_CONN_SCAN or SOURCE_GSCAN
+     * @param timeNanos - time of the scan, nsec since boot
+     * @return id of the scan
+     */
+    public synchronized int beginScan(byte source, long timeNanos) {
+        if (mScanCount == mScanTimeNanos.length) {
+            int capacity = mScanCount * 2;
+            mScanTimeNanos = Arrays.copyOf(mScanTimeNanos, capacity);
+            mScanSource = Arrays.copyOf(mScanSource, capacity);
+            mScanFirstResult = Arrays.copyOf(mScanFirstResult, capacity);
+        }
+        mScanTimeNanos[mScanCount] = timeNanos;
+        mScanSource[mScanCount] = source;
+        mScanFirstResult[mScanCount] = mResultCount;
+        return mScanCount++;
+    }
+
+    /**
+     * Function to add one result to the last scan
+     *
+     * @param bssid - packed BSSID
+     * @param frequency - frequency in MHz
+     * @param rssi - RSSI in dBm
+     * @param channelWidth - channel width constant of ScanResult
+     * @param timestampMicros - time the AP was last seen, usec since boot
+     * @return id of the BSSID, or -1 if the result is dropped or its BSSID is invalid
+     */
+    public synchronized int addResult(long bssid, int frequency, int rssi, int channelWidth,
+                                      long timestampMicros) {
+        if (bssid < 0) {
+            mInvalidCount++;
+            return -1;
+        }
+        if (mScanCount == 0 || mResultCount >= mMaxResults) {
+            mDroppedCount++;
+            return -1;
+        }
+        if (mResultCount == mResultScan.length) {
+            int capacity = Math.min(mResultCount * 2, mMaxResults);
+            mResultScan = Arrays.copyOf(mResultScan, capacity);
+            mResultBssid = Arrays.copyOf(mResultBssid, capacity);
+            mResultFrequency = Arrays.copyOf(mResultFrequency, capacity);
+            mResultRssi = Arrays.copyOf(mResultRssi, capacity);
+            mResultChannelWidth = Arrays.copyOf(mResultChannelWidth, capacity);
+            mResultTimestamp = Arrays.copyOf(mResultTimestamp, capacity);
+        }
+        int bssidId = internBssid(bssid);
+        mResultScan[mResultCount] = mScanCount - 1;
+        mResultBssid[mResultCount] = bssidId;
+        mResultFrequency[mResultCount] = frequency;
+        mResultRssi[mResultCount] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+        mResultChannelWidth[mResultCount] = (byte) channelWidth;
+        mResultTimestamp[mResultCount] = timestampMicros;
+        mResultCount++;
+        return bssidId;
+    }
+
+    public synchronized int getScanCount() {
+        return mScanCount;
+    }
+
+    public synchronized int getResultCount() {
+        return mResultCount;
+    }
+
+    public synchronized int getBssidCount() {
+        return mBssidCount;
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized int getInvalidCount() {
+        return mInvalidCount;
+    }
+
+    /**
+     * Function to get the packed BSSID of an id
+     *
+     * @param bssidId - id returned by addResult()
+     */
+    public synchronized long getBssid(int bssidId) {
+        return mBssids[bssidId];
+    }
+
+    /**
+     * Function to get the id of a packed BSSID
+     *
+     * @param bssid - packed BSSID
+     * @return the id, or -1 if the BSSID was never seen
+     */
+    public synchronized int getBssidId(long bssid) {
+        return mBssidIds.get(bssid);
+    }
+
+    /**
+     * Remove all the scans and results
+     */
+    public synchronized void clear() {
+        mBssidIds.clear();
+        mBssidCount = 0;
+        mScanCount = 0;
+        mResultCount = 0;
+        mDroppedCount = 0;
+        mInvalidCount = 0;
+    }
+
+    /**
+     * Function to write the store into a binary file
+     *
+     * @param file - file to be written
+     */
+    public synchronized void export(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mBssidCount);
+            out.writeInt(mScanCount);
+            out.writeInt(mResultCount);
+            for (int i = 0; i < mBssidCount; i++) {
+                out.writeLong(mBssids[i]);
+            }
+            for (int i = 0; i < mScanCount; i++) {
+                out.writeLong(mScanTimeNanos[i]);
+                out.writeByte(mScanSource[i]);
+                out.writeInt(mScanFirstResult[i]);
+            }
+            for (int i = 0; i < mResultCount; i++) {
+                out.writeInt(mResultScan[i]);
+            }
+            for (int i = 0; i < mResultCount; i++) {
+                out.writeInt(mResultBssid[i]);
+            }
+            for (int i = 0; i < mResultCount; i++) {
+                out.writeInt(mResultFrequency[i]);
+            }
+            out.write(mResultRssi, 0, mResultCount);
+            out.write(mResultChannelWidth, 0, mResultCount);
+            for (int i = 0; i < mResultCount; i++) {
+                out.writeLong(mResultTimestamp[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Scans: " + mScanCount + ", Results: " + mResultCount + ", BSSIDs: "
+                + mBssidCount + ", Dropped: " + mDroppedCount + ", Invalid: " + mInvalidCount;
+    }
+
+    private int internBssid(long bssid) {
+        int id = mBssidIds.get(bssid);
+        if (id != LongIntHashMap.NO_VALUE) return id;
+        if (mBssidCount == mBssids.length) {
+            mBssids = Arrays.copyOf(mBssids, mBssidCount * 2);
+        }
+        id = mBssidCount++;
+        mBssids[id] = bssid;
+        mBssidIds.put(bssid, id);
+        return id;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Workload running Wi-Fi scans at a list of intervals and channel plans, one phase each.
+ *
+ * Every phase runs a connectivity scan or Gscan workload for a fixed duration, then the next
+ * phase is started from an exact alarm. The start and end time of every phase are logged as
+ * alarm times in ScanSweep.log together with the phase statistics: number of scans, mean scan
+ * latency and wake lock time. One sweep gives the whole power vs scan interval curve.
+ */
+public class ScanSweepWorkload extends BroadcastReceiver implements Workload {
+    public static final String TAG = "PMCSWEEP";
+    public static final String WORKLOAD_NAME = "ScanSweep";
+    public static final String SCAN_TYPE_CONN_SCAN = "ConnScan";
+    public static final String SCAN_TYPE_GSCAN = "GScan";
+    private static final String SWEEP_ALARM_ACTION = "com.android.pmc.ScanSweep";
+    private static final String SCAN_ALARM_ACTION = "com.android.pmc.ScanSweepScan";
+
+    private final PMCService mPMCService;
+    private final AlarmManager mAlarmManager;
+    private final String mScanType;
+    private final int[] mIntervals;
+    private final List<ChannelPlan> mChannelPlans;
+    private final int mPlanCount;
+    private final long mPhaseMillis;
+    private final BoundedTaskExecutor.OverrunPolicy mOverrunPolicy;
+    private PMCStatusLogger mPMCStatusLogger;
+    private PendingIntent mAlarmIntent;
+    private ScanWorkload mCurrentScan;
+    private int mPhase;
+    private long mPhaseStartTime;
+    private final StringBuilder mSummary = new StringBuilder();
+
+    /**
+     * Constructor
+     *
+     * @param service - PMC service hosting the workload
+     * @param alarmManager - alarm manager
+     * @param scanType - SCAN_TYPE_CONN_SCAN or SCAN_TYPE_GSCAN
+     * @param intervals - scan intervals in msec
+     * @param channelPlans - channel plans, only used by Gscan
+     * @param phaseMillis - duration of every phase in msec
+     * @param overrunPolicy - overrun policy of the scan workloads
+     */
+    public ScanSweepWorkload(PMCService service, AlarmManager alarmManager, String scanType,
+                             int[] intervals, List<ChannelPlan> channelPlans, long phaseMillis,
+                             BoundedTaskExecutor.OverrunPolicy overrunPolicy) {
+        mPMCService = service;
+        mAlarmManager = alarmManager;
+        mScanType = scanType;
+        mIntervals = intervals.clone();
+        mChannelPlans = channelPlans;
+        // Connectivity scans always scan all the channels
+        mPlanCount = SCAN_TYPE_GSCAN.equalsIgnoreCase(scanType) ? channelPlans.size() : 1;
+        mPhaseMillis = phaseMillis;
+        mOverrunPolicy = overrunPolicy;
+    }
+
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        mPMCStatusLogger = new PMCStatusLogger(WORKLOAD_NAME + ".log", TAG);
+        mPMCStatusLogger.logValue("ScanType", mScanType);
+        mPMCStatusLogger.logValue("PhaseDurationMs", mPhaseMillis);
+        synchronized (mSummary) {
+            mSummary.setLength(0);
+        }
+        mPMCService.registerReceiver(this, new IntentFilter(SWEEP_ALARM_ACTION));
+        mPMCStatusLogger.logStatus("READY");
+        startPhase(0);
+    }
+
+    @Override
+    public void stop() {
+        mPMCService.unregisterReceiver(this);
+        if (mAlarmIntent != null) mAlarmManager.cancel(mAlarmIntent);
+        if (mCurrentScan != null) {
+            // The current phase is cut short, keep its statistics anyway
+            endPhase();
+            mPMCStatusLogger.flash();
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        if (mCurrentScan == null) return "Sweep done, phases: " + getPhaseCount();
+        return "Sweep phase " + (mPhase + 1) + "/" + getPhaseCount() + " ["
+                + getPhaseName(mPhase) + "] " + mCurrentScan.getStatus();
+    }
+
+    /**
+     * Function to get the statistics of the completed phases, one line per phase
+     */
+    public String getSummary() {
+        synchronized (mSummary) {
+            return mSummary.length() == 0 ? "No sweep phase completed" : mSummary.toString();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (mCurrentScan == null) return;
+        endPhase();
+        if (mPhase + 1 < getPhaseCount()) {
+            startPhase(mPhase + 1);
+        } else {
+            Log.i(TAG, "Sweep done");
+            mPMCStatusLogger.flash();
+            mPMCService.postProgressStatus("Scan sweep done\n" + getSummary());
+        }
+    }
+
+    private int getPhaseCount() {
+        return mIntervals.length * mPlanCount;
+    }
+
+    private int getPhaseInterval(int phase) {
+        return mIntervals[phase / mPlanCount];
+    }
+
+    private ChannelPlan getPhasePlan(int phase) {
+        return mChannelPlans.get(phase % mPlanCount);
+    }
+
+    private String getPhaseName(int phase) {
+        String name = mScanType + " interval=" + getPhaseInterval(phase) + "ms";
+        if (SCAN_TYPE_GSCAN.equalsIgnoreCase(mScanType)) {
+            name += " plan=" + getPhasePlan(phase);
+        }
+        return name;
+    }
+
+    private void startPhase(int phase) {
+        mPhase = phase;
+        int interval = getPhaseInterval(phase);
+        if (SCAN_TYPE_GSCAN.equalsIgnoreCase(mScanType)) {
+            mCurrentScan = new WifiGScanReceiver(mPMCService, getPhasePlan(phase), 0, interval,
+                    mAlarmManager, SCAN_ALARM_ACTION, mOverrunPolicy);
+        } else {
+            mCurrentScan = new WifiConnScanReceiver(mPMCService, interval, mAlarmManager,
+                    SCAN_ALARM_ACTION, mOverrunPolicy);
+        }
+        mPhaseStartTime = System.currentTimeMillis();
+        Log.i(TAG, "Phase " + phase + " start: " + getPhaseName(phase));
+        mCurrentScan.start();
+        mPMCService.postProgressStatus("Sweep phase " + (phase + 1) + "/" + getPhaseCount()
+                + " started: " + getPhaseName(phase));
+
+        long triggerTime = SystemClock.elapsedRealtime() + mPhaseMillis;
+        mAlarmIntent = PendingIntent.getBroadcast(mPMCService, 0,
+                new Intent(SWEEP_ALARM_ACTION), PendingIntent.FLAG_UPDATE_CURRENT);
+        mAlarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                triggerTime, mAlarmIntent);
+    }
+
+    private void endPhase() {
+        mCurrentScan.stop();
+        long phaseEndTime = System.currentTimeMillis();
+        String name = getPhaseName(mPhase);
+        Log.i(TAG, "Phase " + mPhase + " end: " + name);
+
+        int scanCount = mCurrentScan.getScanCount();
+        double meanLatencyMs = mCurrentScan.getScanLatency().getMean() / 1000000.0;
+        long wakeLockMs = mCurrentScan.getWakeLockHeldMillis();
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("ScanCount", scanCount);
+            summary.put("MeanScanLatencyMs", meanLatencyMs);
+            summary.put("WakeLockMs", wakeLockMs);
+            summary.put("ScanLatency",
+                    PMCStatusLogger.histogramToJson(mCurrentScan.getScanLatency()));
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception to put phase summary into JSON object: " + e);
+        }
+        mPMCStatusLogger.logPhase(name, mPhaseStartTime / 1000.0, phaseEndTime / 1000.0,
+                summary);
+        synchronized (mSummary) {
+            if (mSummary.length() > 0) mSummary.append('\n');
+            mSummary.append(name).append(": scans=").append(scanCount)
+                    .append(" meanLatencyMs=").append(String.format("%.1f", meanLatencyMs))
+                    .append(" wakeLockMs=").append(wakeLockMs);
+        }
+        mCurrentScan = null;
+    }
+}
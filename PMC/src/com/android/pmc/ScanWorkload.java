@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Interface for the Wi-Fi scan workloads, to collect their statistics independently of the
+ * type of scan.
+ */
+public interface ScanWorkload extends Workload {
+
+    /**
+     * Function to get the number of scans completed since the workload was started
+     */
+    int getScanCount();
+
+    /**
+     * Function to get the latency histogram of the scans, in nsec
+     */
+    LatencyHistogram getScanLatency();
+
+    /**
+     * Function to get the total time the workload held its wake lock, in msec
+     */
+    long getWakeLockHeldMillis();
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan backend generating results without any radio, for host benchmarks of the scan pipeline.
+ *
+ * The backend simulates a fixed population of APs spread over the 2.4 GHz and 5 GHz channels.
+ * Every AP has a base RSSI, and is reported by a scan with a probability decreasing with its
+ * RSSI, with a few dB of noise. Results are delivered after a random latency around the mean,
+ * and a configurable ratio of the scans fail. Only the APs on the channels of the plan are
+ * reported. Results are generated from a seeded Random so runs are reproducible.
+ */
+public class SimulatedScanBackend implements ScanBackend {
+    private static final int[] CHANNELS_24_GHZ = {2412, 2437, 2462, 2417, 2442, 2467};
+    private static final int[] CHANNELS_5_GHZ = {5180, 5200, 5220, 5240, 5745, 5765, 5785, 5805};
+    private static final int[] CHANNELS_5_GHZ_DFS = {5260, 5280, 5500, 5520, 5580, 5660};
+    private static final int RSSI_NOISE_DB = 3;
+    private static final int CHANNEL_WIDTH_20MHZ = 0;
+    private static final int CHANNEL_WIDTH_80MHZ = 2;
+
+    private final long mMeanLatencyNanos;
+    private final double mFailureRate;
+    private final Random mRandom;
+    private final ScheduledExecutorService mScheduler;
+    private final long[] mApBssids;
+    private final int[] mApFrequencies;
+    private final int[] mApBands;
+    private final int[] mApRssis;
+
+    /**
+     * Constructor
+     *
+     * @param apCount - number of simulated APs
+     * @param meanLatencyNanos - mean scan latency, 0 to deliver the results synchronously
+     * @param failureRate - ratio of failed scans, between 0 and 1
+     * @param seed - seed of the random generator
+     */
+    public SimulatedScanBackend(int apCount, long meanLatencyNanos, double failureRate,
+                                long seed) {
+        mMeanLatencyNanos = meanLatencyNanos;
+        mFailureRate = failureRate;
+        mRandom = new Random(seed);
+        mApBssids = new long[apCount];
+        mApFrequencies = new int[apCount];
+        mApBands = new int[apCount];
+        mApRssis = new int[apCount];
+        int[][] channels = {CHANNELS_24_GHZ, CHANNELS_5_GHZ, CHANNELS_5_GHZ_DFS};
+        int[] bands = {
+            ChannelPlan.BAND_24_GHZ, ChannelPlan.BAND_5_GHZ, ChannelPlan.BAND_5_GHZ_DFS_ONLY
+        };
+        for (int i = 0; i < apCount; i++) {
+            // Locally administered unicast addresses
+            mApBssids[i] = (0x02L << 40) | (mRandom.nextLong() & 0xffffffffffL);
+            int band = i % 5 < 3 ? 0 : (i % 5 == 3 ? 1 : 2);
+            mApBands[i] = bands[band];
+            mApFrequencies[i] = channels[band][mRandom.nextInt(channels[band].length)];
+            mApRssis[i] = -90 + mRandom.nextInt(60);
+        }
+        mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PMC-SimulatedScan");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "Simulated";
+    }
+
+    @Override
+    public void startScan(ChannelPlan plan, final Listener listener) {
+        final boolean fail;
+        final ScanBatch results;
+        long latency;
+        synchronized (mRandom) {
+            fail = mRandom.nextDouble() < mFailureRate;
+            results = fail ? null : generateResults(plan);
+            latency = mMeanLatencyNanos <= 0 ? 0
+                    : (long) (mMeanLatencyNanos * (0.5 + mRandom.nextDouble()));
+        }
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (fail) {
+                    listener.onFailure("Simulated scan failure");
+                } else {
+                    listener.onResults(results);
+                }
+            }
+        };
+        if (latency == 0) {
+            delivery.run();
+        } else {
+            mScheduler.schedule(delivery, latency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void stopScan(Listener listener) {
+        // Nothing to release, a late delivery is ignored by the listener
+    }
+
+    /**
+     * Stop the delivery thread
+     */
+    public void shutdown() {
+        mScheduler.shutdownNow();
+    }
+
+    private ScanBatch generateResults(ChannelPlan plan) {
+        ScanBatch results = new ScanBatch();
+        results.beginScan();
+        long nowMicros = System.nanoTime() / 1000;
+        int[] channels = plan == null ? null : plan.getChannels();
+        for (int i = 0; i < mApBssids.length; i++) {
+            if (!isScanned(plan, channels, i)) continue;
+            // -30 dBm APs are always seen, -90 dBm APs one scan out of four
+            double visibility = 0.25 + 0.75 * (mApRssis[i] + 90) / 60.0;
+            if (mRandom.nextDouble() >= visibility) continue;
+            int rssi = mApRssis[i] + mRandom.nextInt(2 * RSSI_NOISE_DB + 1) - RSSI_NOISE_DB;
+            int width = mApFrequencies[i] < 5000 ? CHANNEL_WIDTH_20MHZ : CHANNEL_WIDTH_80MHZ;
+            results.add(mApBssids[i], mApFrequencies[i], rssi, width, nowMicros);
+        }
+        return results;
+    }
+
+    private boolean isScanned(ChannelPlan plan, int[] channels, int ap) {
+        if (plan == null) return true;
+        if (channels == null) return (plan.getBand() & mApBands[ap]) != 0;
+        for (int channel : channels) {
+            if (channel == mApFrequencies[ap]) return true;
+        }
+        return false;
+    }
+}
@@ -6,8 +6,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.net.wifi.WifiManager;
-import android.os.AsyncTask;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
@@ -15,135 +13,142 @@ import android.util.Log;
 /**
  * Call wifi scan whenever an alarm is received.
  */
-public class WifiConnScanReceiver extends BroadcastReceiver {
-    int mScanCount = 0;
-    ConnectvityScanTask mConnScanTask;
-    PMCMainActivity mPMCMainActivity;
-    private WifiManager mWifiManager;
-    private Context mContext;
-    private PowerManager.WakeLock mWakeLock;
+public class WifiConnScanReceiver extends BroadcastReceiver implements ScanWorkload {
+    public static final String WORKLOAD_NAME = "ConnectivityScan";
+    private static final long SCAN_TIMEOUT_MS = 10000;
+    // Updated by the scan thread and read by the main thread
+    volatile int mScanCount = 0;
+    PMCService mPMCService;
+    private final BoundedTaskExecutor mExecutor;
     private int mAlarmInterval;
     private AlarmManager mAlarmManager;
+    private String mAlarmAction;
     private PendingIntent mAlarmIntent;
+    private AlarmDriftTracker mAlarmDriftTracker;
+    private ScanLatencyTracker mScanLatencyTracker;
+    private ScanPipeline mScanPipeline;
 
-    public WifiConnScanReceiver(PMCMainActivity activity, int interval, AlarmManager alarmManager,
-                                PendingIntent alarmIntent) {
-        mPMCMainActivity = activity;
+    public WifiConnScanReceiver(PMCService service, int interval, AlarmManager alarmManager,
+                                String alarmAction,
+                                BoundedTaskExecutor.OverrunPolicy overrunPolicy) {
+        mPMCService = service;
         mScanCount = 0;
         mAlarmInterval = interval;
         mAlarmManager = alarmManager;
-        mAlarmIntent = alarmIntent;
+        mAlarmAction = alarmAction;
+        mAlarmDriftTracker = AlarmDriftTracker.getTracker("ConnScan");
+        mAlarmDriftTracker.reset();
+        // Connectivity scans always cover all the supported channels
+        mScanLatencyTracker = ScanLatencyTracker.getTracker("ConnScan", "AllChannels");
+        mScanLatencyTracker.reset();
+        mScanPipeline = service.createScanPipeline(
+                new WifiManagerScanBackend(service.getApplicationContext()),
+                ScanResultStore.SOURCE_CONN_SCAN, mScanLatencyTracker);
+        PowerManager pm = (PowerManager) service.getSystemService(Context.POWER_SERVICE);
+        mExecutor = new BoundedTaskExecutor(WORKLOAD_NAME, overrunPolicy,
+                BoundedTaskExecutor.DEFAULT_QUEUE_CAPACITY,
+                pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST"));
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (mConnScanTask != null && mConnScanTask.getStatus() != AsyncTask.Status.FINISHED) {
+        mAlarmDriftTracker.recordAlarm(intent);
+        Log.i(PMCMainActivity.TAG, "Starting Connectivity Scan Task");
+        // The executor holds the wake lock until the task is done
+        if (!mExecutor.submit(new ConnectvityScanTask())) {
             Log.e(PMCMainActivity.TAG, "Previous connection scan still running.");
-            try {
-                mConnScanTask.get();
-            } catch (Exception e) {
-                Log.e(PMCMainActivity.TAG, "Connection scan cancelled.");
-            }
-        } else {
-            mContext = context;
-            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST");
-            // Acquire the lock
-            mWakeLock.acquire();
-            mWifiManager = (WifiManager) context.getApplicationContext()
-                    .getSystemService(Context.WIFI_SERVICE);
-            Log.i(PMCMainActivity.TAG, "Starting Connectivity Scan Task");
-            mConnScanTask = new ConnectvityScanTask();
-            mConnScanTask.execute();
         }
         scheduleConnScan();
     }
 
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        mPMCService.registerReceiver(this, new IntentFilter(mAlarmAction));
+        Log.d(PMCMainActivity.TAG, "Setting connectivity scan alarm. Interval: " + mAlarmInterval);
+        scheduleConnScan();
+    }
+
+    @Override
+    public void stop() {
+        mPMCService.unregisterReceiver(this);
+        cancelConnScan();
+    }
+
+    @Override
+    public String getStatus() {
+        return "Connectivity scans completed: " + mScanCount + ", Overruns: "
+                + mExecutor.getOverrunCount();
+    }
+
+    @Override
+    public int getScanCount() {
+        return mScanCount;
+    }
+
+    @Override
+    public LatencyHistogram getScanLatency() {
+        return mScanLatencyTracker.getHistogram();
+    }
+
+    @Override
+    public long getWakeLockHeldMillis() {
+        return mExecutor.getWakeLockHeldMillis();
+    }
+
     /**
      * Schedule the next connectivity scan.
      */
     public void scheduleConnScan() {
         Log.i(PMCMainActivity.TAG, "Scheduling the next conn scan after " + mAlarmInterval);
+        long triggerTime = SystemClock.elapsedRealtime() + mAlarmInterval;
+        Intent alarmIntent = new Intent(mAlarmAction);
+        AlarmDriftTracker.setTriggerTime(alarmIntent, triggerTime);
+        mAlarmIntent = PendingIntent.getBroadcast(mPMCService, 0, alarmIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
         mAlarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                SystemClock.elapsedRealtime() + mAlarmInterval, mAlarmIntent);
+                triggerTime, mAlarmIntent);
     }
 
     /**
      * Cancel the connectivity scans.
      */
     public void cancelConnScan() {
-        mAlarmManager.cancel(mAlarmIntent);
-        if (mConnScanTask != null) mConnScanTask.cancel(true);
+        if (mAlarmIntent != null) mAlarmManager.cancel(mAlarmIntent);
+        mExecutor.shutdown();
     }
 
-    class ConnectvityScanTask extends AsyncTask<Integer, Integer, String> {
-        WifiScanReceiver mWifiScanReceiver;
-        Boolean mScanCompleted = false;
-
-        ConnectvityScanTask() {
-            mWifiScanReceiver = new WifiScanReceiver();
-            mContext.getApplicationContext().registerReceiver(mWifiScanReceiver,
-                    new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+    class ConnectvityScanTask implements Runnable {
+        @Override
+        public void run() {
+            String error = scan();
+            if (error != null) {
+                Log.e(PMCMainActivity.TAG, error);
+                mPMCService.postProgressStatus(error);
+            }
         }
 
-        @Override
-        protected String doInBackground(Integer... stime) {
+        private String scan() {
             //android.os.Debug.waitForDebugger();
-            int waitCount = 0;
             try {
-                mScanCompleted = false;
-                mWifiManager.startScan();
-                while (!mScanCompleted) {
-                    if (waitCount >= 100) {
-                        return "Timeout, scan results avaiable action didn't triggered";
-                    } else {
-                        Thread.sleep(100);
-                        waitCount += 1;
-                    }
-                }
-                waitCount = 0;
+                // Connectivity scans always scan all the channels
+                String error = mScanPipeline.runScan(null, SCAN_TIMEOUT_MS);
+                if (error != null) return error;
                 mScanCount += 1;
                 Log.d(PMCMainActivity.TAG, "Number of scan completed " + mScanCount);
-                publishProgress(mScanCount);
+                mPMCService.postProgressStatus("Total Connectivity scan completed :: "
+                        + mScanCount);
+            } catch (InterruptedException e) {
+                Log.d(PMCMainActivity.TAG, "Connection scan cancelled.");
             } catch (Exception e) {
                 Log.e(PMCMainActivity.TAG, e.toString());
                 return e.toString();
             }
             return null;
         }
-
-        @Override
-        protected void onCancelled(String result) {
-            mContext.getApplicationContext().unregisterReceiver(mWifiScanReceiver);
-            mWakeLock.release();
-        }
-
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            Log.d(PMCMainActivity.TAG, "ConnectvityScanTask onProgressUpdate updating the UI");
-            mPMCMainActivity.updateProgressStatus("Total Connectivity scan completed :: "
-                    + Integer.toString(values[0].intValue()));
-        }
-
-        @Override
-        protected void onPostExecute(String error) {
-            if (error != null) {
-                Log.e(PMCMainActivity.TAG, error);
-                mPMCMainActivity.updateProgressStatus(error);
-            }
-            mContext.getApplicationContext().unregisterReceiver(mWifiScanReceiver);
-            mWakeLock.release();
-        }
-
-        class WifiScanReceiver extends BroadcastReceiver {
-            @Override
-            public void onReceive(Context c, Intent intent) {
-                String action = intent.getAction();
-                if (action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
-                    Log.d(PMCMainActivity.TAG, "Wifi connection scan finished, results available.");
-                    mScanCompleted = true;
-                }
-            }
-        }
     }
 }
@@ -5,7 +5,7 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
+import android.content.IntentFilter;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
@@ -16,55 +16,77 @@ import java.net.URL;
 /**
  * Call wifi Download data whenever an alarm is received.
  */
-public class WifiDownloadReceiver extends BroadcastReceiver {
+public class WifiDownloadReceiver extends BroadcastReceiver implements Workload {
+    public static final String WORKLOAD_NAME = "Download";
     private static final int DOWNLOAD_BUFFER_SIZE = 1024 * 4;
 
-    DownloadTask mDownloadTask;
-    PMCMainActivity mPMCMainActivity;
-    int mFileCount;
-    int mBytesCount;
+    PMCService mPMCService;
+    // Updated by the download thread and read by the main thread
+    volatile int mFileCount;
+    volatile int mBytesCount;
     long mDownloadStartTime;
     String mDownloadURL;
-    private Context mContext;
-    private PowerManager.WakeLock mWakeLock;
+    private final BoundedTaskExecutor mExecutor;
     private int mAlarmInterval;
     private AlarmManager mAlarmManager;
+    private String mAlarmAction;
     private PendingIntent mAlarmIntent;
+    private AlarmDriftTracker mAlarmDriftTracker;
 
-    public WifiDownloadReceiver(PMCMainActivity activity, String url, int interval,
-                                AlarmManager alarmManager, PendingIntent alarmIntent) {
-        mPMCMainActivity = activity;
+    public WifiDownloadReceiver(PMCService service, String url, int interval,
+                                AlarmManager alarmManager, String alarmAction,
+                                BoundedTaskExecutor.OverrunPolicy overrunPolicy) {
+        mPMCService = service;
         mDownloadURL = url;
         mFileCount = 0;
         mBytesCount = 0;
         mDownloadStartTime = -1;
         mAlarmInterval = interval;
         mAlarmManager = alarmManager;
-        mAlarmIntent = alarmIntent;
+        mAlarmAction = alarmAction;
+        mAlarmDriftTracker = AlarmDriftTracker.getTracker("Download");
+        mAlarmDriftTracker.reset();
+        PowerManager pm = (PowerManager) service.getSystemService(Context.POWER_SERVICE);
+        mExecutor = new BoundedTaskExecutor(WORKLOAD_NAME, overrunPolicy,
+                BoundedTaskExecutor.DEFAULT_QUEUE_CAPACITY,
+                pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST"));
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (mDownloadTask != null && mDownloadTask.getStatus() != AsyncTask.Status.FINISHED) {
+        mAlarmDriftTracker.recordAlarm(intent);
+        Log.i(PMCMainActivity.TAG, "Starting Download Task");
+        // The executor holds the wake lock until the task is done
+        if (!mExecutor.submit(new DownloadTask(mDownloadURL))) {
             Log.e(PMCMainActivity.TAG, "Previous download still running.");
-            try {
-                mDownloadTask.get();
-            } catch (Exception e) {
-                Log.e(PMCMainActivity.TAG, "Download cancelled.");
-            }
-        } else {
-            mContext = context;
-            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST");
-            // Acquire the lock
-            mWakeLock.acquire();
-            Log.i(PMCMainActivity.TAG, "Starting Download Task");
-            mDownloadTask = new DownloadTask();
-            mDownloadTask.execute(mDownloadURL);
         }
         scheduleDownload();
     }
 
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        mPMCService.registerReceiver(this, new IntentFilter(mAlarmAction));
+        Log.d(PMCMainActivity.TAG, "Setting download data alarm. Interval: " + mAlarmInterval);
+        scheduleDownload();
+    }
+
+    @Override
+    public void stop() {
+        mPMCService.unregisterReceiver(this);
+        cancelDownload();
+    }
+
+    @Override
+    public String getStatus() {
+        return "Files downloaded: " + mFileCount + ", Data rate: " + getDownloadRate()
+                + " bytes/sec, Overruns: " + mExecutor.getOverrunCount();
+    }
+
     /**
      * Schedule the next download.
      */
@@ -74,16 +96,21 @@ public class WifiDownloadReceiver extends BroadcastReceiver {
             mDownloadStartTime = System.currentTimeMillis();
         }
         Log.i(PMCMainActivity.TAG, "Scheduling the next download after " + mAlarmInterval);
+        long triggerTime = SystemClock.elapsedRealtime() + mAlarmInterval;
+        Intent alarmIntent = new Intent(mAlarmAction);
+        AlarmDriftTracker.setTriggerTime(alarmIntent, triggerTime);
+        mAlarmIntent = PendingIntent.getBroadcast(mPMCService, 0, alarmIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
         mAlarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                SystemClock.elapsedRealtime() + mAlarmInterval, mAlarmIntent);
+                triggerTime, mAlarmIntent);
     }
 
     /**
      * Cancel the downloads.
      */
     public void cancelDownload() {
-        mAlarmManager.cancel(mAlarmIntent);
-        if (mDownloadTask != null) mDownloadTask.cancel(true);
+        if (mAlarmIntent != null) mAlarmManager.cancel(mAlarmIntent);
+        mExecutor.shutdown();
     }
 
     /**
@@ -93,17 +120,32 @@ public class WifiDownloadReceiver extends BroadcastReceiver {
     public int getDownloadRate() {
         long durationInMilliSeconds = (System.currentTimeMillis() - mDownloadStartTime);
         int durationInSeconds = (int) (durationInMilliSeconds / 1000);
+        if (mDownloadStartTime == -1 || durationInSeconds <= 0) return 0;
         return (mBytesCount / durationInSeconds);
     }
 
-    class DownloadTask extends AsyncTask<String, Integer, String> {
+    class DownloadTask implements Runnable {
+        private final String mUrl;
+
+        DownloadTask(String url) {
+            mUrl = url;
+        }
+
         @Override
-        protected String doInBackground(String... sUrl) {
+        public void run() {
+            String error = download();
+            if (error != null) {
+                Log.e(PMCMainActivity.TAG, error);
+                mPMCService.postProgressStatus(error);
+            }
+        }
+
+        private String download() {
             //android.os.Debug.waitForDebugger();
             Log.d(PMCMainActivity.TAG, "Starting background task for downloading file");
             HttpURLConnection connection = null;
             try {
-                URL url = new URL(sUrl[0]);
+                URL url = new URL(mUrl);
                 connection = (HttpURLConnection) url.openConnection();
                 connection.connect();
                 // expect HTTP 200 OK, so we don't mistakenly save error report
@@ -123,8 +165,12 @@ public class WifiDownloadReceiver extends BroadcastReceiver {
                 Log.d(PMCMainActivity.TAG, "Downloaded file size " + fileLength);
                 mFileCount += 1;
                 mBytesCount += fileLength;
-                publishProgress(mFileCount, getDownloadRate());
+                Log.d(PMCMainActivity.TAG, "DownloadTask updating the UI");
+                mPMCService.postProgressStatus("Total file downloaded :: "
+                        + mFileCount + ", Data rate :: " + getDownloadRate() + " bytes/sec");
                 Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Log.d(PMCMainActivity.TAG, "Download cancelled.");
             } catch (Exception e) {
                 Log.e(PMCMainActivity.TAG, e.toString());
                 return e.toString();
@@ -136,28 +182,6 @@ public class WifiDownloadReceiver extends BroadcastReceiver {
             return null;
         }
 
-        @Override
-        protected void onCancelled(String result) {
-            mWakeLock.release();
-        }
-
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            Log.d(PMCMainActivity.TAG, "DownloadTask onProgressUpdate updating the UI");
-            mPMCMainActivity.updateProgressStatus("Total file downloaded :: "
-                    + values[0].toString() + ", Data rate :: "
-                    + values[1].toString() + " bytes/sec");
-        }
-
-        @Override
-        protected void onPostExecute(String error) {
-            if (error != null) {
-                Log.e(PMCMainActivity.TAG, error);
-                mPMCMainActivity.updateProgressStatus(error);
-            }
-            mWakeLock.release();
-        }
-
         private int downloadFile(HttpURLConnection connection) {
             if (connection == null) return -1;
             int totalBytesRead = 0;
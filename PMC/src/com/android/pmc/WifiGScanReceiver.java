@@ -5,171 +5,242 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.wifi.ScanResult;
-import android.net.wifi.WifiManager;
 import android.net.wifi.WifiScanner;
 import android.net.wifi.WifiScanner.ScanData;
 import android.net.wifi.WifiScanner.ScanSettings;
-import android.os.AsyncTask;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * Call wifi Gscan whenever an alarm is received.
+ *
+ * In batched mode there is no alarm, one background scan runs for the whole workload with
+ * the alarm interval as scan period, and the firmware buffers batchSize scans before
+ * reporting them, so the AP is only woken up once per batch.
  */
-public class WifiGScanReceiver extends BroadcastReceiver {
-    int mScanCount = 0;
-    GScanTask mGScanTask;
-    PMCMainActivity mPMCMainActivity;
-    private WifiManager mWifiManager;
-    private Context mContext;
-    private PowerManager.WakeLock mWakeLock;
-    private WifiScanner mScan;
-    private ScanSettings mScanSettings;
+public class WifiGScanReceiver extends BroadcastReceiver implements ScanWorkload {
+    public static final String WORKLOAD_NAME = "GScan";
+    private static final long SCAN_TIMEOUT_MS = 10000;
+    // Max number of BSSIDs cached per scan in batched mode
+    private static final int BATCH_BSSIDS_PER_SCAN = 32;
+    // Updated by the scan thread and read by the main thread
+    volatile int mScanCount = 0;
+    volatile int mBatchCount = 0;
+    PMCService mPMCService;
+    private final BoundedTaskExecutor mExecutor;
+    private WifiScanner mWifiScanner;
+    private ChannelPlan mChannelPlan;
+    private int mBatchSize;
+    private BatchedScanListener mBatchedScanListener;
     private int mAlarmInterval;
     private AlarmManager mAlarmManager;
+    private String mAlarmAction;
     private PendingIntent mAlarmIntent;
+    private AlarmDriftTracker mAlarmDriftTracker;
+    private ScanLatencyTracker mScanLatencyTracker;
+    private ScanPipeline mScanPipeline;
 
-
-    public WifiGScanReceiver(PMCMainActivity activity, ScanSettings settings, int interval,
-                             AlarmManager alarmManager, PendingIntent alarmIntent) {
-        mPMCMainActivity = activity;
-        mScanSettings = settings;
+    /**
+     * Constructor
+     *
+     * @param service - PMC service hosting the workload
+     * @param plan - band or channels to be scanned
+     * @param batchSize - number of scans buffered by the firmware, 0 to scan on every alarm
+     * @param interval - alarm interval in msec, or scan period in batched mode
+     * @param alarmManager - alarm manager
+     * @param alarmAction - action of the alarm intent
+     * @param overrunPolicy - what to do when an alarm fires while a scan is running
+     */
+    public WifiGScanReceiver(PMCService service, ChannelPlan plan, int batchSize, int interval,
+                             AlarmManager alarmManager, String alarmAction,
+                             BoundedTaskExecutor.OverrunPolicy overrunPolicy) {
+        mPMCService = service;
+        mChannelPlan = plan;
+        mBatchSize = batchSize;
         mScanCount = 0;
         mAlarmInterval = interval;
         mAlarmManager = alarmManager;
-        mAlarmIntent = alarmIntent;
+        mAlarmAction = alarmAction;
+        mAlarmDriftTracker = AlarmDriftTracker.getTracker("GScan");
+        mAlarmDriftTracker.reset();
+        mScanLatencyTracker = ScanLatencyTracker.getTracker("GScan", plan.getName());
+        mScanLatencyTracker.reset();
+        mScanPipeline = service.createScanPipeline(
+                new WifiScannerScanBackend(service.getApplicationContext()),
+                ScanResultStore.SOURCE_GSCAN, mScanLatencyTracker);
+        mWifiScanner = (WifiScanner) service.getSystemService(Context.WIFI_SCANNING_SERVICE);
+        PowerManager pm = (PowerManager) service.getSystemService(Context.POWER_SERVICE);
+        mExecutor = new BoundedTaskExecutor(WORKLOAD_NAME, overrunPolicy,
+                BoundedTaskExecutor.DEFAULT_QUEUE_CAPACITY,
+                pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST"));
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (mGScanTask != null && mGScanTask.getStatus() != AsyncTask.Status.FINISHED) {
+        mAlarmDriftTracker.recordAlarm(intent);
+        Log.i(PMCMainActivity.TAG, "Starting GScan Task");
+        // The executor holds the wake lock until the task is done
+        if (!mExecutor.submit(new GScanTask())) {
             Log.e(PMCMainActivity.TAG, "Previous Gscan still running.");
-            try {
-                mGScanTask.get();
-            } catch (Exception e) {
-                Log.e(PMCMainActivity.TAG, "Gscan cancelled.");
-            }
-        } else {
-            mContext = context;
-            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WIFITEST");
-            // Acquire the lock
-            mWakeLock.acquire();
-            mScan = (WifiScanner) context.getSystemService(Context.WIFI_SCANNING_SERVICE);
-            Log.i(PMCMainActivity.TAG, "Starting GScan Task");
-            mGScanTask = new GScanTask();
-            mGScanTask.execute(mScanSettings);
         }
         scheduleGscan();
     }
 
+    @Override
+    public String getName() {
+        return WORKLOAD_NAME;
+    }
+
+    @Override
+    public void start() {
+        if (mBatchSize > 0) {
+            startBatchedScan();
+            return;
+        }
+        mPMCService.registerReceiver(this, new IntentFilter(mAlarmAction));
+        Log.d(PMCMainActivity.TAG, "Setting Gscan alarm. Interval: " + mAlarmInterval);
+        scheduleGscan();
+    }
+
+    @Override
+    public void stop() {
+        if (mBatchedScanListener != null) {
+            mWifiScanner.stopBackgroundScan(mBatchedScanListener);
+            mBatchedScanListener = null;
+            mExecutor.shutdown();
+            return;
+        }
+        mPMCService.unregisterReceiver(this);
+        cancelGScan();
+    }
+
+    @Override
+    public String getStatus() {
+        if (mBatchSize > 0) {
+            return "Gscan [" + mChannelPlan + "] batches: " + mBatchCount + ", scans: "
+                    + mScanCount;
+        }
+        return "Gscans [" + mChannelPlan + "] completed: " + mScanCount + ", Overruns: "
+                + mExecutor.getOverrunCount();
+    }
+
+    @Override
+    public int getScanCount() {
+        return mScanCount;
+    }
+
+    @Override
+    public LatencyHistogram getScanLatency() {
+        return mScanLatencyTracker.getHistogram();
+    }
+
+    @Override
+    public long getWakeLockHeldMillis() {
+        return mExecutor.getWakeLockHeldMillis();
+    }
+
+    /**
+     * Function to start the long-lived background scan of the batched mode
+     */
+    private void startBatchedScan() {
+        ScanSettings settings = WifiScannerScanBackend.buildScanSettings(mChannelPlan);
+        settings.periodInMs = mAlarmInterval;
+        settings.reportEvents = WifiScanner.REPORT_EVENT_AFTER_BUFFER_FULL;
+        settings.maxScansToCache = mBatchSize;
+        settings.numBssidsPerScan = BATCH_BSSIDS_PER_SCAN;
+        mBatchedScanListener = new BatchedScanListener();
+        Log.d(PMCMainActivity.TAG, "Starting batched Gscan. Period: " + mAlarmInterval
+                + ", batch size: " + mBatchSize);
+        mWifiScanner.startBackgroundScan(settings, mBatchedScanListener);
+    }
+
     /**
      * Schedule the next Gscan.
      */
     public void scheduleGscan() {
         Log.i(PMCMainActivity.TAG, "Scheduling the next gscan after " + mAlarmInterval);
+        long triggerTime = SystemClock.elapsedRealtime() + mAlarmInterval;
+        Intent alarmIntent = new Intent(mAlarmAction);
+        AlarmDriftTracker.setTriggerTime(alarmIntent, triggerTime);
+        mAlarmIntent = PendingIntent.getBroadcast(mPMCService, 0, alarmIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
         mAlarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                SystemClock.elapsedRealtime() + mAlarmInterval, mAlarmIntent);
+                triggerTime, mAlarmIntent);
     }
 
     /**
      * Cancel the Gscans.
      */
     public void cancelGScan() {
-        mAlarmManager.cancel(mAlarmIntent);
-        if (mGScanTask != null) mGScanTask.cancel(true);
+        if (mAlarmIntent != null) mAlarmManager.cancel(mAlarmIntent);
+        mExecutor.shutdown();
     }
 
-    class GScanTask extends AsyncTask<ScanSettings, Integer, String> {
-        WifiScanListener mWifiScanListener;
-        Boolean mScanCompleted = false;
+    /**
+     * Listener of the batched background scan, called once per batch
+     */
+    private class BatchedScanListener implements WifiScanner.ScanListener {
+        @Override
+        public void onSuccess() {
+            Log.d(PMCMainActivity.TAG, "Batched Gscan started");
+        }
 
-        GScanTask() {
-            mWifiScanListener = new WifiScanListener();
+        @Override
+        public void onFailure(int reason, String description) {
+            String error = "Batched Gscan failed: " + reason + " " + description;
+            Log.e(PMCMainActivity.TAG, error);
+            mPMCService.postProgressStatus(error);
         }
 
         @Override
-        protected String doInBackground(ScanSettings... settings) {
-            //android.os.Debug.waitForDebugger();
-            Log.d(PMCMainActivity.TAG, "Starting background task for gscan with channel");
-            int waitCount = 0;
-            try {
-                mScanCompleted = false;
-                mScan.startBackgroundScan(settings[0], mWifiScanListener);
-                while (!mScanCompleted) {
-                    if (waitCount >= 100) {
-                        return "Timeout, scan results avaiable action didn't triggered";
-                    } else {
-                        Thread.sleep(100);
-                        waitCount += 1;
-                    }
-                }
-                mScanCount += 1;
-                waitCount = 0;
-                Log.d(PMCMainActivity.TAG, "Number of scan completed " + mScanCount);
-                publishProgress(mScanCount);
-            } catch (Exception e) {
-                Log.e(PMCMainActivity.TAG, e.toString());
-                return e.toString();
-            } finally {
-                mScan.stopBackgroundScan(mWifiScanListener);
-            }
-            return null;
+        public void onPeriodChanged(int periodInMs) {
+            Log.d(PMCMainActivity.TAG, "Batched Gscan period changed to " + periodInMs);
         }
 
         @Override
-        protected void onCancelled(String result) {
-            mWakeLock.release();
+        public void onFullResult(ScanResult fullScanResult) {
         }
 
         @Override
-        protected void onProgressUpdate(Integer... values) {
-            Log.d(PMCMainActivity.TAG, "GScanTask onProgressUpdate updating the UI");
-            mPMCMainActivity.updateProgressStatus("Total Gscan completed :: "
-                    + Integer.toString(values[0].intValue()));
+        public void onResults(ScanData[] results) {
+            mScanPipeline.storeResults(WifiScannerScanBackend.toScanBatch(results));
+            mBatchCount += 1;
+            mScanCount += results.length;
+            Log.d(PMCMainActivity.TAG, "Gscan batch of " + results.length + " scans");
+            mPMCService.postProgressStatus("Total Gscan batches :: " + mBatchCount
+                    + ", scans :: " + mScanCount);
         }
+    }
 
+    class GScanTask implements Runnable {
         @Override
-        protected void onPostExecute(String error) {
+        public void run() {
+            String error = scan();
             if (error != null) {
                 Log.e(PMCMainActivity.TAG, error);
-                mPMCMainActivity.updateProgressStatus(error);
+                mPMCService.postProgressStatus(error);
             }
-            mWakeLock.release();
         }
 
-        private class WifiScanListener implements WifiScanner.ScanListener {
-            WifiScanListener() {
-
-            }
-
-            @Override
-            public void onSuccess() {
-                Log.d(PMCMainActivity.TAG, "onSuccess called");
-            }
-
-            @Override
-            public void onFailure(int reason, String description) {
-                Log.d(PMCMainActivity.TAG, "onFailure called");
-            }
-
-            @Override
-            public void onPeriodChanged(int periodInMs) {
-                Log.d(PMCMainActivity.TAG, "onPeriodChanged called");
-            }
-
-            @Override
-            public void onFullResult(ScanResult fullScanResult) {
-                Log.d(PMCMainActivity.TAG, "onFullResult called");
-            }
-
-            @Override
-            public void onResults(ScanData[] results) {
-                Log.d(PMCMainActivity.TAG, "onResult WifiScanListener called");
-                mScanCompleted = true;
+        private String scan() {
+            //android.os.Debug.waitForDebugger();
+            Log.d(PMCMainActivity.TAG, "Starting background task for gscan with channel");
+            try {
+                String error = mScanPipeline.runScan(mChannelPlan, SCAN_TIMEOUT_MS);
+                if (error != null) return error;
+                mScanCount += 1;
+                Log.d(PMCMainActivity.TAG, "Number of scan completed " + mScanCount);
+                mPMCService.postProgressStatus("Total Gscan completed :: " + mScanCount);
+            } catch (InterruptedException e) {
+                Log.d(PMCMainActivity.TAG, "Gscan cancelled.");
+            } catch (Exception e) {
+                Log.e(PMCMainActivity.TAG, e.toString());
+                return e.toString();
             }
+            return null;
         }
     }
 }
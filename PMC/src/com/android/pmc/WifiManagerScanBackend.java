@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scan backend running connectivity scans through WifiManager.startScan().
+ * Connectivity scans always scan all the channels, the channel plan is ignored.
+ */
+public class WifiManagerScanBackend implements ScanBackend {
+    private final Context mContext;
+    private final WifiManager mWifiManager;
+    private final Map<Listener, BroadcastReceiver> mReceivers =
+            new HashMap<Listener, BroadcastReceiver>();
+
+    /**
+     * Constructor
+     *
+     * @param context - application context
+     */
+    public WifiManagerScanBackend(Context context) {
+        mContext = context;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    @Override
+    public String getName() {
+        return "WifiManager";
+    }
+
+    @Override
+    public void startScan(ChannelPlan plan, final Listener listener) {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                Log.d(PMCMainActivity.TAG, "Wifi connection scan finished, results available.");
+                if (intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true)) {
+                    listener.onResults(toScanBatch(mWifiManager.getScanResults()));
+                } else {
+                    listener.onFailure("Connectivity scan failed, results not updated");
+                }
+            }
+        };
+        synchronized (mReceivers) {
+            mReceivers.put(listener, receiver);
+        }
+        mContext.registerReceiver(receiver,
+                new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        if (!mWifiManager.startScan()) {
+            listener.onFailure("Connectivity scan request rejected");
+        }
+    }
+
+    @Override
+    public void stopScan(Listener listener) {
+        BroadcastReceiver receiver;
+        synchronized (mReceivers) {
+            receiver = mReceivers.remove(listener);
+        }
+        if (receiver != null) mContext.unregisterReceiver(receiver);
+    }
+
+    /**
+     * Function to convert the results of one scan
+     *
+     * @param results - scan results, may be null
+     */
+    public static ScanBatch toScanBatch(List<ScanResult> results) {
+        ScanBatch batch = new ScanBatch();
+        batch.beginScan();
+        if (results != null) {
+            for (ScanResult result : results) {
+                addScanResult(batch, result);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Function to add a scan result to the last scan of a batch
+     *
+     * @param batch - batch to be updated
+     * @param result - scan result
+     */
+    public static void addScanResult(ScanBatch batch, ScanResult result) {
+        batch.add(ScanResultStore.packMac(result.BSSID), result.frequency, result.level,
+                result.channelWidth, result.timestamp);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.content.Context;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiScanner;
+import android.net.wifi.WifiScanner.ChannelSpec;
+import android.net.wifi.WifiScanner.ScanData;
+import android.net.wifi.WifiScanner.ScanSettings;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scan backend running Gscans through WifiScanner.startBackgroundScan(). Every request starts
+ * a background scan which is stopped once its first results are reported.
+ */
+public class WifiScannerScanBackend implements ScanBackend {
+    private final WifiScanner mWifiScanner;
+    private final Map<Listener, WifiScanner.ScanListener> mScanListeners =
+            new HashMap<Listener, WifiScanner.ScanListener>();
+
+    /**
+     * Constructor
+     *
+     * @param context - application context
+     */
+    public WifiScannerScanBackend(Context context) {
+        mWifiScanner = (WifiScanner) context.getSystemService(Context.WIFI_SCANNING_SERVICE);
+    }
+
+    @Override
+    public String getName() {
+        return "WifiScanner";
+    }
+
+    @Override
+    public void startScan(ChannelPlan plan, final Listener listener) {
+        WifiScanner.ScanListener scanListener = new WifiScanner.ScanListener() {
+            @Override
+            public void onSuccess() {
+                Log.d(PMCMainActivity.TAG, "onSuccess called");
+            }
+
+            @Override
+            public void onFailure(int reason, String description) {
+                Log.d(PMCMainActivity.TAG, "onFailure called");
+                listener.onFailure("Gscan failed: " + reason + " " + description);
+            }
+
+            @Override
+            public void onPeriodChanged(int periodInMs) {
+                Log.d(PMCMainActivity.TAG, "onPeriodChanged called");
+            }
+
+            @Override
+            public void onFullResult(ScanResult fullScanResult) {
+                Log.d(PMCMainActivity.TAG, "onFullResult called");
+            }
+
+            @Override
+            public void onResults(ScanData[] results) {
+                Log.d(PMCMainActivity.TAG, "onResult WifiScanListener called");
+                listener.onResults(toScanBatch(results));
+            }
+        };
+        synchronized (mScanListeners) {
+            mScanListeners.put(listener, scanListener);
+        }
+        ScanSettings settings = buildScanSettings(
+                plan != null ? plan : ChannelPlan.forBand(ChannelPlan.BAND_BOTH_WITH_DFS));
+        mWifiScanner.startBackgroundScan(settings, scanListener);
+    }
+
+    @Override
+    public void stopScan(Listener listener) {
+        WifiScanner.ScanListener scanListener;
+        synchronized (mScanListeners) {
+            scanListener = mScanListeners.remove(listener);
+        }
+        if (scanListener != null) mWifiScanner.stopBackgroundScan(scanListener);
+    }
+
+    /**
+     * Function to build the Gscan settings of a channel plan
+     *
+     * @param plan - band or channels to be scanned
+     */
+    public static ScanSettings buildScanSettings(ChannelPlan plan) {
+        ScanSettings settings = new ScanSettings();
+        int[] channels = plan.getChannels();
+        if (channels == null) {
+            settings.band = plan.getBand();
+        } else {
+            settings.band = WifiScanner.WIFI_BAND_UNSPECIFIED;
+            settings.channels = new ChannelSpec[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                settings.channels[i] = new ChannelSpec(channels[i]);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Function to convert the scans reported by Gscan
+     *
+     * @param results - scans reported by Gscan, may be null
+     */
+    public static ScanBatch toScanBatch(ScanData[] results) {
+        ScanBatch batch = new ScanBatch();
+        if (results == null) return batch;
+        for (ScanData data : results) {
+            batch.beginScan();
+            for (ScanResult result : data.getResults()) {
+                WifiManagerScanBackend.addScanResult(batch, result);
+            }
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+/**
+ * Interface for a PMC workload which can run at the same time as other workloads.
+ * Each workload owns its alarms, receivers and statistics, and is started and stopped
+ * by WorkloadManager.
+ */
+public interface Workload {
+
+    /**
+     * Function to get the unique name of the workload
+     */
+    String getName();
+
+    /**
+     * Function to start the workload
+     */
+    void start();
+
+    /**
+     * Function to stop the workload and release all its resources
+     */
+    void stop();
+
+    /**
+     * Function to get a one line summary of the workload statistics
+     */
+    String getStatus();
+}
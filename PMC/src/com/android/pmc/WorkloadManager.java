@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to start, stop and monitor any number of workloads independently, so that
+ * combinations of workloads can be measured together.
+ */
+public class WorkloadManager {
+    public static final String TAG = "PMCWORKLOAD";
+
+    private final Map<String, Workload> mWorkloads = new LinkedHashMap<String, Workload>();
+    private final Map<String, Long> mStartTimes = new LinkedHashMap<String, Long>();
+
+    /**
+     * Function to start a workload. A running workload with the same name is stopped first.
+     *
+     * @param workload - workload to be started
+     */
+    public synchronized void startWorkload(Workload workload) {
+        stopWorkload(workload.getName());
+        Log.i(TAG, "Starting workload " + workload.getName());
+        mWorkloads.put(workload.getName(), workload);
+        mStartTimes.put(workload.getName(), SystemClock.elapsedRealtime());
+        workload.start();
+    }
+
+    /**
+     * Function to stop a workload
+     *
+     * @param name - name of the workload
+     * @return true if the workload was running
+     */
+    public synchronized boolean stopWorkload(String name) {
+        Workload workload = mWorkloads.remove(name);
+        mStartTimes.remove(name);
+        if (workload == null) return false;
+        Log.i(TAG, "Stopping workload " + name + ": " + workload.getStatus());
+        workload.stop();
+        return true;
+    }
+
+    /**
+     * Function to stop all running workloads
+     */
+    public synchronized void stopAll() {
+        for (String name : getRunningWorkloads()) {
+            stopWorkload(name);
+        }
+    }
+
+    /**
+     * Function to get a running workload
+     *
+     * @param name - name of the workload
+     * @return the workload, or null when it is not running
+     */
+    public synchronized Workload getWorkload(String name) {
+        return mWorkloads.get(name);
+    }
+
+    public synchronized boolean isRunning(String name) {
+        return mWorkloads.containsKey(name);
+    }
+
+    /**
+     * Function to get the names of all running workloads
+     */
+    public synchronized List<String> getRunningWorkloads() {
+        return new ArrayList<String>(mWorkloads.keySet());
+    }
+
+    /**
+     * Function to get the status of all running workloads, one line per workload
+     */
+    public synchronized String getStatus() {
+        if (mWorkloads.isEmpty()) return "No workload running";
+        StringBuilder sb = new StringBuilder();
+        long now = SystemClock.elapsedRealtime();
+        for (Workload workload : mWorkloads.values()) {
+            if (sb.length() > 0) sb.append('\n');
+            long runTime = (now - mStartTimes.get(workload.getName())) / 1000;
+            sb.append(workload.getName()).append(" (").append(runTime).append(" s): ")
+                    .append(workload.getStatus());
+        }
+        return sb.toString();
+    }
+}
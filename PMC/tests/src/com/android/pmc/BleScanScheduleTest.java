@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of BleScanSchedule.
+ */
+public class BleScanScheduleTest {
+
+    @Test
+    public void testForRepeated() {
+        BleScanSchedule schedule =
+                BleScanSchedule.forRepeated(BleScanSchedule.SCAN_MODE_BALANCED, 10, 5, 3);
+        assertEquals(3, schedule.getSegmentCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BleScanSchedule.SCAN_MODE_BALANCED, schedule.getScanMode(i));
+            assertEquals(i * 15000L, schedule.getStartOffsetMillis(i));
+            assertEquals(i * 15000L + 10000, schedule.getStopOffsetMillis(i));
+        }
+        assertEquals(45000, schedule.getDurationMillis());
+    }
+
+    @Test
+    public void testParse() {
+        BleScanSchedule schedule =
+                BleScanSchedule.parse("low_latency,1.5,0.5; LOW_POWER,2,0 ;0,1,3");
+        assertEquals(3, schedule.getSegmentCount());
+        assertEquals(BleScanSchedule.SCAN_MODE_LOW_LATENCY, schedule.getScanMode(0));
+        assertEquals(BleScanSchedule.SCAN_MODE_LOW_POWER, schedule.getScanMode(1));
+        assertEquals(BleScanSchedule.SCAN_MODE_LOW_POWER, schedule.getScanMode(2));
+        assertEquals(0, schedule.getStartOffsetMillis(0));
+        assertEquals(1500, schedule.getStopOffsetMillis(0));
+        assertEquals(2000, schedule.getStartOffsetMillis(1));
+        assertEquals(4000, schedule.getStopOffsetMillis(1));
+        // No off time, the next segment starts right away
+        assertEquals(4000, schedule.getStartOffsetMillis(2));
+        assertEquals(5000, schedule.getStopOffsetMillis(2));
+        assertEquals(8000, schedule.getDurationMillis());
+    }
+
+    @Test
+    public void testParseOpportunistic() {
+        BleScanSchedule schedule = BleScanSchedule.parse("OPPORTUNISTIC,1,1;-1,1,1");
+        assertEquals(BleScanSchedule.SCAN_MODE_OPPORTUNISTIC, schedule.getScanMode(0));
+        assertEquals(BleScanSchedule.SCAN_MODE_OPPORTUNISTIC, schedule.getScanMode(1));
+    }
+
+    @Test
+    public void testToStringRoundTrip() {
+        String text = "2,1.5,0.5;0,2.0,0.0";
+        BleScanSchedule schedule = BleScanSchedule.parse(text);
+        assertEquals("2,1.5,0.5;0,2.0,0.0", schedule.toString());
+        assertEquals(text, BleScanSchedule.parse(schedule.toString()).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingField() {
+        BleScanSchedule.parse("BALANCED,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownScanMode() {
+        BleScanSchedule.parse("3,1,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidScanMode() {
+        BleScanSchedule.parse("FAST,1,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseZeroScanTime() {
+        BleScanSchedule.parse("BALANCED,0,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseNegativeOffTime() {
+        BleScanSchedule.parse("BALANCED,1,-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidDuration() {
+        BleScanSchedule.parse("BALANCED,one,1");
+    }
+}
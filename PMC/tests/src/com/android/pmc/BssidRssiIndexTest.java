@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of BssidRssiIndex.
+ */
+public class BssidRssiIndexTest {
+    private static final long BSSID_A = 0xaabbccddee01L;
+    private static final long BSSID_B = 0xaabbccddee02L;
+    private static final long MINUTE_NANOS = 60000000000L;
+
+    @Test
+    public void testVisibility() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        assertEquals(-1, index.getVisibility(BSSID_A), 0);
+        index.beginScan();
+        index.addResult(BSSID_A, -50, 0);
+        index.beginScan();
+        index.addResult(BSSID_A, -50, 1);
+        index.addResult(BSSID_B, -60, 1);
+        index.beginScan();
+        index.beginScan();
+        index.addResult(BSSID_B, -60, 3);
+        assertEquals(4, index.getScanCount());
+        assertEquals(2, index.getBssidCount());
+        // Seen in 2 of 4 scans, and in 2 of the 3 scans since it was first seen
+        assertEquals(0.5, index.getVisibility(BSSID_A), 1e-9);
+        assertEquals(2.0 / 3, index.getVisibility(BSSID_B), 1e-9);
+    }
+
+    @Test
+    public void testDuplicateInScanCountedOnce() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        index.beginScan();
+        index.addResult(BSSID_A, -50, 0);
+        index.addResult(BSSID_A, -52, 0);
+        assertEquals(1, index.getVisibility(BSSID_A), 1e-9);
+        assertTrue(index.query(BSSID_A).contains("seenScans=1 "));
+    }
+
+    @Test
+    public void testRssiTrend() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        assertEquals(0, index.getRssiTrend(BSSID_A), 0);
+        index.beginScan();
+        index.addResult(BSSID_A, -80, 0);
+        assertEquals(0, index.getRssiTrend(BSSID_A), 0);
+        for (int i = 1; i < 10; i++) {
+            index.beginScan();
+            index.addResult(BSSID_A, -80 + 2 * i, i * MINUTE_NANOS);
+        }
+        assertEquals(2, index.getRssiTrend(BSSID_A), 1e-9);
+    }
+
+    @Test
+    public void testRingWrapsAround() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        int samples = BssidRssiIndex.RING_SIZE + 6;
+        for (int i = 0; i < samples; i++) {
+            index.beginScan();
+            index.addResult(BSSID_A, -i, i * MINUTE_NANOS);
+        }
+        String query = index.query(BSSID_A);
+        // Only the last RING_SIZE samples are kept, oldest first
+        assertTrue(query, query.contains("rssi=[-6,-7,"));
+        assertTrue(query, query.endsWith(",-" + (samples - 1) + "]"));
+        assertEquals(-1, index.getRssiTrend(BSSID_A), 1e-9);
+    }
+
+    @Test
+    public void testLastSeenIsLatestResult() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        index.beginScan();
+        // Results of one scan are not ordered by time
+        index.addResult(BSSID_A, -50, 5000000000L);
+        index.addResult(BSSID_A, -50, 2000000000L);
+        String query = index.query(BSSID_A);
+        assertTrue(query, query.contains("firstSeenMs=5000 "));
+        assertTrue(query, query.contains("lastSeenMs=5000 "));
+    }
+
+    @Test
+    public void testManyBssids() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        index.beginScan();
+        for (int i = 0; i < 1000; i++) {
+            index.addResult(i, -i % 100, i);
+        }
+        assertEquals(1000, index.getBssidCount());
+        assertEquals(1, index.getVisibility(999), 0);
+        assertTrue(index.getSummary().startsWith("BSSIDs: 1000, Scans: 1"));
+    }
+
+    @Test
+    public void testClear() {
+        BssidRssiIndex index = new BssidRssiIndex();
+        assertEquals("No BSSID seen", index.getSummary());
+        index.beginScan();
+        index.addResult(BSSID_A, -50, 0);
+        index.clear();
+        assertEquals(0, index.getBssidCount());
+        assertEquals(0, index.getScanCount());
+        assertEquals(-1, index.getVisibility(BSSID_A), 0);
+        assertTrue(index.query(BSSID_A).endsWith(" not seen"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Unit tests of ChannelPlan.
+ */
+public class ChannelPlanTest {
+
+    @Test
+    public void testParseChannels() {
+        ChannelPlan plan = ChannelPlan.parse(" 2412, 2437 ,2462 ");
+        assertEquals(ChannelPlan.BAND_UNSPECIFIED, plan.getBand());
+        assertArrayEquals(new int[] {2412, 2437, 2462}, plan.getChannels());
+        assertEquals("Channels:2412,2437,2462", plan.getName());
+    }
+
+    @Test
+    public void testParseBand() {
+        ChannelPlan plan = ChannelPlan.parse("5ghz_with_dfs");
+        assertEquals(ChannelPlan.BAND_5_GHZ_WITH_DFS, plan.getBand());
+        assertNull(plan.getChannels());
+        assertEquals("5GHZ_WITH_DFS", plan.getName());
+    }
+
+    @Test
+    public void testParseCombinedBands() {
+        assertEquals(ChannelPlan.BAND_BOTH, ChannelPlan.parse("24GHZ|5GHZ").getBand());
+        assertEquals("BOTH", ChannelPlan.parse("24GHZ|5GHZ").getName());
+        ChannelPlan plan = ChannelPlan.parse("24GHZ|5GHZ_DFS_ONLY");
+        assertEquals(ChannelPlan.BAND_24_GHZ | ChannelPlan.BAND_5_GHZ_DFS_ONLY, plan.getBand());
+        assertEquals("24GHZ|5GHZ_DFS_ONLY", plan.getName());
+    }
+
+    @Test
+    public void testChannelsAreCopied() {
+        int[] channels = {2412};
+        ChannelPlan plan = ChannelPlan.forChannels(channels);
+        channels[0] = 5180;
+        plan.getChannels()[0] = 5180;
+        assertArrayEquals(new int[] {2412}, plan.getChannels());
+    }
+
+    @Test
+    public void testParseList() {
+        List<ChannelPlan> plans = ChannelPlan.parseList("2412,2437,2462;BOTH_WITH_DFS;");
+        assertEquals(2, plans.size());
+        assertArrayEquals(new int[] {2412, 2437, 2462}, plans.get(0).getChannels());
+        assertEquals(ChannelPlan.BAND_BOTH_WITH_DFS, plans.get(1).getBand());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseEmpty() {
+        ChannelPlan.parse(" ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownBand() {
+        ChannelPlan.parse("6GHZ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidChannel() {
+        ChannelPlan.parse("2412,,2437");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseEmptyList() {
+        ChannelPlan.parseList(" ; ;");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseListWithInvalidPlan() {
+        ChannelPlan.parseList("24GHZ;foo");
+    }
+}
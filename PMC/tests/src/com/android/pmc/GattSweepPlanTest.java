@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of GattSweepPlan.
+ */
+public class GattSweepPlanTest {
+
+    @Test
+    public void testSingleConfig() {
+        GattSweepPlan plan = new GattSweepPlan("2M", "High", "247");
+        assertEquals(1, plan.getConfigCount());
+        assertEquals(1, plan.getMtuCount());
+        assertEquals(GattSweepPlan.PHY_LE_2M_MASK, plan.getPhy(0));
+        assertEquals(GattSweepPlan.PRIORITY_HIGH, plan.getPriority(0));
+        assertEquals(247, plan.getMtu(0));
+        assertEquals("2M/High/247", plan.getName(0));
+    }
+
+    @Test
+    public void testConfigOrder() {
+        GattSweepPlan plan = new GattSweepPlan("1m, coded", "balanced,lowpower", "23,185,517");
+        assertEquals(12, plan.getConfigCount());
+        assertEquals(3, plan.getMtuCount());
+        // PHY first, then priority, then MTU
+        assertEquals("1M/Balanced/23", plan.getName(0));
+        assertEquals("1M/Balanced/185", plan.getName(1));
+        assertEquals("1M/Balanced/517", plan.getName(2));
+        assertEquals("1M/LowPower/23", plan.getName(3));
+        assertEquals("Coded/Balanced/23", plan.getName(6));
+        assertEquals("Coded/LowPower/517", plan.getName(11));
+        assertEquals(GattSweepPlan.PHY_LE_CODED_MASK, plan.getPhy(11));
+        assertEquals(GattSweepPlan.PRIORITY_LOW_POWER, plan.getPriority(11));
+    }
+
+    @Test
+    public void testConfigWrapsAround() {
+        GattSweepPlan plan = new GattSweepPlan("1M,2M", "Balanced", "23,247");
+        for (int config = 0; config < 4; config++) {
+            assertEquals(plan.getName(config), plan.getName(config + 4));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPhy() {
+        new GattSweepPlan("3M", "High", "23");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPriority() {
+        new GattSweepPlan("1M", "Low", "23");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMtuTooSmall() {
+        new GattSweepPlan("1M", "High", "22");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMtuTooLarge() {
+        new GattSweepPlan("1M", "High", "518");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMtuNotANumber() {
+        new GattSweepPlan("1M", "High", "max");
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of L2capFrame.
+ */
+public class L2capFrameTest {
+
+    @Test
+    public void testIntIsBigEndian() {
+        byte[] buffer = new byte[6];
+        L2capFrame.putInt(buffer, 1, 0x01020304);
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 4, 0}, buffer);
+        assertEquals(0x01020304, L2capFrame.getInt(buffer, 1));
+    }
+
+    @Test
+    public void testLongIsBigEndian() {
+        byte[] buffer = new byte[8];
+        L2capFrame.putLong(buffer, 0, 0x0102030405060708L);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, buffer);
+        assertEquals(0x0102030405060708L, L2capFrame.getLong(buffer, 0));
+    }
+
+    @Test
+    public void testSignedValues() {
+        byte[] buffer = new byte[12];
+        int[] ints = {-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x80, 0xff00};
+        for (int value : ints) {
+            L2capFrame.putInt(buffer, 0, value);
+            assertEquals(value, L2capFrame.getInt(buffer, 0));
+        }
+        long[] longs = {-1, Long.MIN_VALUE, Long.MAX_VALUE, 0x80L, 0xff00000000L};
+        for (long value : longs) {
+            L2capFrame.putLong(buffer, 4, value);
+            assertEquals(value, L2capFrame.getLong(buffer, 4));
+        }
+    }
+
+    @Test
+    public void testHeader() {
+        byte[] frame = new byte[L2capFrame.HEADER_BYTES + 4];
+        frame[L2capFrame.HEADER_BYTES] = 42;
+        L2capFrame.putHeader(frame, frame.length, L2capFrame.FLAG_SEND_DATA,
+                123456789012345L, -2);
+        assertEquals(frame.length, L2capFrame.getLength(frame));
+        assertEquals(L2capFrame.FLAG_SEND_DATA, L2capFrame.getFlags(frame));
+        assertEquals(123456789012345L, L2capFrame.getSendNanos(frame));
+        assertEquals(-2, L2capFrame.getEchoNanos(frame));
+        // The payload is left untouched
+        assertEquals(42, frame[L2capFrame.HEADER_BYTES]);
+    }
+
+    @Test
+    public void testHeaderLayout() {
+        byte[] frame = new byte[L2capFrame.HEADER_BYTES];
+        L2capFrame.putHeader(frame, 0x18, 1, 2, 3);
+        assertArrayEquals(new byte[] {
+            0, 0, 0, 0x18,
+            0, 0, 0, 1,
+            0, 0, 0, 0, 0, 0, 0, 2,
+            0, 0, 0, 0, 0, 0, 0, 3,
+        }, frame);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(8, histogram.getCount());
+        assertEquals(28, histogram.getSum());
+        assertEquals(3.5, histogram.getMean(), 1e-9);
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testPercentileRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getMin());
+        assertEquals(100000000, histogram.getMax());
+        double[] percentiles = {1, 25, 50, 90, 99};
+        for (double percentile : percentiles) {
+            double expected = percentile * 1000000;
+            double error = Math.abs(histogram.getPercentile(percentile) - expected) / expected;
+            assertTrue("p" + percentile + " error " + error, error < 0.125);
+        }
+    }
+
+    @Test
+    public void testPercentileClampedToMinAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testNegativeValuesInLowestBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(10);
+        assertEquals(-5, histogram.getMin());
+        assertEquals(2.5, histogram.getMean(), 1e-9);
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getPercentile(99));
+        histogram.record(5);
+        assertEquals(5, histogram.getMin());
+        assertEquals(5, histogram.getMax());
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(2);
+        a.record(4);
+        b.record(1);
+        b.record(7);
+        a.add(b);
+        assertEquals(4, a.getCount());
+        assertEquals(14, a.getSum());
+        assertEquals(1, a.getMin());
+        assertEquals(7, a.getMax());
+        assertEquals(2, a.getPercentile(50));
+        // The merged histogram is left untouched
+        assertEquals(2, b.getCount());
+    }
+
+    @Test
+    public void testAddEmpty() {
+        LatencyHistogram a = new LatencyHistogram();
+        a.record(3);
+        a.add(new LatencyHistogram());
+        assertEquals(1, a.getCount());
+        assertEquals(3, a.getMin());
+        assertEquals(3, a.getMax());
+    }
+}
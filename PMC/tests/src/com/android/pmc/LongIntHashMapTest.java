@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of LongIntHashMap.
+ */
+public class LongIntHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(42));
+        map.put(42, 1);
+        map.put(0, 2);
+        map.put(-7, 3);
+        assertEquals(1, map.get(42));
+        assertEquals(2, map.get(0));
+        assertEquals(3, map.get(-7));
+        assertEquals(3, map.size());
+        map.put(42, 4);
+        assertEquals(4, map.get(42));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    public void testResize() {
+        LongIntHashMap map = new LongIntHashMap();
+        for (int i = 0; i < 10000; i++) {
+            map.put(i * 0x100000001L, i);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get(i * 0x100000001L));
+        }
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(10000 * 0x100000001L));
+    }
+
+    @Test
+    public void testClear() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1, 1);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(1));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.pmc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests of ScanResultStore.
+ */
+public class ScanResultStoreTest {
+
+    @Test
+    public void testPackMac() {
+        assertEquals(0xaabbccddeeffL, ScanResultStore.packMac("aa:bb:cc:dd:ee:ff"));
+        assertEquals(0xaabbccddeeffL, ScanResultStore.packMac("AA:BB:CC:DD:EE:FF"));
+        assertEquals(0, ScanResultStore.packMac("00:00:00:00:00:00"));
+        assertEquals(0xffffffffffffL, ScanResultStore.packMac("ff:ff:ff:ff:ff:ff"));
+    }
+
+    @Test
+    public void testPackInvalidMac() {
+        assertEquals(-1, ScanResultStore.packMac(null));
+        assertEquals(-1, ScanResultStore.packMac(""));
+        assertEquals(-1, ScanResultStore.packMac("aa:bb:cc:dd:ee"));
+        assertEquals(-1, ScanResultStore.packMac("aa:bb:cc:dd:ee:ff:"));
+        assertEquals(-1, ScanResultStore.packMac("aa-bb-cc-dd-ee-ff"));
+        assertEquals(-1, ScanResultStore.packMac("aa:bb:cc:dd:ee:fg"));
+    }
+
+    @Test
+    public void testFormatMac() {
+        assertEquals("0a:bb:cc:dd:ee:0f", ScanResultStore.formatMac(0x0abbccddee0fL));
+        String mac = "12:34:56:78:9a:bc";
+        assertEquals(mac, ScanResultStore.formatMac(ScanResultStore.packMac(mac)));
+    }
+
+    @Test
+    public void testAddResult() {
+        ScanResultStore store = new ScanResultStore();
+        assertEquals(0, store.beginScan(ScanResultStore.SOURCE_CONN_SCAN, 1000));
+        int id = store.addResult(0x111111111111L, 2412, -40, 0, 1);
+        assertEquals(0, id);
+        assertEquals(1, store.addResult(0x222222222222L, 5180, -70, 1, 2));
+        assertEquals(1, store.beginScan(ScanResultStore.SOURCE_GSCAN, 2000));
+        // The same BSSID keeps its id across scans
+        assertEquals(id, store.addResult(0x111111111111L, 2412, -45, 0, 3));
+        assertEquals(2, store.getScanCount());
+        assertEquals(3, store.getResultCount());
+        assertEquals(2, store.getBssidCount());
+        assertEquals(0x222222222222L, store.getBssid(1));
+        assertEquals(1, store.getBssidId(0x222222222222L));
+        assertEquals(-1, store.getBssidId(0x333333333333L));
+    }
+
+    @Test
+    public void testInvalidAndDroppedResults() {
+        ScanResultStore store = new ScanResultStore(2);
+        // No scan started yet
+        assertEquals(-1, store.addResult(1, 2412, -40, 0, 0));
+        store.beginScan(ScanResultStore.SOURCE_CONN_SCAN, 0);
+        assertEquals(-1, store.addResult(-1, 2412, -40, 0, 0));
+        store.addResult(1, 2412, -40, 0, 0);
+        store.addResult(2, 2412, -40, 0, 0);
+        assertEquals(-1, store.addResult(3, 2412, -40, 0, 0));
+        assertEquals(2, store.getResultCount());
+        assertEquals(2, store.getDroppedCount());
+        assertEquals(1, store.getInvalidCount());
+    }
+
+    @Test
+    public void testGrowth() {
+        ScanResultStore store = new ScanResultStore();
+        for (int scan = 0; scan < 300; scan++) {
+            store.beginScan(ScanResultStore.SOURCE_GSCAN, scan);
+            for (int i = 0; i < 10; i++) {
+                store.addResult(scan * 10 + i, 2412, -50, 0, scan);
+            }
+        }
+        assertEquals(300, store.getScanCount());
+        assertEquals(3000, store.getResultCount());
+        assertEquals(3000, store.getBssidCount());
+        assertEquals(2999, store.getBssidId(2999));
+    }
+
+    @Test
+    public void testClear() {
+        ScanResultStore store = new ScanResultStore();
+        store.beginScan(ScanResultStore.SOURCE_CONN_SCAN, 0);
+        store.addResult(1, 2412, -40, 0, 0);
+        store.addResult(-1, 2412, -40, 0, 0);
+        store.clear();
+        assertEquals(0, store.getScanCount());
+        assertEquals(0, store.getResultCount());
+        assertEquals(0, store.getBssidCount());
+        assertEquals(0, store.getInvalidCount());
+        assertEquals(-1, store.getBssidId(1));
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        ScanResultStore store = new ScanResultStore();
+        store.beginScan(ScanResultStore.SOURCE_CONN_SCAN, 123);
+        store.addResult(0xaabbccddeeffL, 5180, -60, 2, 456);
+        store.addResult(0x010203040506L, 2412, -30, 0, 789);
+        File file = File.createTempFile("scans", ".bin");
+        try {
+            store.export(file);
+            // Header, then 8 bytes per BSSID, 13 bytes per scan and 22 bytes per result
+            assertEquals(20 + 2 * 8 + 13 + 2 * 22, file.length());
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                assertEquals(ScanResultStore.MAGIC, in.readInt());
+                assertEquals(ScanResultStore.VERSION, in.readInt());
+                assertEquals(2, in.readInt());
+                assertEquals(1, in.readInt());
+                assertEquals(2, in.readInt());
+                assertEquals(0xaabbccddeeffL, in.readLong());
+                assertEquals(0x010203040506L, in.readLong());
+                assertEquals(123, in.readLong());
+                assertEquals(ScanResultStore.SOURCE_CONN_SCAN, in.readByte());
+                assertEquals(0, in.readInt());
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}